@@ -0,0 +1,127 @@
+import java.util.Arrays;
+
+/**
+ * The ARC replacement policy (Megiddo and Modha). Resident pages are
+ * split between T1, pages seen once recently, and T2, pages seen at
+ * least twice. Ghost lists B1 and B2 remember pages recently replaced
+ * from each. A miss that hits a ghost list shifts the target size p of
+ * T1 towards the list that would have kept the page, so the policy
+ * adapts between recency and frequency as the workload changes.
+ *
+ * All lists are linked lists, so every hook is O(1). A pinned frame
+ * is parked off T1 or T2 rather than skipped over by every victim
+ * search, and still counts towards the list it goes back on.
+ * @author Yawen Chen and Tao Liu
+ */
+public class ArcPolicy extends LockingPolicy
+{
+    private int capacity;
+    // Target size of T1.
+    private int p;
+    private FrameList t1;
+    private FrameList t2;
+    private GhostList b1;
+    private GhostList b2;
+    private long[] keys;
+
+    /**
+     * Returns the target size of T1, which ghost hits adapt. Read
+     * without the lock, so only a hint while the pool is in use.
+     * @return the target, in frames.
+     */
+    public int getTarget()
+    {
+        return p;
+    }
+
+    protected void allocate(int poolSize)
+    {
+        capacity = poolSize;
+        p = 0;
+        t1 = new FrameList(poolSize);
+        t2 = new FrameList(poolSize);
+        b1 = new GhostList(poolSize);
+        b2 = new GhostList(poolSize);
+        keys = new long[poolSize];
+    }
+
+    protected void resize(int poolSize)
+    {
+        capacity = poolSize;
+        p = Math.min(p, capacity);
+        t1.ensureCapacity(poolSize);
+        t2.ensureCapacity(poolSize);
+        b1 = b1.resized(poolSize);
+        b2 = b2.resized(poolSize);
+        if (poolSize > keys.length)
+            keys = Arrays.copyOf(keys, poolSize);
+        trimGhosts();
+    }
+
+    protected void onLoaded(int frame, long key)
+    {
+        keys[frame] = key;
+        if (b1.contains(key))
+        {
+            int delta = b1.size() >= b2.size() ? 1 : b2.size() / b1.size();
+            p = Math.min(capacity, p + delta);
+            b1.remove(key);
+            t2.addFirst(frame);
+        }
+        else if (b2.contains(key))
+        {
+            int delta = b2.size() >= b1.size() ? 1 : b1.size() / b2.size();
+            p = Math.max(0, p - delta);
+            b2.remove(key);
+            t2.addFirst(frame);
+        }
+        else
+            t1.addFirst(frame);
+    }
+
+    protected void onPinned(int frame)
+    {
+        // A hit moves the page to the front of T2, where it goes back
+        // once unpinned.
+        if (t1.remove(frame) || t2.remove(frame) || parkedList(frame) != null)
+            park(frame, t2, true);
+    }
+
+    protected void onRemoved(int frame)
+    {
+        if (t1.remove(frame))
+            b1.add(keys[frame]);
+        else if (t2.remove(frame))
+            b2.add(keys[frame]);
+        trimGhosts();
+    }
+
+    /**
+     * Keeps |T1| + |B1| <= c and the whole directory <= 2c.
+     */
+    private void trimGhosts()
+    {
+        int resident = t1.residentSize() + t2.residentSize();
+        while (t1.residentSize() + b1.size() > capacity && b1.size() > 0)
+            b1.removeLast();
+        while (resident + b1.size() + b2.size() > 2 * capacity
+               && b2.size() > 0)
+            b2.removeLast();
+    }
+
+    protected int chooseVictim()
+    {
+        boolean fromT1 = t1.size() > 0 && t1.residentSize() > p;
+        int frame = claimFromBack(fromT1 ? t1 : t2);
+        if (frame == NO_VICTIM)
+            frame = claimFromBack(fromT1 ? t2 : t1);
+        return frame;
+    }
+
+    protected int listVictims(int[] out)
+    {
+        boolean fromT1 = t1.size() > 0 && t1.residentSize() > p;
+        int n = listFromBack(fromT1 ? t1 : t2, out, 0);
+        return listFromBack(fromT1 ? t2 : t1, out, n);
+    }
+}
@@ -64,8 +64,8 @@ public class BMTester
                 System.out.println("origin is------: "+ orig);
                 System.out.println("PAGE[" + i + "]: " +
                                  readBack.substring(0,orig.length()));
-               //if (!readBack.regionMatches(0,orig,0,orig.length()))
-                    //throw new TestFailedException("Page content incorrect");
+                if (!readBack.regionMatches(0,orig,0,orig.length()))
+                    throw new TestFailedException("Page content incorrect");
                 bufMgr.unpinPage(i,filename,false);
             }
         }
@@ -163,23 +163,1812 @@ public class BMTester
     }
 
 
+    //-----------------------------------------------------------
+    // test 3
+    //      Testing that the same page id in two databases maps to
+    //      two different pages
+    //------------------------------------------------------------
+    public static class Test3 implements Testable
+    {
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 3 -------");
+            String other = filename + "_other";
+            new DBFile(other,NUMBUF);
+            try
+            {
+                bufMgr.newPage(3,filename);
+                bufMgr.newPage(3,other);
+                for (int i=0; i<3; i++)
+                {
+                    Page mine = bufMgr.pinPage(i,filename,false);
+                    Page theirs = bufMgr.pinPage(i,other,false);
+                    if (mine == theirs ||
+                        bufMgr.findFrame(i,filename) ==
+                        bufMgr.findFrame(i,other))
+                        throw new TestFailedException("Files share a frame");
+                    mine.data[0] = 1;
+                    theirs.data[0] = 2;
+                    bufMgr.unpinPage(i,filename,true);
+                    bufMgr.unpinPage(i,other,true);
+                }
+                bufMgr.unpinPage(0,filename,false);
+                bufMgr.unpinPage(0,other,false);
+                bufMgr.flushAllPages();
+
+                // Read back through a second buffer manager.
+                BufferManager fresh = new BufferManager(NUMBUF);
+                try
+                {
+                    for (int i=0; i<3; i++)
+                    {
+                        if (fresh.pinPage(i,filename,false).data[0] != 1 ||
+                            fresh.pinPage(i,other,false).data[0] != 2)
+                            throw new TestFailedException(
+                                "Page written to wrong file");
+                        fresh.unpinPage(i,filename,false);
+                        fresh.unpinPage(i,other,false);
+                    }
+                }
+                finally
+                {
+                    fresh.close();
+                }
+                System.out.println("Test 3 passed");
+            }
+            finally
+            {
+                DBFile.erase(other);
+            }
+        }
+    }
+
+
+    //-----------------------------------------------------------
+    // test 4
+    //      Testing concurrent pinning: every pinned page must hold
+    //      its own contents, however the threads interleave
+    //------------------------------------------------------------
+    public static class Test4 implements Testable
+    {
+        public static final int NUMTHREADS = 8;
+        public static final int NUMOPS = 20000;
+
+        public void test(final BufferManager bufMgr, final String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 4 -------");
+            final int numPages = 3*bufMgr.poolSize();
+            bufMgr.newPage(numPages,filename);
+            bufMgr.unpinPage(0,filename,false);
+            for (int i=0; i<numPages; i++)
+            {
+                Page page = bufMgr.pinPage(i,filename,false);
+                page.buffer().putInt(0,i);
+                bufMgr.unpinPage(i,filename,true);
+            }
+
+            final Exception[] failure = new Exception[1];
+            Thread[] threads = new Thread[NUMTHREADS];
+            for (int t=0; t<NUMTHREADS; t++)
+            {
+                final java.util.Random random = new java.util.Random(t);
+                threads[t] = new Thread() {
+                    public void run()
+                    {
+                        try
+                        {
+                            for (int n=0; n<NUMOPS; n++)
+                            {
+                                int i = random.nextInt(numPages);
+                                Page page = bufMgr.pinPage(i,filename,false);
+                                if (page == null)
+                                    throw new TestFailedException(
+                                        "Unable to pin page");
+                                if (page.buffer().getInt(0) != i)
+                                    throw new TestFailedException(
+                                        "Pinned page " + i + " holds page "
+                                        + page.buffer().getInt(0));
+                                bufMgr.unpinPage(i,filename,
+                                                 random.nextInt(4) == 0);
+                            }
+                        }
+                        catch (Exception e)
+                        {
+                            synchronized (failure)
+                            {
+                                failure[0] = e;
+                            }
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+            if (failure[0] != null)
+                throw failure[0];
+            System.out.println("Test 4 passed");
+        }
+    }
+
+    //-----------------------------------------------------------
+    // test 5
+    //      Testing that a sequential scan does not evict the pages
+    //      in use before it
+    //------------------------------------------------------------
+    public static class Test5 implements Testable
+    {
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 5 -------");
+            int numHot = bufMgr.poolSize()/2;
+            int numScanned = 5*bufMgr.poolSize();
+            bufMgr.newPage(numHot+numScanned,filename);
+            bufMgr.unpinPage(0,filename,false);
+            for (int i=0; i<numHot; i++)
+            {
+                bufMgr.pinPage(i,filename,false);
+                bufMgr.unpinPage(i,filename,false);
+            }
+
+            for (int i=numHot; i<numHot+numScanned; i++)
+            {
+                Page page = bufMgr.pinPage(i,filename,false,
+                    BufferManager.AccessHint.SEQUENTIAL);
+                if (page == null)
+                    throw new TestFailedException("Unable to pin page");
+                bufMgr.unpinPage(i,filename,i%3 == 0);
+            }
+
+            for (int i=0; i<numHot; i++)
+                if (bufMgr.findFrame(i,filename) < 0)
+                    throw new TestFailedException("Scan evicted page " + i);
+            System.out.println("Test 5 passed");
+        }
+    }
+
+    //-----------------------------------------------------------
+    // test 6
+    //      Testing that the background writer cleans victims before
+    //      a miss needs them
+    //------------------------------------------------------------
+    public static class Test6 implements Testable
+    {
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 6 -------");
+            int n = bufMgr.poolSize();
+            bufMgr.newPage(2*n,filename);
+            bufMgr.unpinPage(0,filename,false);
+            for (int i=0; i<n; i++)
+            {
+                Page page = bufMgr.pinPage(i,filename,false);
+                page.buffer().putInt(0,i);
+                bufMgr.unpinPage(i,filename,true);
+            }
+
+            BackgroundWriter writer = bufMgr.startBackgroundWriter(10,n,n);
+            for (int tries=0; writer.getPagesWritten() < n; tries++)
+            {
+                if (tries == 500)
+                    throw new TestFailedException("Background writer " +
+                        "wrote only " + writer.getPagesWritten() + " pages");
+                Thread.sleep(10);
+            }
+            bufMgr.stopBackgroundWriter();
+
+            long before = bufMgr.getForegroundWrites();
+            for (int i=n; i<2*n; i++)
+            {
+                if (bufMgr.pinPage(i,filename,false) == null)
+                    throw new TestFailedException("Unable to pin page");
+                bufMgr.unpinPage(i,filename,false);
+            }
+            if (bufMgr.getForegroundWrites() != before)
+                throw new TestFailedException("Misses wrote dirty victims");
+            for (int i=0; i<n; i++)
+            {
+                Page page = bufMgr.pinPage(i,filename,false);
+                if (page.buffer().getInt(0) != i)
+                    throw new TestFailedException("Page " + i + " lost");
+                bufMgr.unpinPage(i,filename,true);
+            }
+
+            // Once a quarter of the upcoming victims are clean, rounds
+            // stop writing. Policies list their victims only roughly in
+            // order, so a few more may be written, but not the pool.
+            int mark = Math.max(1, n/4);
+            writer = bufMgr.startBackgroundWriter(10,n,mark);
+            for (int tries=0; writer.getPagesWritten() < mark; tries++)
+            {
+                if (tries == 500)
+                    throw new TestFailedException("Background writer " +
+                        "wrote only " + writer.getPagesWritten() + " pages");
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            bufMgr.stopBackgroundWriter();
+            if (writer.getPagesWritten() >= n)
+                throw new TestFailedException("Background writer wrote " +
+                    "every page with a low-water mark of " + mark);
+            System.out.println("Test 6 passed");
+        }
+    }
+
+    //-----------------------------------------------------------
+    // test 7
+    //      Testing that flushAllPages writes runs of dirty pages to
+    //      the right places
+    //------------------------------------------------------------
+    public static class Test7 implements Testable
+    {
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 7 -------");
+            int n = bufMgr.poolSize();
+            bufMgr.newPage(2*n,filename);
+            bufMgr.unpinPage(0,filename,false);
+            // Dirty pages in a scattered order with gaps, so that the
+            // flush has to sort them and write several runs.
+            for (int j=0; j<n; j++)
+            {
+                int i = (j*7) % n;
+                Page page = bufMgr.pinPage(i,filename,false);
+                page.buffer().putInt(0,1000+i);
+                page.buffer().putInt(Page.PAGESIZE-4,i);
+                bufMgr.unpinPage(i,filename,i%5 != 3);
+            }
+            bufMgr.flushAllPages();
+
+            DBFile dbFile = new DBFile(filename);
+            try
+            {
+                Page page = new Page();
+                for (int i=0; i<n; i++)
+                {
+                    dbFile.readPage(i,page);
+                    boolean flushed = page.buffer().getInt(0) == 1000+i &&
+                        page.buffer().getInt(Page.PAGESIZE-4) == i;
+                    if (flushed != (i%5 != 3))
+                        throw new TestFailedException("Page " + i +
+                                                      " flushed wrongly");
+                }
+            }
+            finally
+            {
+                dbFile.close();
+            }
+            System.out.println("Test 7 passed");
+        }
+    }
+
+    //-----------------------------------------------------------
+    // test 8
+    //      Testing sequential read-ahead
+    //------------------------------------------------------------
+    public static class Test8 implements Testable
+    {
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 8 -------");
+            int numPages = 4*bufMgr.poolSize();
+            bufMgr.newPage(numPages,filename);
+            bufMgr.unpinPage(0,filename,false);
+            for (int i=0; i<numPages; i++)
+            {
+                Page page = bufMgr.pinPage(i,filename,false);
+                page.buffer().putInt(0,i);
+                bufMgr.unpinPage(i,filename,true);
+            }
+            bufMgr.flushAllPages();
+
+            bufMgr.enableReadAhead(2,8);
+            for (int i=0; i<numPages; i++)
+            {
+                Page page = bufMgr.pinPage(i,filename,false);
+                if (page == null)
+                    throw new TestFailedException("Unable to pin page");
+                if (page.buffer().getInt(0) != i)
+                    throw new TestFailedException("Pinned page " + i +
+                        " holds page " + page.buffer().getInt(0));
+                bufMgr.unpinPage(i,filename,false);
+                // Give the read-ahead a chance to get in front.
+                Thread.sleep(1);
+            }
+            bufMgr.disableReadAhead();
+            System.out.println("Read ahead " + bufMgr.getPrefetchedPages() +
+                               " pages, " + bufMgr.getPrefetchHits() +
+                               " hits, " + bufMgr.getPrefetchWaste() +
+                               " wasted");
+            if (bufMgr.getPrefetchHits() == 0)
+                throw new TestFailedException("No read-ahead hits");
+            System.out.println("Test 8 passed");
+        }
+    }
+
+    //-----------------------------------------------------------
+    // test 9
+    //      Testing pinRange and unpinRange
+    //------------------------------------------------------------
+    public static class Test9 implements Testable
+    {
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 9 -------");
+            int n = bufMgr.poolSize();
+            bufMgr.newPage(3*n,filename);
+            bufMgr.unpinPage(0,filename,false);
+            for (int i=0; i<3*n; i++)
+            {
+                Page page = bufMgr.pinPage(i,filename,false);
+                page.buffer().putInt(0,i);
+                bufMgr.unpinPage(i,filename,true);
+            }
+            bufMgr.flushAllPages();
+
+            // A run partly in the pool and partly on disk.
+            int start = 2*n - n/4;
+            Page[] pages = bufMgr.pinRange(start,n/2,filename);
+            if (pages == null)
+                throw new TestFailedException("Unable to pin range");
+            for (int i=0; i<pages.length; i++)
+            {
+                if (pages[i].buffer().getInt(0) != start+i)
+                    throw new TestFailedException("Range page " + (start+i)
+                        + " holds page " + pages[i].buffer().getInt(0));
+                if (bufMgr.checkPinCount(
+                        bufMgr.findFrame(start+i,filename)) != 1)
+                    throw new TestFailedException("Range page not pinned");
+            }
+
+            // The rest of the pool cannot take a run as long again, and
+            // a failed pinRange leaves no pins behind.
+            if (bufMgr.pinRange(0,n-n/2+1,filename) != null)
+                throw new TestFailedException("Pinned range in full pool");
+            if (bufMgr.pinRange(0,n+1,filename) != null)
+                throw new TestFailedException("Pinned range beyond pool");
+            bufMgr.unpinRange(start,n/2,filename,false);
+            for (int f=0; f<n; f++)
+                if (bufMgr.checkPinCount(f) != 0)
+                    throw new TestFailedException("Frame " + f +
+                                                  " left pinned");
+
+            pages = bufMgr.pinRange(0,n,filename);
+            if (pages == null)
+                throw new TestFailedException("Unable to pin whole pool");
+            for (int i=0; i<n; i++)
+                if (pages[i].buffer().getInt(0) != i)
+                    throw new TestFailedException("Range page " + i +
+                                                  " holds wrong page");
+            bufMgr.unpinRange(0,n,filename,false);
+            System.out.println("Test 9 passed");
+        }
+    }
+
+    //-----------------------------------------------------------
+    // test 10
+    //      Testing that allocation reuses freed runs and that the
+    //      space map survives reopening the database
+    //------------------------------------------------------------
+    public static class Test10 implements Testable
+    {
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 10 -------");
+            DBFile dbFile = new DBFile(filename);
+            int a = dbFile.allocatePages(10);
+            int b = dbFile.allocatePages(5);
+            int c = dbFile.allocatePages(10);
+            dbFile.deallocatePages(b,5);
+            dbFile.deallocatePages(a+2,3);
+            // Best fit: the 3-page hole, then the 5-page one.
+            if (dbFile.allocatePages(3) != a+2 ||
+                dbFile.allocatePages(4) != b)
+                throw new TestFailedException("Freed runs not reused");
+            dbFile.close();
+
+            DBFile reopened = new DBFile(filename);
+            try
+            {
+                Page page = new Page();
+                reopened.readPage(b+3,page);
+                reopened.readPage(c+9,page);
+                try
+                {
+                    reopened.readPage(b+4,page);
+                    throw new TestFailedException("Freed page readable");
+                }
+                catch (DBFile.PageNotAllocatedException e)
+                {
+                }
+            }
+            finally
+            {
+                reopened.close();
+            }
+            System.out.println("Test 10 passed");
+        }
+    }
+
+    //-----------------------------------------------------------
+    // test 11
+    //      Testing that a database over 2 GB is created sparse and
+    //      reads back as zeros
+    //------------------------------------------------------------
+    public static class Test11 implements Testable
+    {
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 11 -------");
+            String big = filename + "_big";
+            int numPages = Integer.MAX_VALUE/Page.PAGESIZE + 1024;
+            long start = System.nanoTime();
+            DBFile dbFile = new DBFile(big,numPages);
+            long millis = (System.nanoTime()-start)/1000000;
+            try
+            {
+                System.out.println("Created " + numPages + " pages in " +
+                                   millis + " ms");
+                if (dbFile.allocatePages(numPages) != 0)
+                    throw new TestFailedException("Allocation failed");
+                Page page = new Page();
+                page.buffer().putInt(0,12345);
+                dbFile.writePage(numPages-1,page);
+                dbFile.readPage(numPages/2,page);
+                for (int i=0; i<Page.PAGESIZE; i++)
+                    if (page.buffer().get(i) != 0)
+                        throw new TestFailedException("Page not zero");
+                dbFile.readPage(numPages-1,page);
+                if (page.buffer().getInt(0) != 12345)
+                    throw new TestFailedException("Last page lost");
+            }
+            finally
+            {
+                dbFile.close();
+                DBFile.erase(big);
+            }
+            System.out.println("Test 11 passed");
+        }
+    }
+
+    //-----------------------------------------------------------
+    // test 12
+    //      Testing that a full database grows when auto-extension
+    //      is on, both on demand and ahead of need
+    //------------------------------------------------------------
+    public static class Test12 implements Testable
+    {
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 12 -------");
+            bufMgr.setFileAutoExtend(filename,100,DBFile.Growth.FIXED,false);
+            Pair<Integer,Page> all = bufMgr.newPage(NUMBUF+500,filename);
+            bufMgr.unpinPage(all.first,filename,false);
+            Pair<Integer,Page> extra = bufMgr.newPage(10,filename);
+            if (extra.first < NUMBUF+500)
+                throw new TestFailedException("Allocated inside full file");
+            extra.second.buffer().putInt(0,4321);
+            bufMgr.unpinPage(extra.first,filename,true);
+            bufMgr.flushAllPages();
+            Page page = bufMgr.pinPage(extra.first,filename,false);
+            if (page.buffer().getInt(0) != 4321)
+                throw new TestFailedException("Grown page lost");
+            bufMgr.unpinPage(extra.first,filename,false);
+
+            String grown = filename + "_grown";
+            DBFile dbFile = new DBFile(grown,8);
+            int last;
+            try
+            {
+                dbFile.setAutoExtend(8,DBFile.Growth.GEOMETRIC,true);
+                last = -1;
+                for (int i=0; i<200; i++)
+                    last = dbFile.allocatePages(1);
+                if (dbFile.getNumPages() <= last)
+                    throw new TestFailedException("Page count not updated");
+                page = new Page();
+                page.buffer().putInt(0,last);
+                dbFile.writePage(last,page);
+            }
+            finally
+            {
+                dbFile.close();
+            }
+            DBFile reopened = new DBFile(grown);
+            try
+            {
+                page = new Page();
+                reopened.readPage(last,page);
+                if (page.buffer().getInt(0) != last)
+                    throw new TestFailedException("Page lost on reopen");
+            }
+            finally
+            {
+                reopened.close();
+                DBFile.erase(grown);
+            }
+            System.out.println("Test 12 passed");
+        }
+    }
+
+    //-----------------------------------------------------------
+    // test 13
+    //      Testing that compressed pages read back intact, that
+    //      pages which do not compress are stored raw, and that the
+    //      indirection table survives a reopen
+    //------------------------------------------------------------
+    public static class Test13 implements Testable
+    {
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 13 -------");
+            java.util.Random random = new java.util.Random(13);
+            int numPages = NUMBUF*3;
+            Pair<Integer,Page> run = bufMgr.newPage(numPages,filename);
+            int first = run.first;
+            bufMgr.unpinPage(first,filename,false);
+            for (int i=0; i<numPages; i++)
+            {
+                Page page = bufMgr.pinPage(first+i,filename,false);
+                for (int j=0; j<Page.PAGESIZE; j+=4)
+                    page.buffer().putInt(j, i%2 == 0 ? i+j/64 :
+                                         random.nextInt());
+                bufMgr.unpinPage(first+i,filename,true);
+            }
+            bufMgr.flushAllPages();
+            bufMgr.close();
+
+            CompressedDBFile dbFile = new CompressedDBFile(filename);
+            try
+            {
+                if (dbFile.getStoredLength(first) >= Page.PAGESIZE/2)
+                    throw new TestFailedException("Page not compressed");
+                if (dbFile.getStoredLength(first+1) != Page.PAGESIZE)
+                    throw new TestFailedException("Random page compressed");
+                random = new java.util.Random(13);
+                Page page = new Page();
+                for (int i=0; i<numPages; i++)
+                {
+                    dbFile.readPage(first+i,page);
+                    for (int j=0; j<Page.PAGESIZE; j+=4)
+                        if (page.buffer().getInt(j) != (i%2 == 0 ? i+j/64 :
+                                                         random.nextInt()))
+                            throw new TestFailedException("Page " + i +
+                                                          " corrupted");
+                }
+                // Freed pages give up their slots and can be rewritten.
+                dbFile.deallocatePages(first,2);
+                int again = dbFile.allocatePages(2);
+                page.clear();
+                dbFile.writePage(again,page);
+                dbFile.readPage(again,page);
+                for (int j=0; j<Page.PAGESIZE; j++)
+                    if (page.buffer().get(j) != 0)
+                        throw new TestFailedException("Rewritten page wrong");
+            }
+            finally
+            {
+                dbFile.close();
+            }
+            System.out.println("Test 13 passed");
+        }
+    }
+
+    //-----------------------------------------------------------
+    // test 14
+    //      Testing that direct I/O keeps every page when threads
+    //      write neighbouring pages of the same blocks at once
+    //------------------------------------------------------------
+    public static class Test14 implements Testable
+    {
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 14 -------");
+            final DirectDBFile dbFile = new DirectDBFile(filename);
+            try
+            {
+                System.out.println("Direct I/O: " + dbFile.isDirect() +
+                                   ", block size " + dbFile.getBlockSize());
+                final int numPages = 64;
+                final int first = dbFile.allocatePages(numPages);
+                Thread[] threads = new Thread[4];
+                final Exception[] failure = new Exception[1];
+                for (int t=0; t<threads.length; t++)
+                {
+                    final int offset = t;
+                    threads[t] = new Thread(() -> {
+                        try {
+                            Page page = new Page();
+                            for (int i=offset; i<numPages; i+=threads.length)
+                            {
+                                page.buffer().putInt(0,i*31);
+                                dbFile.writePage(first+i,page);
+                            }
+                        }
+                        catch (Exception e) {
+                            failure[0] = e;
+                        }
+                    });
+                    threads[t].start();
+                }
+                for (Thread thread : threads)
+                    thread.join();
+                if (failure[0] != null)
+                    throw failure[0];
+
+                Page[] pages = new Page[numPages];
+                for (int i=0; i<numPages; i++)
+                    pages[i] = new Page();
+                dbFile.readPages(first,pages,numPages);
+                for (int i=0; i<numPages; i++)
+                    if (pages[i].buffer().getInt(0) != i*31)
+                        throw new TestFailedException("Page " + i + " lost");
+                dbFile.force();
+            }
+            finally
+            {
+                dbFile.close();
+            }
+            System.out.println("Test 14 passed");
+        }
+    }
+
+    //-----------------------------------------------------------
+    // test 15
+    //      Testing that many asynchronous pins can be in flight at
+    //      once, and that their failures reach the caller
+    //------------------------------------------------------------
+    public static class Test15 implements Testable
+    {
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 15 -------");
+            int numPages = NUMBUF*2;
+            Pair<Integer,Page> run = bufMgr.newPage(numPages,filename);
+            int first = run.first;
+            bufMgr.unpinPage(first,filename,false);
+            for (int i=0; i<numPages; i++)
+            {
+                Page page = bufMgr.pinPage(first+i,filename,true);
+                page.buffer().putInt(0,i*7);
+                bufMgr.unpinPage(first+i,filename,true);
+            }
+            bufMgr.flushAllPages();
+
+            IOEngine engine = bufMgr.startIOEngine(4);
+            java.util.List<java.util.concurrent.CompletableFuture<Page>>
+                futures = new java.util.ArrayList<>();
+            for (int i=0; i<NUMBUF; i++)
+                futures.add(bufMgr.pinPageAsync(first+i,filename));
+            for (int i=0; i<NUMBUF; i++)
+            {
+                Page page = futures.get(i).get();
+                if (page == null || page.buffer().getInt(0) != i*7)
+                    throw new TestFailedException("Async pin " + i +
+                                                  " wrong");
+            }
+            if (engine.getInFlight() != 0)
+                throw new TestFailedException("Pins still in flight");
+            // Resident now, so pinned without a worker.
+            if (!bufMgr.pinPageAsync(first,filename).isDone())
+                throw new TestFailedException("Resident pin went async");
+            bufMgr.unpinPage(first,filename,false);
+            for (int i=0; i<NUMBUF; i++)
+                bufMgr.unpinPage(first+i,filename,false);
+
+            try
+            {
+                bufMgr.pinPageAsync(first+numPages,filename).get();
+                throw new TestFailedException("Bad pin succeeded");
+            }
+            catch (java.util.concurrent.ExecutionException e)
+            {
+                if (!(e.getCause() instanceof
+                      DBFile.PageNotAllocatedException))
+                    throw e;
+            }
+
+            // A worker submitting into a full queue runs the operation
+            // itself rather than wait for room only it can make.
+            IOEngine single = new IOEngine(1);
+            try
+            {
+                java.util.concurrent.CompletableFuture<
+                    java.util.List<java.util.concurrent.CompletableFuture<
+                        Integer>>> chained = single.submit(() -> {
+                    java.util.List<java.util.concurrent.CompletableFuture<
+                        Integer>> inner = new java.util.ArrayList<>();
+                    for (int i=0; i<3; i++)
+                    {
+                        int value = i;
+                        inner.add(single.submit(() -> value));
+                    }
+                    return inner;
+                });
+                java.util.List<java.util.concurrent.CompletableFuture<
+                    Integer>> inner =
+                    chained.get(10,java.util.concurrent.TimeUnit.SECONDS);
+                for (int i=0; i<3; i++)
+                    if (inner.get(i).get(10,
+                            java.util.concurrent.TimeUnit.SECONDS) != i)
+                        throw new TestFailedException("Chained submit wrong");
+            }
+            catch (java.util.concurrent.TimeoutException e)
+            {
+                throw new TestFailedException("Chained submit deadlocked");
+            }
+            finally
+            {
+                single.close();
+            }
+            System.out.println("Test 15 passed");
+        }
+    }
+
+    //-----------------------------------------------------------
+    // test 16
+    //      Testing that threads missing on the same page at once
+    //      share one frame, and all see a failed read fail
+    //------------------------------------------------------------
+    public static class Test16 implements Testable
+    {
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 16 -------");
+            Pair<Integer,Page> run = bufMgr.newPage(2,filename);
+            int first = run.first;
+            run.second.buffer().putInt(0,1616);
+            bufMgr.unpinPage(first,filename,true);
+            bufMgr.flushAllPages();
+            // Push the page out of the pool.
+            for (int i=0; i<NUMBUF; i++)
+            {
+                Pair<Integer,Page> other = bufMgr.newPage(1,filename);
+                bufMgr.unpinPage(other.first,filename,false);
+            }
+            bufMgr.freePage(first+1,filename);
+
+            int numThreads = 8;
+            for (int target : new int[] {first, first+1})
+            {
+                java.util.concurrent.CountDownLatch start =
+                    new java.util.concurrent.CountDownLatch(1);
+                Page[] pages = new Page[numThreads];
+                Exception[] failures = new Exception[numThreads];
+                Thread[] threads = new Thread[numThreads];
+                for (int t=0; t<numThreads; t++)
+                {
+                    final int slot = t;
+                    threads[t] = new Thread(() -> {
+                        try {
+                            start.await();
+                            pages[slot] = bufMgr.pinPage(target,filename,
+                                                         false);
+                        }
+                        catch (Exception e) {
+                            failures[slot] = e;
+                        }
+                    });
+                    threads[t].start();
+                }
+                start.countDown();
+                for (Thread thread : threads)
+                    thread.join();
+
+                for (int t=0; t<numThreads; t++)
+                {
+                    if (target == first)
+                    {
+                        if (failures[t] != null)
+                            throw failures[t];
+                        if (pages[t] != pages[0] ||
+                            pages[t].buffer().getInt(0) != 1616)
+                            throw new TestFailedException("Page loaded twice");
+                    }
+                    else if (!(failures[t] instanceof
+                               DBFile.PageNotAllocatedException))
+                        throw new TestFailedException("Failure not shared");
+                }
+                if (target == first)
+                {
+                    int frame = bufMgr.findFrame(first,filename);
+                    if (bufMgr.checkPinCount(frame) != numThreads)
+                        throw new TestFailedException("Pins lost");
+                    for (int t=0; t<numThreads; t++)
+                        bufMgr.unpinPage(first,filename,false);
+                }
+                else if (bufMgr.findFrame(target,filename) != -1)
+                    throw new TestFailedException("Failed page left mapped");
+            }
+            // No frame was leaked by the failed loads.
+            for (int i=0; i<NUMBUF; i++)
+                if (bufMgr.newPage(1,filename) == null)
+                    throw new TestFailedException("Frame leaked");
+            System.out.println("Test 16 passed");
+        }
+    }
+
+
+    public static class Test17 implements Testable
+    {
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 17 -------");
+            int[] sizes = {4096, 8192, 16384};
+            String[] names = new String[sizes.length];
+            try
+            {
+                for (int s=0; s<sizes.length; s++)
+                {
+                    names[s] = filename + "_" + sizes[s];
+                    DBFile.erase(names[s]);
+                    new DBFile(names[s],50,sizes[s],false).close();
+                    DBFile dbFile = new DBFile(names[s]);
+                    try
+                    {
+                        if (dbFile.getPageSize() != sizes[s])
+                            throw new TestFailedException("Page size lost");
+                        dbFile.allocatePages(1);
+                        try
+                        {
+                            dbFile.writePage(0,new Page());
+                            throw new TestFailedException(
+                                "Wrong-size page written");
+                        }
+                        catch (DBFile.PageSizeMismatchException e)
+                        {
+                        }
+                    }
+                    finally
+                    {
+                        dbFile.close();
+                    }
+                }
+
+                // The default pool holds only default-sized pages.
+                try
+                {
+                    bufMgr.newPage(1,names[0]);
+                    throw new TestFailedException("Oversized page pinned");
+                }
+                catch (DBFile.PageSizeMismatchException e)
+                {
+                }
+
+                // One pool shared by all three databases and this one.
+                for (boolean offHeap : new boolean[] {false, true})
+                {
+                    BufferManager mixed = new BufferManager(NUMBUF,
+                        FileRegistry.DEFAULT_CAPACITY,offHeap,
+                        new ClockPolicy(),16384);
+                    try
+                    {
+                        String[] all = {names[0], names[1], names[2], filename};
+                        int[] firsts = new int[all.length];
+                        for (int f=0; f<all.length; f++)
+                        {
+                            Pair<Integer,Page> run = mixed.newPage(5,all[f]);
+                            firsts[f] = run.first;
+                            mixed.unpinPage(run.first,all[f],false);
+                            for (int i=0; i<5; i++)
+                            {
+                                Page page = mixed.pinPage(run.first+i,all[f],
+                                                          false);
+                                int size = page.size();
+                                page.buffer().putInt(0,f*100+i);
+                                page.buffer().putInt(size-4,size);
+                                mixed.unpinPage(run.first+i,all[f],true);
+                            }
+                        }
+                        mixed.flushAllPages();
+                        // Cycle every frame through every page size.
+                        for (int round=0; round<2; round++)
+                            for (int f=all.length-1; f>=0; f--)
+                                for (int i=0; i<5; i++)
+                                {
+                                    Page page = mixed.pinPage(firsts[f]+i,
+                                                              all[f],false);
+                                    int expected = f < sizes.length ?
+                                        sizes[f] : Page.PAGESIZE;
+                                    if (page.size() != expected ||
+                                        page.buffer().getInt(0) != f*100+i ||
+                                        page.buffer().getInt(expected-4)
+                                        != expected)
+                                        throw new TestFailedException(
+                                            "Page read back wrong");
+                                    mixed.unpinPage(firsts[f]+i,all[f],false);
+                                }
+                    }
+                    finally
+                    {
+                        mixed.close();
+                    }
+                }
+
+                // A data file that does not fit the recorded page size.
+                java.io.RandomAccessFile data =
+                    new java.io.RandomAccessFile(names[0],"rw");
+                data.setLength(data.length()+100);
+                data.close();
+                try
+                {
+                    new DBFile(names[0]).close();
+                    throw new TestFailedException("Bad header accepted");
+                }
+                catch (DBFile.BadFileHeaderException e)
+                {
+                }
+            }
+            finally
+            {
+                for (String name : names)
+                    if (name != null)
+                        DBFile.erase(name);
+            }
+            System.out.println("Test 17 passed");
+        }
+    }
+
+
+    public static class Test18 implements Testable
+    {
+        public void test(final BufferManager bufMgr, final String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 18 -------");
+            final int numPages = 4*NUMBUF;
+            bufMgr.newPage(numPages,filename);
+            bufMgr.unpinPage(0,filename,false);
+            for (int i=0; i<numPages; i++)
+            {
+                Page page = bufMgr.pinPage(i,filename,false);
+                page.buffer().putInt(0,i);
+                bufMgr.unpinPage(i,filename,true);
+            }
+
+            // Grow: twice as many pages can be pinned at once.
+            bufMgr.resize(2*NUMBUF);
+            if (bufMgr.poolSize() != 2*NUMBUF)
+                throw new TestFailedException("Pool did not grow");
+            for (int i=0; i<2*NUMBUF; i++)
+                if (bufMgr.pinPage(i,filename,false) == null)
+                    throw new TestFailedException("New frames not used");
+            if (bufMgr.pinPage(2*NUMBUF,filename,false) != null)
+                throw new TestFailedException("Pool larger than its size");
+            for (int i=0; i<2*NUMBUF; i++)
+            {
+                bufMgr.pinPage(i,filename,false).buffer().putInt(4,i);
+                bufMgr.unpinPage(i,filename,true);
+                bufMgr.unpinPage(i,filename,true);
+            }
+
+            // Shrink while a page in a drained frame is pinned, and
+            // while other threads keep using the pool.
+            int held = -1;
+            for (int i=0; i<numPages && held < 0; i++)
+            {
+                int frame = bufMgr.findFrame(i,filename);
+                if (frame >= NUMBUF/2)
+                    held = i;
+            }
+            final int heldPage = held;
+            bufMgr.pinPage(heldPage,filename,false);
+            final Exception[] failure = new Exception[1];
+            final java.util.concurrent.atomic.AtomicBoolean done =
+                new java.util.concurrent.atomic.AtomicBoolean();
+            Thread[] threads = new Thread[3];
+            for (int t=0; t<threads.length; t++)
+            {
+                final java.util.Random random = new java.util.Random(t);
+                threads[t] = new Thread(() -> {
+                    try {
+                        while (!done.get())
+                        {
+                            int i = random.nextInt(numPages);
+                            Page page = bufMgr.pinPage(i,filename,false);
+                            if (page == null)
+                                continue;
+                            if (page.buffer().getInt(0) != i)
+                                throw new TestFailedException(
+                                    "Page " + i + " lost in resize");
+                            bufMgr.unpinPage(i,filename,false);
+                        }
+                    }
+                    catch (Exception e) {
+                        failure[0] = e;
+                    }
+                });
+                threads[t].start();
+            }
+            Thread unpinner = new Thread(() -> {
+                try {
+                    Thread.sleep(100);
+                    bufMgr.unpinPage(heldPage,filename,false);
+                }
+                catch (Exception e) {
+                    failure[0] = e;
+                }
+            });
+            long start = System.nanoTime();
+            unpinner.start();
+            bufMgr.resize(NUMBUF/2);
+            long elapsed = System.nanoTime() - start;
+            done.set(true);
+            unpinner.join();
+            for (Thread thread : threads)
+                thread.join();
+            if (failure[0] != null)
+                throw failure[0];
+            if (elapsed < 50000000L)
+                throw new TestFailedException("Pinned frame not waited for");
+            if (bufMgr.poolSize() != NUMBUF/2)
+                throw new TestFailedException("Pool did not shrink");
+
+            // Only the remaining frames are used, and no update was lost.
+            for (int i=0; i<numPages; i++)
+            {
+                int frame = bufMgr.findFrame(i,filename);
+                if (frame >= NUMBUF/2)
+                    throw new TestFailedException("Retired frame in use");
+            }
+            for (int i=0; i<NUMBUF/2; i++)
+                if (bufMgr.pinPage(i,filename,false) == null)
+                    throw new TestFailedException("Unable to pin page");
+            if (bufMgr.pinPage(NUMBUF/2,filename,false) != null)
+                throw new TestFailedException("Pool larger than its size");
+            for (int i=0; i<NUMBUF/2; i++)
+                bufMgr.unpinPage(i,filename,false);
+            for (int i=0; i<numPages; i++)
+            {
+                Page page = bufMgr.pinPage(i,filename,false);
+                if (page.buffer().getInt(0) != i ||
+                    (i < 2*NUMBUF && page.buffer().getInt(4) != i))
+                    throw new TestFailedException("Page " + i + " corrupt");
+                bufMgr.unpinPage(i,filename,false);
+            }
+
+            // Retired frames are reused when the pool grows again.
+            bufMgr.resize(NUMBUF);
+            for (int i=0; i<NUMBUF; i++)
+                if (bufMgr.pinPage(i,filename,false) == null)
+                    throw new TestFailedException("Frames not reused");
+            for (int i=0; i<NUMBUF; i++)
+                bufMgr.unpinPage(i,filename,false);
+            System.out.println("Test 18 passed");
+        }
+    }
+
+
+    public static class Test19 implements Testable
+    {
+        public static final int NUMPARTITIONS = 4;
+        public static final int NUMTHREADS = 4;
+        public static final int NUMOPS = 5000;
+
+        public void test(BufferManager bufMgr, final String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 19 -------");
+            final PartitionedBufferManager pool =
+                new PartitionedBufferManager(2*NUMBUF,NUMPARTITIONS);
+            try
+            {
+                final int numPages = 6*NUMBUF;
+                Pair<Integer,Page> run = pool.newPage(numPages,filename);
+                pool.unpinPage(run.first,filename,false);
+                for (int i=0; i<numPages; i++)
+                {
+                    Page page = pool.pinPage(i,filename,false);
+                    page.buffer().putInt(0,i);
+                    pool.unpinPage(i,filename,true);
+                }
+
+                final Exception[] failure = new Exception[1];
+                Thread[] threads = new Thread[NUMTHREADS];
+                for (int t=0; t<NUMTHREADS; t++)
+                {
+                    final java.util.Random random = new java.util.Random(t);
+                    threads[t] = new Thread(() -> {
+                        try {
+                            for (int n=0; n<NUMOPS; n++)
+                            {
+                                int i = random.nextInt(numPages);
+                                Page page = pool.pinPage(i,filename,false);
+                                if (page == null)
+                                    throw new TestFailedException(
+                                        "Unable to pin page");
+                                if (page.buffer().getInt(0) != i)
+                                    throw new TestFailedException(
+                                        "Pinned page " + i + " holds page "
+                                        + page.buffer().getInt(0));
+                                pool.unpinPage(i,filename,false);
+                            }
+                        }
+                        catch (Exception e) {
+                            failure[0] = e;
+                        }
+                    });
+                    threads[t].start();
+                }
+                for (Thread thread : threads)
+                    thread.join();
+                if (failure[0] != null)
+                    throw failure[0];
+
+                long pins = 0;
+                for (int p=0; p<NUMPARTITIONS; p++)
+                {
+                    System.out.printf("Partition %d: %d frames, "
+                                      + "hit ratio %.2f%n",p,
+                                      pool.getPartitionSize(p),
+                                      pool.getHitRatio(p));
+                    pins += pool.getHits(p) + pool.getMisses(p);
+                }
+                if (pins != numPages + 1 + NUMTHREADS*NUMOPS)
+                    throw new TestFailedException("Pins not counted");
+
+                // A page is cached in its own partition only.
+                Page page = pool.pinPage(7,filename,false);
+                int frame = pool.findFrame(7,filename);
+                if (frame % NUMPARTITIONS != pool.partitionOf(7,filename)
+                    || pool.checkPinCount(frame) != 1)
+                    throw new TestFailedException("Page in wrong partition");
+                pool.unpinPage(7,filename,false);
+
+                // Fill one partition with pins; with stealing, it takes
+                // frames from the others.
+                int target = pool.partitionOf(0,filename);
+                int size = pool.getPartitionSize(target);
+                java.util.ArrayList<Integer> pinned =
+                    new java.util.ArrayList<Integer>();
+                for (int i=0; i<numPages; i++)
+                    if (pool.partitionOf(i,filename) == target &&
+                        pinned.size() <= size)
+                    {
+                        if (pool.pinPage(i,filename,false) != null)
+                            pinned.add(i);
+                    }
+                if (pinned.size() != size)
+                    throw new TestFailedException("Partition overfilled");
+                pool.setStealing(true);
+                for (int i=0; i<numPages && pinned.size() < size+3; i++)
+                    if (pool.partitionOf(i,filename) == target &&
+                        !pinned.contains(i))
+                    {
+                        if (pool.pinPage(i,filename,false) == null)
+                            throw new TestFailedException("Nothing stolen");
+                        pinned.add(i);
+                    }
+                if (pool.getPartitionSize(target) != size+3 ||
+                    pool.getSteals() != 3 || pool.poolSize() != 2*NUMBUF)
+                    throw new TestFailedException("Frames lost in steal");
+                for (int i : pinned)
+                    pool.unpinPage(i,filename,true);
+
+                pool.flushAllPages();
+                for (int i=0; i<numPages; i++)
+                {
+                    page = pool.pinPage(i,filename,false);
+                    if (page.buffer().getInt(0) != i)
+                        throw new TestFailedException("Page " + i + " lost");
+                    pool.unpinPage(i,filename,false);
+                }
+            }
+            finally
+            {
+                pool.close();
+            }
+            System.out.println("Test 19 passed");
+        }
+    }
+
+    //----------------------------------------------------
+    // test 20
+    //      Testing the trace recorder, and that replaying a trace
+    //      in the simulator gives the miss ratio the buffer manager
+    //      actually had
+    //----------------------------------------------------
+    public static class Test20 implements Testable
+    {
+        public static final String TRACENAME = "__trace";
+        public static final int NUMPAGES = 100;
+        public static final int NUMOPS = 3000;
+
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 20 -------");
+            for (String policy : new String[] {"CLOCK","LRUK","TWOQUEUE",
+                                               "ARC"})
+            {
+                BufferManager traced = new BufferManager(NUMBUF,
+                    TraceSimulator.policy(policy));
+                java.util.HashSet<Integer> used =
+                    new java.util.HashSet<Integer>();
+                long events;
+                try
+                {
+                    TraceRecorder recorder = traced.startTrace(TRACENAME);
+                    int first = traced.newPage(NUMPAGES,filename).first;
+                    traced.unpinPage(first,filename,false);
+                    java.util.Random random = new java.util.Random(20);
+                    for (int n=0; n<NUMOPS; n++)
+                    {
+                        // A hot set, and a page held pinned meanwhile.
+                        int outer = first + random.nextInt(NUMPAGES);
+                        int inner = first + (random.nextInt(4) == 0 ?
+                                             random.nextInt(NUMPAGES) :
+                                             random.nextInt(15));
+                        BufferManager.AccessHint hint =
+                            random.nextInt(10) == 0 ?
+                            BufferManager.AccessHint.ONCE :
+                            BufferManager.AccessHint.NORMAL;
+                        if (traced.pinPage(outer,filename,false,hint) == null
+                            || traced.pinPage(inner,filename,false) == null)
+                            throw new TestFailedException("Unable to pin");
+                        traced.unpinPage(inner,filename,n % 3 == 0);
+                        traced.unpinPage(outer,filename,false);
+                        used.add(outer);
+                        used.add(inner);
+                    }
+                    // A pinRange that runs out of frames part way pins
+                    // nothing, so it leaves nothing in the trace.
+                    traced.pinPage(first,filename,false);
+                    if (traced.pinRange(first+1,NUMBUF,filename) != null)
+                        throw new TestFailedException("Pinned past full");
+                    traced.unpinPage(first,filename,false);
+                    traced.freePage(first + NUMPAGES - 1,filename);
+                    events = recorder.getEvents();
+                    traced.stopTrace();
+                    used.remove(first);
+
+                    if (events != 5 + 4*NUMOPS)
+                        throw new TestFailedException("Events not recorded");
+                    TraceRecorder.Reader reader =
+                        new TraceRecorder.Reader(TRACENAME);
+                    try
+                    {
+                        long read = 0;
+                        while (reader.next())
+                        {
+                            if (read == 0 &&
+                                (reader.getType() != TraceRecorder.NEW_PAGE
+                                 || reader.getPageId() != first
+                                 || !filename.equals(reader.getFileName(
+                                                         reader.getFileId()))))
+                                throw new TestFailedException(
+                                    "Bad first record");
+                            read++;
+                        }
+                        if (read != events)
+                            throw new TestFailedException("Trace truncated");
+                    }
+                    finally
+                    {
+                        reader.close();
+                    }
+
+                    TraceSimulator simulator = new TraceSimulator(
+                        new int[] {NUMBUF},
+                        new String[] {policy,TraceSimulator.LRU},1);
+                    simulator.replay(TRACENAME);
+                    double actual = (double)traced.getMisses()
+                        / (traced.getHits() + traced.getMisses());
+                    double simulated = simulator.getMissRatio(policy,NUMBUF);
+                    System.out.printf("%s: miss ratio %.4f, simulated %.4f%n",
+                                      policy,actual,simulated);
+                    if (simulated != actual)
+                        throw new TestFailedException("Simulation differs");
+                    // A pool big enough for every page only has cold misses.
+                    if (simulator.getMissRatio(TraceSimulator.LRU,NUMPAGES)
+                        != (double)used.size() / (2*NUMOPS+1))
+                        throw new TestFailedException("Bad LRU curve");
+                }
+                finally
+                {
+                    traced.close();
+                    new File(TRACENAME).delete();
+                }
+            }
+            System.out.println("Test 20 passed");
+        }
+    }
+
+    //----------------------------------------------------
+    // test 21
+    //      Testing stats() and the MBean
+    //----------------------------------------------------
+    public static class Test21 implements Testable
+    {
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 21 -------");
+            javax.management.ObjectName name = bufMgr.registerMBean("test21");
+            int numPages = 3*NUMBUF;
+            int first = bufMgr.newPage(numPages,filename).first;
+            bufMgr.unpinPage(first,filename,false);
+            long pins = 0;
+            for (int round=0; round<2; round++)
+                for (int i=0; i<numPages; i++)
+                {
+                    bufMgr.pinPage(first + i,filename,false);
+                    bufMgr.unpinPage(first + i,filename,true);
+                    pins++;
+                }
+            for (int i=0; i<NUMBUF/2; i++, pins++)
+            {
+                bufMgr.pinPage(first + numPages - 1,filename,false);
+                bufMgr.unpinPage(first + numPages - 1,filename,false);
+            }
+            for (int i=0; i<NUMBUF; i++, pins++)
+                bufMgr.pinPage(first + i,filename,false);
+            if (bufMgr.pinPage(first + NUMBUF,filename,false) != null)
+                throw new TestFailedException("Pinned page in full pool");
+            for (int i=0; i<NUMBUF; i++)
+                bufMgr.unpinPage(first + i,filename,false);
+            // Half the run is in the pool and half is read.
+            BufferStats before = bufMgr.stats();
+            bufMgr.pinRange(first + NUMBUF/2,NUMBUF,filename);
+            bufMgr.unpinRange(first + NUMBUF/2,NUMBUF,filename,false);
+            pins += NUMBUF;
+            bufMgr.flushAllPages();
+
+            BufferStats stats = bufMgr.stats();
+            System.out.print(stats);
+            // The failed pin counts as neither.
+            if (stats.getHits() + stats.getMisses() != pins
+                || stats.getHits() < NUMBUF/2)
+                throw new TestFailedException("Pins not counted");
+            if (stats.getHits() - before.getHits() != NUMBUF/2
+                || stats.getMisses() - before.getMisses() != NUMBUF/2)
+                throw new TestFailedException("Range pins not counted");
+            if (stats.getPoolFull() != 1)
+                throw new TestFailedException("Full pool not counted");
+            // newPage reads its first page as well, and the range is
+            // read with one call.
+            if (stats.getPagesRead() != stats.getMisses() + 1
+                || stats.getPinMissLatency().getCount()
+                   != before.getMisses()
+                || stats.getReadLatency().getCount()
+                   != stats.getPagesRead() - NUMBUF/2 + 1)
+                throw new TestFailedException("Reads not counted");
+            if (stats.getEvictions() < numPages || stats.getDirtyEvictions() < 1
+                || stats.getPagesWritten() < stats.getDirtyEvictions()
+                || stats.getWriteLatency().getCount() < 1
+                || stats.getFlushLatency().getCount() != 1)
+                throw new TestFailedException("Writes not counted");
+            if (stats.getVictimSearches() < stats.getEvictions()
+                || stats.getMeanSweepLength() < 1)
+                throw new TestFailedException("Sweeps not counted");
+            if (stats.getPinHitLatency().getCount() > stats.getHits()
+                || stats.getPinMissLatency().getP50()
+                   > stats.getPinMissLatency().getMax())
+                throw new TestFailedException("Bad latencies");
+            BufferStats.FileStats file = stats.getFiles().get(filename);
+            if (stats.getFiles().size() != 1 || file.getHits() != stats.getHits()
+                || file.getMisses() != stats.getMisses()
+                || file.getPagesWritten() != stats.getPagesWritten())
+                throw new TestFailedException("Bad file stats");
+
+            javax.management.MBeanServer server =
+                java.lang.management.ManagementFactory.getPlatformMBeanServer();
+            javax.management.openmbean.CompositeData latency =
+                (javax.management.openmbean.CompositeData)
+                server.getAttribute(name,"PinMissLatency");
+            javax.management.openmbean.TabularData files =
+                (javax.management.openmbean.TabularData)
+                server.getAttribute(name,"Files");
+            if (!server.getAttribute(name,"Hits").equals(stats.getHits())
+                || !latency.get("count").equals(
+                       stats.getPinMissLatency().getCount())
+                || files.size() != 1)
+                throw new TestFailedException("Bad MBean");
+            bufMgr.unregisterMBean();
+            if (server.isRegistered(name))
+                throw new TestFailedException("MBean not unregistered");
+
+            // Writing back the pages a shrink retires evicts nothing.
+            for (int i=0; i<NUMBUF; i++)
+            {
+                bufMgr.pinPage(first + i,filename,false);
+                bufMgr.unpinPage(first + i,filename,true);
+            }
+            before = bufMgr.stats();
+            bufMgr.resize(NUMBUF/2);
+            stats = bufMgr.stats();
+            if (stats.getPagesWritten() == before.getPagesWritten()
+                || stats.getEvictions() != before.getEvictions()
+                || stats.getDirtyEvictions() != before.getDirtyEvictions())
+                throw new TestFailedException("Shrink counted as evictions");
+            System.out.println("Test 21 passed");
+        }
+    }
+
+    //----------------------------------------------------
+    // test 22
+    //      Testing that 2Q and ARC keep a re-referenced hot set
+    //      through a scan that gives no hint
+    //----------------------------------------------------
+    public static class Test22 implements Testable
+    {
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 22 -------");
+            int n = bufMgr.poolSize();
+            int numHot = n/4;
+            bufMgr.newPage(numHot+6*n,filename);
+            bufMgr.unpinPage(0,filename,false);
+            // Two references each put the hot set in ARC's T2.
+            for (int round=0; round<2; round++)
+                for (int i=0; i<numHot; i++)
+                {
+                    bufMgr.pinPage(i,filename,false);
+                    bufMgr.unpinPage(i,filename,false);
+                }
+            // Push the hot set out once, so that 2Q meets it again in
+            // A1out and moves it to Am.
+            for (int i=numHot; i<numHot+n; i++)
+            {
+                bufMgr.pinPage(i,filename,false);
+                bufMgr.unpinPage(i,filename,false);
+            }
+            for (int i=0; i<numHot; i++)
+            {
+                bufMgr.pinPage(i,filename,false);
+                bufMgr.unpinPage(i,filename,false);
+            }
+
+            for (int i=numHot+n; i<numHot+6*n; i++)
+            {
+                if (bufMgr.pinPage(i,filename,false) == null)
+                    throw new TestFailedException("Unable to pin page");
+                bufMgr.unpinPage(i,filename,false);
+            }
+
+            for (int i=0; i<numHot; i++)
+                if (bufMgr.findFrame(i,filename) < 0)
+                    throw new TestFailedException("Scan evicted page " + i);
+            System.out.println("Test 22 passed");
+        }
+    }
+
+    //----------------------------------------------------
+    // test 23
+    //      Testing that ARC moves its target size of T1 up on hits
+    //      in B1 and down on hits in B2
+    //----------------------------------------------------
+    public static class Test23 implements Testable
+    {
+        private final ArcPolicy policy;
+
+        public Test23(ArcPolicy policy)
+        {
+            this.policy = policy;
+        }
+
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 23 -------");
+            int n = bufMgr.poolSize();
+            int half = n/2;
+            int numPages = 2*n;
+            bufMgr.newPage(numPages,filename);
+            bufMgr.unpinPage(0,filename,false);
+            // Half the pool in T2, then twice as many pages seen once,
+            // which pass through T1 into B1.
+            for (int round=0; round<2; round++)
+                for (int i=0; i<half; i++)
+                {
+                    bufMgr.pinPage(i,filename,false);
+                    bufMgr.unpinPage(i,filename,false);
+                }
+            for (int i=half; i<half+n; i++)
+            {
+                bufMgr.pinPage(i,filename,false);
+                bufMgr.unpinPage(i,filename,false);
+            }
+
+            // Missing again on the pages B1 remembers last.
+            int target = policy.getTarget();
+            for (int i=2*half-1; i>=2*half-3; i--)
+            {
+                if (bufMgr.findFrame(i,filename) >= 0)
+                    throw new TestFailedException("Page " + i +
+                        " not evicted");
+                bufMgr.pinPage(i,filename,false);
+                bufMgr.unpinPage(i,filename,false);
+            }
+            if (policy.getTarget() <= target)
+                throw new TestFailedException("B1 hits left target at " +
+                    policy.getTarget());
+
+            // Move everything to T2, then miss until some of it has
+            // been replaced into B2.
+            boolean[] resident = new boolean[numPages];
+            for (int i=0; i<half+n; i++)
+                if (bufMgr.findFrame(i,filename) >= 0)
+                {
+                    resident[i] = true;
+                    bufMgr.pinPage(i,filename,false);
+                    bufMgr.unpinPage(i,filename,false);
+                }
+            target = policy.getTarget();
+            for (int i=half+n; i<half+n+target+1; i++)
+            {
+                bufMgr.pinPage(i,filename,false);
+                bufMgr.unpinPage(i,filename,false);
+            }
+            int numGhosts = 0;
+            for (int i=0; i<half+n; i++)
+                if (resident[i] && bufMgr.findFrame(i,filename) < 0)
+                {
+                    numGhosts++;
+                    bufMgr.pinPage(i,filename,false);
+                    bufMgr.unpinPage(i,filename,false);
+                }
+            if (numGhosts == 0)
+                throw new TestFailedException("Nothing replaced from T2");
+            if (policy.getTarget() >= target)
+                throw new TestFailedException("B2 hits left target at " +
+                    policy.getTarget());
+            System.out.println("Test 23 passed");
+        }
+    }
+
+    //----------------------------------------------------
+    // test 24
+    //      Testing that LRU-2 replaces the pages whose second most
+    //      recent references are oldest, not the least recently used
+    //----------------------------------------------------
+    public static class Test24 implements Testable
+    {
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 24 -------");
+            int n = bufMgr.poolSize();
+            int half = n/2;
+            int numNew = half/2;
+            bufMgr.newPage(n+numNew,filename);
+            bufMgr.unpinPage(0,filename,false);
+            // The first half is referenced three times and then the
+            // second half twice, so the second half is most recently
+            // used but its second most recent references are the
+            // oldest.
+            for (int i=0; i<n; i++)
+            {
+                bufMgr.pinPage(i,filename,false);
+                bufMgr.unpinPage(i,filename,false);
+            }
+            for (int round=0; round<2; round++)
+                for (int i=0; i<half; i++)
+                {
+                    bufMgr.pinPage(i,filename,false);
+                    bufMgr.unpinPage(i,filename,false);
+                }
+            for (int i=half; i<n; i++)
+            {
+                bufMgr.pinPage(i,filename,false);
+                bufMgr.unpinPage(i,filename,false);
+            }
+
+            // Keep the new pages pinned so that they are not replaced
+            // themselves.
+            for (int i=n; i<n+numNew; i++)
+                if (bufMgr.pinPage(i,filename,false) == null)
+                    throw new TestFailedException("Unable to pin page");
+            for (int i=0; i<n; i++)
+            {
+                boolean replaced = i >= half && i < half+numNew;
+                if ((bufMgr.findFrame(i,filename) < 0) != replaced)
+                    throw new TestFailedException("Page " + i +
+                        (replaced ? " kept" : " evicted"));
+            }
+            for (int i=n; i<n+numNew; i++)
+                bufMgr.unpinPage(i,filename,false);
+            System.out.println("Test 24 passed");
+        }
+    }
+
+    //----------------------------------------------------
+    // test 25
+    //      Testing that freePage is not refused while a flush has
+    //      the page pinned to write it out
+    //----------------------------------------------------
+    public static class Test25 implements Testable
+    {
+        public static final int NUMOPS = 2000;
+
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 25 -------");
+            java.util.concurrent.atomic.AtomicBoolean done =
+                new java.util.concurrent.atomic.AtomicBoolean();
+            Exception[] failure = new Exception[1];
+            Thread flusher = new Thread(() -> {
+                try {
+                    while (!done.get())
+                        bufMgr.flushAllPages();
+                }
+                catch (Exception e) {
+                    failure[0] = e;
+                }
+            });
+            flusher.start();
+            try
+            {
+                // Dirty pages around the freed one make each flush
+                // hold its pins longer.
+                int numOthers = bufMgr.poolSize()/2;
+                int others = bufMgr.newPage(numOthers,filename).first;
+                bufMgr.unpinPage(others,filename,false);
+                for (int n=0; n<NUMOPS; n++)
+                {
+                    for (int i=0; i<numOthers; i++)
+                    {
+                        bufMgr.pinPage(others+i,filename,false);
+                        bufMgr.unpinPage(others+i,filename,true);
+                    }
+                    Pair<Integer,Page> run = bufMgr.newPage(1,filename);
+                    run.second.buffer().putInt(0,n);
+                    bufMgr.unpinPage(run.first,filename,true);
+                    bufMgr.freePage(run.first,filename);
+                }
+            }
+            finally
+            {
+                done.set(true);
+                flusher.join();
+            }
+            if (failure[0] != null)
+                throw failure[0];
+            System.out.println("Test 25 passed");
+        }
+    }
+
+
+    //----------------------------------------------------
+    // test 26
+    //      Testing that a registry with room for one database hands
+    //      out only open ones while threads keep evicting each other's
+    //----------------------------------------------------
+    public static class Test26 implements Testable
+    {
+        public static final int NUMOPS = 300;
+
+        public void test(BufferManager bufMgr, String filename)
+            throws Exception
+        {
+            System.out.println("------- Test 26 -------");
+            String[] names = { filename+"_a", filename+"_b", filename+"_a" };
+            int[] pageNums = new int[names.length];
+            for (int f=0; f<2; f++)
+            {
+                DBFile dbFile = new DBFile(names[f],names.length+1);
+                int first = dbFile.allocatePages(names.length);
+                dbFile.close();
+                for (int t=f; t<names.length; t+=2)
+                    pageNums[t] = first + t;
+            }
+            FileRegistry files = new FileRegistry(1);
+            Exception[] failure = new Exception[names.length];
+            Thread[] threads = new Thread[names.length];
+            try
+            {
+                for (int t=0; t<names.length; t++)
+                {
+                    int id = t;
+                    threads[t] = new Thread(() -> {
+                        try {
+                            Page page = new Page();
+                            for (int n=0; n<NUMOPS; n++)
+                            {
+                                DBFile dbFile = files.acquire(names[id]);
+                                try {
+                                    page.buffer().putInt(0,n);
+                                    dbFile.writePage(pageNums[id],page);
+                                    page.buffer().putInt(0,-1);
+                                    dbFile.readPage(pageNums[id],page);
+                                    if (page.buffer().getInt(0) != n)
+                                        throw new TestFailedException(
+                                            "Page " + id + " lost");
+                                }
+                                finally {
+                                    files.release(dbFile);
+                                }
+                            }
+                        }
+                        catch (Exception e) {
+                            failure[id] = e;
+                        }
+                    });
+                    threads[t].start();
+                }
+                for (Thread thread : threads)
+                    thread.join();
+            }
+            finally
+            {
+                files.close();
+                DBFile.erase(names[0]);
+                DBFile.erase(names[1]);
+            }
+            for (Exception e : failure)
+                if (e != null)
+                    throw e;
+            System.out.println("Test 26 passed");
+        }
+    }
+
     public static final String FILENAME = "__testing";
     public static final int NUMBUF = 20;
 
+    // Number of runTest calls that failed.
+    private static int numFailed = 0;
+
 
     public static boolean runTest(Testable testObj)
+    {
+        return runTest(testObj,false);
+    }
+
+    public static boolean runTest(Testable testObj, boolean offHeap)
+    {
+        return runTest(testObj,offHeap,DBFile.Mode.CHANNEL);
+    }
+
+    public static boolean runTest(Testable testObj, boolean offHeap,
+                                  DBFile.Mode mode)
+    {
+        return runTest(testObj,offHeap,mode,new ClockPolicy());
+    }
+
+    public static boolean runTest(Testable testObj, ReplacementPolicy policy)
+    {
+        return runTest(testObj,false,DBFile.Mode.CHANNEL,policy);
+    }
+
+    public static boolean runTest(Testable testObj, boolean offHeap,
+                                  DBFile.Mode mode, ReplacementPolicy policy)
     {
         boolean success = true;
         DBFile dbfile = null;
         try
         {
             dbfile = new DBFile(FILENAME,NUMBUF+500);
-            BufferManager bufMgr = new BufferManager(NUMBUF);
-            testObj.test(bufMgr,FILENAME);
+            BufferManager bufMgr = new BufferManager(NUMBUF,
+                FileRegistry.DEFAULT_CAPACITY,offHeap,policy);
+            bufMgr.setFileMode(FILENAME,mode);
+            try {
+                testObj.test(bufMgr,FILENAME);
+            }
+            finally {
+                bufMgr.close();
+            }
         }
         catch (Exception e)
         {
             success = false;
+            numFailed++;
             e.printStackTrace();
         }
 
@@ -198,8 +1987,70 @@ public class BMTester
         // Run the tests.
         runTest(new Test1());
         runTest(new Test2());
+        runTest(new Test3());
+        runTest(new Test4());
+        runTest(new Test5());
+        runTest(new Test6());
+        runTest(new Test6(),new LruKPolicy());
+        runTest(new Test7());
+        runTest(new Test7(),false,DBFile.Mode.MAPPED);
+        runTest(new Test8());
+        runTest(new Test8(),new ArcPolicy());
+        runTest(new Test9());
+        runTest(new Test9(),true);
+        runTest(new Test10());
+        runTest(new Test11());
+        runTest(new Test12());
+        runTest(new Test12(),false,DBFile.Mode.MAPPED);
+        runTest(new Test13(),false,DBFile.Mode.COMPRESSED);
+        runTest(new Test1(),false,DBFile.Mode.COMPRESSED);
+        runTest(new Test14());
+        runTest(new Test15());
+        runTest(new Test16());
+        runTest(new Test16(),new ArcPolicy());
+        runTest(new Test1(),false,DBFile.Mode.DIRECT);
+        runTest(new Test7(),true,DBFile.Mode.DIRECT);
+        runTest(new Test17());
+        runTest(new Test18());
+        runTest(new Test18(),true);
+        runTest(new Test18(),new LruKPolicy());
+        runTest(new Test18(),new ArcPolicy());
+        runTest(new Test18(),new TwoQueuePolicy());
+        runTest(new Test19());
+        runTest(new Test20());
+        runTest(new Test21());
+        runTest(new Test22(),new TwoQueuePolicy());
+        runTest(new Test22(),new ArcPolicy());
+        ArcPolicy arc = new ArcPolicy();
+        runTest(new Test23(arc),arc);
+        runTest(new Test24(),new LruKPolicy());
+        // Direct writes block, so the flush is caught holding its pins.
+        runTest(new Test25(),false,DBFile.Mode.DIRECT);
+        runTest(new Test26());
+
+        // The replacement test does not touch Page.data, so it can also
+        // run against an off-heap pool.
+        runTest(new Test2(),true);
+
+        // Page contents must survive replacement through a mapped file.
+        runTest(new Test1(),false,DBFile.Mode.MAPPED);
+
+        // Contents and concurrent pinning under the other policies.
+        runTest(new Test1(),new LruKPolicy());
+        runTest(new Test4(),new LruKPolicy());
+        runTest(new Test1(),new TwoQueuePolicy());
+        runTest(new Test4(),new TwoQueuePolicy());
+        runTest(new Test1(),new ArcPolicy());
+        runTest(new Test4(),new ArcPolicy());
         
         // Clean up
         DBFile.erase(FILENAME);
+
+        // Let a build see the outcome.
+        if (numFailed > 0)
+        {
+            System.out.println(numFailed + " test runs failed.");
+            System.exit(1);
+        }
     }
 }
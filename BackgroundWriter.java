@@ -0,0 +1,176 @@
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background writer for a buffer manager. A daemon thread that wakes
+ * up periodically, asks the replacement policy which frames it will
+ * replace next, and writes back the dirty, unpinned pages among them.
+ * A miss then usually finds a clean victim and reads its page without
+ * first writing the old one out.
+ *
+ * Each round walks the frames the policy expects to replace next,
+ * twice lowWaterMark of them at most, and writes their dirty pages
+ * until lowWaterMark of them are clean or maxPagesPerRound pages have
+ * been written. A round that finds lowWaterMark clean victims already
+ * writes nothing. Pinned frames count as neither. Pages are
+ * written but not forced to disk; flushPage and flushAllPages still
+ * do that. A miss that did have to write its victim wakes the writer
+ * early, but the writer never writes more than maxPagesPerRound pages
+ * per interval on average.
+ *
+ * Started and stopped through BufferManager.startBackgroundWriter and
+ * BufferManager.stopBackgroundWriter.
+ * @author Yawen Chen and Tao Liu
+ */
+public class BackgroundWriter implements Closeable
+{
+    /**
+     * Default time between rounds, in milliseconds.
+     */
+    public static final long DEFAULT_INTERVAL_MILLIS = 200;
+
+    /**
+     * Default maximum number of pages written per round.
+     */
+    public static final int DEFAULT_MAX_PAGES_PER_ROUND = 100;
+
+    private final BufferManager bufMgr;
+    private final long intervalNanos;
+    private final int maxPagesPerRound;
+    private final int lowWaterMark;
+    // Looks past the mark so pinned frames do not end a round early.
+    private final int[] candidates;
+    private final Thread thread;
+    private volatile boolean stopped;
+
+    private final AtomicLong rounds = new AtomicLong();
+    private final AtomicLong pagesWritten = new AtomicLong();
+    private final AtomicLong roundsAtLimit = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Creates a writer; start() starts it.
+     * @param bufMgr the buffer manager to clean.
+     * @param intervalMillis the time between rounds.
+     * @param maxPagesPerRound the most pages written in one round.
+     * @param lowWaterMark the number of clean upcoming victims a round
+     * stops writing at.
+     */
+    BackgroundWriter(BufferManager bufMgr, long intervalMillis,
+                     int maxPagesPerRound, int lowWaterMark)
+    {
+        if (intervalMillis < 1 || maxPagesPerRound < 1 || lowWaterMark < 1)
+            throw new IllegalArgumentException();
+        this.bufMgr = bufMgr;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.maxPagesPerRound = maxPagesPerRound;
+        this.lowWaterMark = lowWaterMark;
+        this.candidates = new int[(int)Math.min(2L * lowWaterMark,
+                                                bufMgr.poolSize())];
+        thread = new Thread(this::run, "BackgroundWriter");
+        thread.setDaemon(true);
+    }
+
+    void start()
+    {
+        thread.start();
+    }
+
+    /**
+     * Cuts short the wait before the next round. Called by the buffer
+     * manager when a miss had to write a dirty victim itself.
+     */
+    void wakeUp()
+    {
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Stops the writer and waits for the current round to finish.
+     */
+    public void close()
+    {
+        stopped = true;
+        LockSupport.unpark(thread);
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Returns the number of rounds run so far.
+     * @return the number of rounds.
+     */
+    public long getRounds()
+    {
+        return rounds.get();
+    }
+
+    /**
+     * Returns the number of pages written so far.
+     * @return the number of pages written.
+     */
+    public long getPagesWritten()
+    {
+        return pagesWritten.get();
+    }
+
+    /**
+     * Returns the number of rounds that stopped at maxPagesPerRound.
+     * If this grows steadily, the writer is falling behind.
+     * @return the number of rounds that hit the limit.
+     */
+    public long getRoundsAtLimit()
+    {
+        return roundsAtLimit.get();
+    }
+
+    /**
+     * Returns the number of rounds that ended with an I/O error. The
+     * pages concerned stay dirty and are retried later.
+     * @return the number of failed rounds.
+     */
+    public long getFailures()
+    {
+        return failures.get();
+    }
+
+    private void run()
+    {
+        while (!stopped) {
+            long start = System.nanoTime();
+            int written = 0;
+            try {
+                written = bufMgr.cleanAhead(candidates, lowWaterMark,
+                                           maxPagesPerRound);
+            }
+            catch (IOException | RuntimeException e) {
+                failures.incrementAndGet();
+            }
+            rounds.incrementAndGet();
+            pagesWritten.addAndGet(written);
+            if (written >= maxPagesPerRound)
+                roundsAtLimit.incrementAndGet();
+
+            // Pay for the pages written before a wake-up can start the
+            // next round, then sleep out the rest of the interval.
+            long paidUntil = start + written * intervalNanos / maxPagesPerRound;
+            for (long wait; !stopped
+                     && (wait = paidUntil - System.nanoTime()) > 0; )
+                LockSupport.parkNanos(this, wait);
+            long wait = start + intervalNanos - System.nanoTime();
+            if (!stopped && wait > 0)
+                LockSupport.parkNanos(this, wait);
+        }
+    }
+}
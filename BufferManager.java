@@ -1,9 +1,35 @@
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * Buffer manager. Manages a memory-based buffer pool of pages.
+ *
+ * The buffer manager is safe for use by many threads. Pinning a page
+ * that is already in the pool takes no lock: the page table is read
+ * optimistically and the frame is pinned with a compare-and-set on its
+ * state word. Only a miss coordinates with other threads, to claim a
+ * frame and publish the new page.
+ *
+ * Which page a miss replaces is decided by a ReplacementPolicy, the
+ * clock by default.
  * @author Dave Musicant, with considerable material reused from the
  * UW-Madison Minibase project
  * @author Modified by Yawen Chen and Tao Liu
@@ -16,164 +42,1835 @@ public class BufferManager
         extends RuntimeException {};
     public static class PagePinnedException extends RuntimeException {};
 
+    /**
+     * Tells pinPage and newPage how a page is going to be used, so
+     * that one-off accesses do not push frequently used pages out of
+     * the pool.
+     */
+    public enum AccessHint
+    {
+        /** An ordinary access; the page competes for the pool. */
+        NORMAL,
+        /**
+         * Part of a sequential scan or bulk load. Pages missed by the
+         * scan are read into a small ring of frames private to the
+         * calling thread, which the scan keeps reusing instead of
+         * taking frames from the shared pool. Pages the scan finds in
+         * the pool are used in place but not counted as referenced.
+         */
+        SEQUENTIAL,
+        /**
+         * A page that will be used once. The access is not counted as
+         * a reference, so a page loaded for it is among the first to
+         * be replaced, and a hit leaves the page's standing unchanged.
+         */
+        ONCE
+    }
+
     /**
      * Value to use for an invalid page id.
      */
-    public static final int INVALID_PAGE = -1;
+    public static final int INVALID_PAGE = -1;
+
+    private static final long NO_KEY = -1L;
+
+    private static class FrameDescriptor
+    {
+        // The state word holds the pin count in its low bits plus the
+        // flags below. It is only ever changed by compare-and-set.
+        private static final int PIN_MASK = 0x00ffffff;
+        // Set with EXCLUSIVE while a page is read into the frame, from
+        // the time it is published in the page table; threads missing
+        // on the page park on the frame's load rather than spin.
+        private static final int LOADING = 1 << 26;
+        // The clock's reference bit: set when the page is pinned,
+        // cleared by the hand as it passes an unpinned frame.
+        private static final int REFERENCED = 1 << 27;
+        // The frame is on the free list and holds no page.
+        private static final int FREE = 1 << 28;
+        // The page is being written out; excludes other writers, but
+        // not pinners.
+        private static final int WRITING = 1 << 29;
+        // One thread owns the frame to replace or drop its page, and
+        // nobody can pin it meanwhile. Only taken at pin count zero.
+        private static final int EXCLUSIVE = 1 << 30;
+
+        private static final VarHandle STATE;
+        private static final VarHandle OWN_PINS;
+        private static final VarHandle PREFETCHED;
+        static {
+            try {
+                STATE = MethodHandles.lookup().findVarHandle(
+                    FrameDescriptor.class, "state", int.class);
+                OWN_PINS = MethodHandles.lookup().findVarHandle(
+                    FrameDescriptor.class, "ownPins", int.class);
+                PREFETCHED = MethodHandles.lookup().findVarHandle(
+                    FrameDescriptor.class, "prefetched", boolean.class);
+            }
+            catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private volatile int state;
+        // How many of the pins are the buffer manager's own, taken to
+        // write the page out. Raised before such a pin is taken and
+        // lowered after it is dropped, so never less than the number
+        // held.
+        private volatile int ownPins;
+        private volatile int pageNum;
+        private volatile String fileName;
+        private volatile long key;
+        private volatile boolean dirty;
+        // Read ahead and not pinned since.
+        private volatile boolean prefetched;
+        // The load in progress while LOADING is set.
+        private volatile Load load;
+        // The page object the frame reads into, kept across
+        // replacements; replaced only by the frame's exclusive owner.
+        private volatile Page page;
+
+        public FrameDescriptor()
+        {
+            clear();
+            state = FREE;
+        }
+
+        private void clear()
+        {
+            pageNum = INVALID_PAGE;
+            fileName = null;
+            key = NO_KEY;
+            dirty = false;
+            prefetched = false;
+        }
+
+        private void assign(String fileName, int pageNum, long key)
+        {
+            this.fileName = fileName;
+            this.pageNum = pageNum;
+            this.key = key;
+            this.dirty = false;
+        }
+
+        private String getFileName(){
+            return this.fileName;
+        }
+
+        private int getPageNum(){
+            return this.pageNum;
+        }
+
+        private long getKey(){
+            return this.key;
+        }
+
+        private boolean isValid(){
+            return this.pageNum != INVALID_PAGE;
+        }
+
+        private int getPinCount(){
+            return this.state & PIN_MASK;
+        }
+
+        private boolean casState(int expect, int update){
+            return STATE.compareAndSet(this, expect, update);
+        }
+
+        /**
+         * Takes the frame exclusively if nobody has it pinned, whether
+         * or not it has been referenced.
+         */
+        private boolean claim(){
+            int s = this.state;
+            return (s & ~REFERENCED) == 0 && casState(s, EXCLUSIVE);
+        }
+
+        /**
+         * Gives up exclusive ownership, leaving the given state.
+         */
+        private void release(int state){
+            this.state = state;
+        }
+
+        /**
+         * Drops one pin.
+         * @return the pin count left.
+         */
+        private int decreasePinCount(){
+            return ((int)STATE.getAndAdd(this, -1) - 1) & PIN_MASK;
+        }
+
+        private void addOwnPins(int delta){
+            OWN_PINS.getAndAdd(this, delta);
+        }
+
+        /**
+         * Checks whether callers hold pins, rather than only the
+         * buffer manager's own pins for writing the page out.
+         */
+        private boolean hasCallerPins(){
+            int own = this.ownPins;
+            return getPinCount() > own && this.ownPins == own;
+        }
+
+        private void endWrite(){
+            STATE.getAndBitwiseAnd(this, ~WRITING);
+        }
+
+        private void setDirty(boolean dirty){
+            this.dirty = dirty;
+        }
+
+        private boolean getDirty(){
+            return this.dirty;
+        }
+
+        /**
+         * Clears the prefetched flag.
+         * @return whether it was set.
+         */
+        private boolean takePrefetched(){
+            return this.prefetched
+                && (boolean)PREFETCHED.getAndSet(this, false);
+        }
+
+        /**
+         * Marks a claimed frame as being loaded with a page.
+         */
+        private void beginLoad(long key){
+            this.load = new Load(key);
+            this.state = EXCLUSIVE | LOADING;
+        }
+
+        /**
+         * Ends the frame's load and wakes the threads waiting on it.
+         * The state must already have been moved on from LOADING.
+         * @param failure what the load failed with, or null if the
+         * waiters should go ahead and pin the page, or look it up again.
+         */
+        private void endLoad(Throwable failure){
+            Load load = this.load;
+            this.load = null;
+            load.finish(failure);
+        }
+
+    }
+
+    /**
+     * One load of a page into a frame, which threads missing on the same
+     * page wait for instead of reading the page themselves. Waiting
+     * threads park, so that a blocked reader costs no CPU and no
+     * monitor is held.
+     */
+    private static final class Load
+    {
+        private final long key;
+        private volatile boolean done;
+        private volatile Throwable failure;
+        private final ConcurrentLinkedQueue<Thread> waiters =
+            new ConcurrentLinkedQueue<Thread>();
+
+        private Load(long key)
+        {
+            this.key = key;
+        }
+
+        /**
+         * Waits for the load to finish.
+         * @return what the load failed with, or null.
+         */
+        private Throwable await()
+        {
+            if (!done) {
+                waiters.add(Thread.currentThread());
+                boolean interrupted = false;
+                while (!done) {
+                    LockSupport.park(this);
+                    if (Thread.interrupted())
+                        interrupted = true;
+                }
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+            return failure;
+        }
+
+        private void finish(Throwable failure)
+        {
+            this.failure = failure;
+            done = true;
+            for (Thread t; (t = waiters.poll()) != null; )
+                LockSupport.unpark(t);
+        }
+    }
+
+
+    public int checkPinCount (int temp){
+        return frameTable[temp].getPinCount();
+    }
+
+    // Grown by copying when the pool grows past its length, and never
+    // shrunk: frames beyond numFrames are retired, holding no page.
+    private volatile FrameDescriptor[] frameTable;
+    // The number of frames in use; see resize.
+    private volatile int numFrames;
+    // Serializes resizes.
+    private final Object resizeLock = new Object();
+    // The off-heap storage behind the pool, or null for heap pages.
+    private final FrameArena arena;
+    // Largest page a frame may hold.
+    private final int maxPageSize;
+    // Maps (file id, page id) to the frame holding that page.
+    private PageTable pageTable;
+    // Interned ids for database names, used to build page table keys.
+    private final ConcurrentHashMap<String, Integer> fileIds =
+        new ConcurrentHashMap<String, Integer>();
+    private final AtomicInteger nextFileId = new AtomicInteger();
+    // Stack of frames that have never held a page or have been freed,
+    // guarded by freeLock.
+    private final Object freeLock = new Object();
+    private int[] freeFrames;
+    private int numFreeFrames;
+    // Chooses victims; see ReplacementPolicy.
+    private final ReplacementPolicy policy;
+    private final int FRAME_PIN_FULL = -30; //no frame can be replaced
+    /**
+     * One pin hit in this many, at random, has its latency recorded.
+     */
+    public static final int HIT_SAMPLE_RATE = 64;
+    // Upper bound on the frames in a sequential scan's ring; a ring
+    // never takes more than a quarter of the pool.
+    private static final int MAX_SCAN_RING = 16;
+    // Most pages flushAllPages writes with one call.
+    private static final int MAX_WRITE_RUN = 256;
+    // Size of the first read-ahead window once a pattern is detected.
+    private static final int MIN_READ_AHEAD = 4;
+    // Read-ahead requests queued beyond this are dropped.
+    private static final int READ_AHEAD_QUEUE = 16;
+    // Each thread's ring for SEQUENTIAL accesses.
+    private final ThreadLocal<ScanRing> scanRings =
+        ThreadLocal.withInitial(() -> new ScanRing(
+            Math.max(1, Math.min(MAX_SCAN_RING, poolSize() / 4))));
+    // Databases stay open between calls; see FileRegistry.
+    private final FileRegistry files;
+    // False if the registry is shared and closed by someone else.
+    private final boolean ownsFiles;
+    // The background writer, if one is running.
+    private volatile BackgroundWriter writer;
+    // Where cleanAhead looks when the policy lists no victims.
+    private int cleanCursor;
+    // Dirty victims written by a miss rather than ahead of it.
+    private final LongAdder foregroundWrites = new LongAdder();
+    // Counters and latencies for stats(); see BufferStats. Hits and
+    // misses are only counted per database, in fileCounters, to keep
+    // the hit path to a single increment.
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder pagesRead = new LongAdder();
+    private final LongAdder pagesWritten = new LongAdder();
+    private final LongAdder poolFull = new LongAdder();
+    private final LongAdder victimSearches = new LongAdder();
+    private final LongAdder victimProbes = new LongAdder();
+    private final LatencyHistogram pinHitLatency = new LatencyHistogram();
+    private final LatencyHistogram pinMissLatency = new LatencyHistogram();
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LatencyHistogram flushLatency = new LatencyHistogram();
+    // Each database's counters, indexed by file id; grown by fileId
+    // under fileCountersLock before the id is handed out.
+    private volatile FileCounters[] fileCounters = new FileCounters[0];
+    private final Object fileCountersLock = new Object();
+    // Where registerMBean put this buffer manager, if it did.
+    private ObjectName mbeanName;
+    // Read-ahead, if enabled: the worker that reads pages ahead, the
+    // settings, and each database's access pattern.
+    private volatile ThreadPoolExecutor readAheadWorker;
+    private int readAheadTrigger;
+    private int maxReadAhead;
+    private final ConcurrentHashMap<String, ReadAheadState> readAheadStates =
+        new ConcurrentHashMap<String, ReadAheadState>();
+    private final LongAdder prefetchedPages = new LongAdder();
+    private final LongAdder prefetchHits = new LongAdder();
+    private final LongAdder prefetchWaste = new LongAdder();
+    // Runs pinPageAsync misses; started on first use if need be.
+    private volatile IOEngine ioEngine;
+    // Records accesses, if a trace is running.
+    private volatile TraceRecorder trace;
+
+    /**
+     * Creates a buffer manager with the specified size.
+     * @param poolSize the number of pages that the buffer pool can hold.
+     */
+    public BufferManager(int poolSize)
+    {
+        this(poolSize, FileRegistry.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a buffer manager with the specified size.
+     * @param poolSize the number of pages that the buffer pool can hold.
+     * @param maxOpenFiles the number of databases kept open at once.
+     */
+    public BufferManager(int poolSize, int maxOpenFiles)
+    {
+        this(poolSize, maxOpenFiles, false);
+    }
+
+    /**
+     * Creates a buffer manager with the specified size.
+     * @param poolSize the number of pages that the buffer pool can hold.
+     * @param offHeap if true, the pool is a single off-heap FrameArena
+     * and pinned pages are views over it (Page.data is null; use
+     * Page.buffer()). Otherwise each frame holds an ordinary heap page.
+     */
+    public BufferManager(int poolSize, boolean offHeap)
+    {
+        this(poolSize, FileRegistry.DEFAULT_CAPACITY, offHeap);
+    }
+
+    /**
+     * Creates a buffer manager with the specified size.
+     * @param poolSize the number of pages that the buffer pool can hold.
+     * @param maxOpenFiles the number of databases kept open at once.
+     * @param offHeap if true, the pool is a single off-heap FrameArena.
+     */
+    public BufferManager(int poolSize, int maxOpenFiles, boolean offHeap)
+    {
+        this(poolSize, maxOpenFiles, offHeap, new ClockPolicy());
+    }
+
+    /**
+     * Creates a buffer manager with the specified size and replacement
+     * policy.
+     * @param poolSize the number of pages that the buffer pool can hold.
+     * @param policy the replacement policy, which must not be shared
+     * with another buffer manager.
+     */
+    public BufferManager(int poolSize, ReplacementPolicy policy)
+    {
+        this(poolSize, FileRegistry.DEFAULT_CAPACITY, false, policy);
+    }
+
+    /**
+     * Creates a buffer manager with the specified size and replacement
+     * policy.
+     * @param poolSize the number of pages that the buffer pool can hold.
+     * @param maxOpenFiles the number of databases kept open at once.
+     * @param offHeap if true, the pool is a single off-heap FrameArena.
+     * @param policy the replacement policy, which must not be shared
+     * with another buffer manager.
+     */
+    public BufferManager(int poolSize, int maxOpenFiles, boolean offHeap,
+                         ReplacementPolicy policy)
+    {
+        this(poolSize, maxOpenFiles, offHeap, policy, Page.PAGESIZE);
+    }
+
+    /**
+     * Creates a buffer manager with the specified size and replacement
+     * policy, able to hold pages up to the given size. Databases with
+     * different page sizes share the pool; a frame takes the size of
+     * whatever page it holds. Off-heap, every frame reserves
+     * maxPageSize bytes, so a pool mostly of small pages is better off
+     * with a maxPageSize to match.
+     * @param poolSize the number of pages that the buffer pool can hold.
+     * @param maxOpenFiles the number of databases kept open at once.
+     * @param offHeap if true, the pool is a single off-heap FrameArena.
+     * @param policy the replacement policy, which must not be shared
+     * with another buffer manager.
+     * @param maxPageSize the largest page size of any database used.
+     */
+    public BufferManager(int poolSize, int maxOpenFiles, boolean offHeap,
+                         ReplacementPolicy policy, int maxPageSize)
+    {
+        this(poolSize, new FileRegistry(maxOpenFiles), true, offHeap, policy,
+             maxPageSize);
+    }
+
+    /**
+     * Creates a buffer manager that shares its open databases with
+     * other buffer managers, as the partitions of a
+     * PartitionedBufferManager do, so that a database is never open
+     * twice. close() leaves the databases open.
+     * @param poolSize the number of pages that the buffer pool can hold.
+     * @param files the shared registry of open databases.
+     * @param offHeap if true, the pool is a single off-heap FrameArena.
+     * @param policy the replacement policy.
+     * @param maxPageSize the largest page size of any database used.
+     */
+    BufferManager(int poolSize, FileRegistry files, boolean offHeap,
+                  ReplacementPolicy policy, int maxPageSize)
+    {
+        this(poolSize, files, false, offHeap, policy, maxPageSize);
+    }
+
+    private BufferManager(int poolSize, FileRegistry files, boolean ownsFiles,
+                          boolean offHeap, ReplacementPolicy policy,
+                          int maxPageSize)
+    {
+        if (!Page.isValidSize(maxPageSize))
+            throw new IllegalArgumentException("maxPageSize " + maxPageSize);
+        this.maxPageSize = maxPageSize;
+        arena = offHeap ? new FrameArena(poolSize, maxPageSize) : null;
+        frameTable= new FrameDescriptor[poolSize];
+        freeFrames = new int[poolSize];
+        for (int i = 0; i < poolSize; i++)
+        {
+            frameTable[i] = new FrameDescriptor();
+            if (arena != null)
+                frameTable[i].page = arena.page(i, Math.min(Page.PAGESIZE,
+                                                            maxPageSize));
+            // Hand out low-numbered frames first.
+            freeFrames[i] = poolSize - 1 - i;
+        }
+        numFreeFrames = poolSize;
+        numFrames = poolSize;
+        pageTable = new PageTable(poolSize);
+        this.files = files;
+        this.ownsFiles = ownsFiles;
+        this.policy = policy;
+        policy.attach(new PolicyFrames());
+    }
+
+    /**
+     * Closes every database held open by the buffer manager, and
+     * stops the trace if one is running. Dirty pages are not flushed;
+     * call flushAllPages first if needed.
+     * @throws IOException passed through from underlying file system.
+     */
+    public void close() throws IOException
+    {
+        stopBackgroundWriter();
+        disableReadAhead();
+        stopIOEngine();
+        unregisterMBean();
+        try {
+            stopTrace();
+        }
+        finally {
+            if (ownsFiles)
+                files.close();
+        }
+    }
+
+    /**
+     * Enables sequential read-ahead. Once a database has seen
+     * triggerMisses misses on consecutive ascending pages, the pages
+     * after the last one are read in the background, with one
+     * multi-page read, into clean unpinned frames. The window starts
+     * small and doubles each time the reader catches up with it, up to
+     * maxWindow pages; it halves whenever a page read ahead is evicted
+     * without having been used. Only NORMAL accesses are tracked.
+     * @param triggerMisses consecutive misses that start read-ahead.
+     * @param maxWindow the most pages read ahead at once.
+     */
+    public synchronized void enableReadAhead(int triggerMisses, int maxWindow)
+    {
+        if (triggerMisses < 1 || maxWindow < 1)
+            throw new IllegalArgumentException();
+        readAheadTrigger = triggerMisses;
+        maxReadAhead = Math.min(maxWindow, MAX_WRITE_RUN);
+        readAheadStates.clear();
+        if (readAheadWorker == null) {
+            ThreadPoolExecutor worker = new ThreadPoolExecutor(
+                1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(READ_AHEAD_QUEUE),
+                r -> {
+                    Thread t = new Thread(r, "ReadAhead");
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.DiscardPolicy());
+            readAheadWorker = worker;
+        }
+    }
+
+    /**
+     * Disables read-ahead and waits for reads in progress to finish.
+     */
+    public synchronized void disableReadAhead()
+    {
+        ThreadPoolExecutor worker = readAheadWorker;
+        if (worker == null)
+            return;
+        readAheadWorker = null;
+        worker.shutdown();
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                if (worker.awaitTermination(1, TimeUnit.SECONDS))
+                    break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Returns the number of pages read ahead so far.
+     * @return the number of pages read ahead.
+     */
+    public long getPrefetchedPages()
+    {
+        return prefetchedPages.sum();
+    }
+
+    /**
+     * Returns the number of pages read ahead that were later pinned.
+     * @return the number of read-ahead hits.
+     */
+    public long getPrefetchHits()
+    {
+        return prefetchHits.sum();
+    }
+
+    /**
+     * Returns the number of pages read ahead that were evicted without
+     * ever being pinned.
+     * @return the number of wasted read-ahead pages.
+     */
+    public long getPrefetchWaste()
+    {
+        return prefetchWaste.sum();
+    }
+
+    /**
+     * Starts a background writer with default settings: rounds every
+     * BackgroundWriter.DEFAULT_INTERVAL_MILLIS, at most
+     * BackgroundWriter.DEFAULT_MAX_PAGES_PER_ROUND pages per round, and
+     * a low-water mark of a quarter of the pool.
+     * @return the writer, for its counters.
+     * @throws IllegalStateException if a writer is already running.
+     */
+    public BackgroundWriter startBackgroundWriter()
+    {
+        return startBackgroundWriter(BackgroundWriter.DEFAULT_INTERVAL_MILLIS,
+                                     BackgroundWriter.DEFAULT_MAX_PAGES_PER_ROUND,
+                                     Math.max(1, poolSize() / 4));
+    }
+
+    /**
+     * Starts a background writer, which writes back dirty pages the
+     * replacement policy is about to evict so that misses find clean
+     * victims. See BackgroundWriter.
+     * @param intervalMillis the time between rounds.
+     * @param maxPagesPerRound the most pages written in one round.
+     * @param lowWaterMark the number of clean upcoming victims a round
+     * stops writing at.
+     * @return the writer, for its counters.
+     * @throws IllegalStateException if a writer is already running.
+     */
+    public synchronized BackgroundWriter startBackgroundWriter(
+        long intervalMillis, int maxPagesPerRound, int lowWaterMark)
+    {
+        if (writer != null)
+            throw new IllegalStateException("background writer running");
+        BackgroundWriter w = new BackgroundWriter(this, intervalMillis,
+                                                  maxPagesPerRound,
+                                                  lowWaterMark);
+        writer = w;
+        w.start();
+        return w;
+    }
+
+    /**
+     * Stops the background writer, if one is running, and waits for
+     * it to finish its current round.
+     */
+    public synchronized void stopBackgroundWriter()
+    {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    /**
+     * Starts the I/O engine that serves pinPageAsync misses. If it is
+     * not started explicitly, pinPageAsync starts one with
+     * IOEngine.DEFAULT_QUEUE_DEPTH.
+     * @param queueDepth the number of misses read at once.
+     * @return the engine, for its counters.
+     * @throws IllegalStateException if an engine is already running.
+     */
+    public synchronized IOEngine startIOEngine(int queueDepth)
+    {
+        if (ioEngine != null)
+            throw new IllegalStateException("I/O engine running");
+        IOEngine engine = new IOEngine(queueDepth);
+        ioEngine = engine;
+        return engine;
+    }
+
+    /**
+     * Stops the I/O engine, if one is running, and waits for the pins
+     * it has in progress to complete.
+     */
+    public synchronized void stopIOEngine()
+    {
+        if (ioEngine != null) {
+            ioEngine.close();
+            ioEngine = null;
+        }
+    }
+
+    /**
+     * Starts recording every pin, unpin, new page and freed page to a
+     * trace file, which TraceSimulator can replay to estimate the hit
+     * ratio of other pool sizes and policies. See TraceRecorder.
+     * @param fileName the name of the trace file, which is replaced
+     * if it exists.
+     * @return the recorder, for its counters.
+     * @throws IllegalStateException if a trace is already running.
+     * @throws IOException passed through from underlying file system.
+     */
+    public synchronized TraceRecorder startTrace(String fileName)
+        throws IOException
+    {
+        if (trace != null)
+            throw new IllegalStateException("trace running");
+        TraceRecorder t = new TraceRecorder(fileName);
+        // Name the databases already known; fileId names new ones.
+        for (Map.Entry<String, Integer> e : fileIds.entrySet())
+            t.file(e.getValue(), e.getKey());
+        trace = t;
+        return t;
+    }
+
+    /**
+     * Stops the trace, if one is running, and closes its file.
+     * @throws IOException if writing the trace failed.
+     */
+    public synchronized void stopTrace() throws IOException
+    {
+        if (trace != null) {
+            TraceRecorder t = trace;
+            trace = null;
+            t.close();
+        }
+    }
+
+    private void trace(int type, int flags, int fileId, int pageId)
+    {
+        TraceRecorder t = trace;
+        if (t != null)
+            t.record(type, flags, fileId, pageId);
+    }
+
+    private IOEngine ioEngine()
+    {
+        IOEngine engine = ioEngine;
+        return engine != null ? engine : startDefaultIOEngine();
+    }
+
+    private synchronized IOEngine startDefaultIOEngine()
+    {
+        if (ioEngine == null)
+            ioEngine = new IOEngine(IOEngine.DEFAULT_QUEUE_DEPTH);
+        return ioEngine;
+    }
+
+    /**
+     * Returns the number of pins that found their page already in the
+     * pool, or being read by another thread.
+     * @return the number of hits.
+     */
+    public long getHits()
+    {
+        long sum = 0;
+        for (FileCounters counters : fileCounters)
+            sum += counters.hits.sum();
+        return sum;
+    }
+
+    /**
+     * Returns the number of pins that read their page into the pool.
+     * @return the number of misses.
+     */
+    public long getMisses()
+    {
+        long sum = 0;
+        for (FileCounters counters : fileCounters)
+            sum += counters.misses.sum();
+        return sum;
+    }
+
+    /**
+     * Returns the number of dirty pages a miss has had to write back
+     * before reusing their frame. With a background writer running,
+     * this should grow slowly if at all.
+     * @return the number of foreground writes.
+     */
+    public long getForegroundWrites()
+    {
+        return foregroundWrites.sum();
+    }
+
+    /**
+     * Takes a snapshot of the buffer manager's counters and latency
+     * histograms, overall and for each database. See BufferStats.
+     * @return the snapshot.
+     */
+    public BufferStats stats()
+    {
+        FileCounters[] counters = fileCounters;
+        HashMap<String, BufferStats.FileStats> files =
+            new HashMap<String, BufferStats.FileStats>();
+        long hits = 0;
+        long misses = 0;
+        for (Map.Entry<String, Integer> e : fileIds.entrySet()) {
+            int id = e.getValue();
+            if (id < counters.length) {
+                BufferStats.FileStats file = counters[id].snapshot();
+                files.put(e.getKey(), file);
+                hits += file.getHits();
+                misses += file.getMisses();
+            }
+        }
+        return new BufferStats(poolSize(), hits, misses,
+                               evictions.sum(), foregroundWrites.sum(),
+                               pagesRead.sum(), pagesWritten.sum(),
+                               poolFull.sum(), victimSearches.sum(),
+                               victimProbes.sum(),
+                               pinHitLatency.snapshot(),
+                               pinMissLatency.snapshot(),
+                               readLatency.snapshot(),
+                               writeLatency.snapshot(),
+                               flushLatency.snapshot(), files);
+    }
+
+    /**
+     * Registers the buffer manager with the platform MBean server as
+     * minibase:type=BufferManager,name=<name>, so that its statistics
+     * can be watched over JMX. close() unregisters it.
+     * @param name the name to register under.
+     * @return the object name registered.
+     * @throws IllegalStateException if the buffer manager is already
+     * registered.
+     * @throws JMException if the name is invalid or already taken.
+     */
+    public synchronized ObjectName registerMBean(String name)
+        throws JMException
+    {
+        if (mbeanName != null)
+            throw new IllegalStateException("already registered");
+        ObjectName objectName = new ObjectName(
+            "minibase:type=BufferManager,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+            new MXBean(), objectName);
+        mbeanName = objectName;
+        return objectName;
+    }
+
+    /**
+     * Unregisters the buffer manager from the platform MBean server,
+     * if registerMBean registered it.
+     */
+    public synchronized void unregisterMBean()
+    {
+        if (mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                    .unregisterMBean(mbeanName);
+            }
+            catch (JMException e) {
+                // Someone else unregistered it.
+            }
+            mbeanName = null;
+        }
+    }
+
+    private void addFileCounters(int fileId)
+    {
+        synchronized (fileCountersLock) {
+            FileCounters[] counters = fileCounters;
+            if (fileId < counters.length)
+                return;
+            counters = Arrays.copyOf(counters, Math.max(fileId + 1,
+                                                        2 * counters.length));
+            for (int i = 0; i < counters.length; i++) {
+                if (counters[i] == null)
+                    counters[i] = new FileCounters();
+            }
+            fileCounters = counters;
+        }
+    }
+
+    private void countReads(int fileId, int numPages)
+    {
+        pagesRead.add(numPages);
+        fileCounters[fileId].pagesRead.add(numPages);
+    }
+
+    private void countWrites(int fileId, int numPages)
+    {
+        pagesWritten.add(numPages);
+        fileCounters[fileId].pagesWritten.add(numPages);
+    }
+
+    /**
+     * Selects how a database is accessed, for example memory-mapped
+     * for a read-mostly database. Takes effect the next time the
+     * database is opened; an open database is closed first. Should be
+     * called before the database is in use.
+     * @param fileName the name of the database.
+     * @param mode the access mode.
+     * @throws IOException passed through from underlying file system.
+     */
+    public void setFileMode(String fileName, DBFile.Mode mode)
+        throws IOException
+    {
+        files.setMode(fileName, mode);
+    }
+
+    /**
+     * Lets a database grow when allocatePages finds no free run,
+     * instead of failing with DBFile.FileFullException.
+     * @param fileName the name of the database.
+     * @param chunkPages the number of pages to grow by, or the minimum
+     * for DBFile.Growth.GEOMETRIC; 0 turns auto-extension off.
+     * @param growth how the growth step is chosen.
+     * @param preallocate whether new pages are written out by a
+     * background thread ahead of use.
+     * @see DBFile#setAutoExtend
+     */
+    public void setFileAutoExtend(String fileName, int chunkPages,
+                                  DBFile.Growth growth, boolean preallocate)
+    {
+        files.setAutoExtend(fileName, chunkPages, growth, preallocate);
+    }
+
+    /**
+     * One database's counters.
+     */
+    private static class FileCounters
+    {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder pagesRead = new LongAdder();
+        final LongAdder pagesWritten = new LongAdder();
+
+        BufferStats.FileStats snapshot()
+        {
+            return new BufferStats.FileStats(hits.sum(), misses.sum(),
+                                             pagesRead.sum(),
+                                             pagesWritten.sum());
+        }
+    }
+
+    /**
+     * The buffer manager as registerMBean exposes it.
+     */
+    private class MXBean implements BufferManagerMXBean
+    {
+        public int getPoolSize()
+        {
+            return poolSize();
+        }
+
+        public long getHits()
+        {
+            return BufferManager.this.getHits();
+        }
+
+        public long getMisses()
+        {
+            return BufferManager.this.getMisses();
+        }
+
+        public double getHitRatio()
+        {
+            return stats().getHitRatio();
+        }
+
+        public long getEvictions()
+        {
+            return evictions.sum();
+        }
+
+        public long getDirtyEvictions()
+        {
+            return foregroundWrites.sum();
+        }
+
+        public long getPagesRead()
+        {
+            return pagesRead.sum();
+        }
+
+        public long getPagesWritten()
+        {
+            return pagesWritten.sum();
+        }
+
+        public long getPoolFull()
+        {
+            return poolFull.sum();
+        }
+
+        public long getVictimSearches()
+        {
+            return victimSearches.sum();
+        }
+
+        public double getMeanSweepLength()
+        {
+            return stats().getMeanSweepLength();
+        }
+
+        public LatencyHistogram.Snapshot getPinHitLatency()
+        {
+            return pinHitLatency.snapshot();
+        }
+
+        public LatencyHistogram.Snapshot getPinMissLatency()
+        {
+            return pinMissLatency.snapshot();
+        }
+
+        public LatencyHistogram.Snapshot getReadLatency()
+        {
+            return readLatency.snapshot();
+        }
+
+        public LatencyHistogram.Snapshot getWriteLatency()
+        {
+            return writeLatency.snapshot();
+        }
+
+        public LatencyHistogram.Snapshot getFlushLatency()
+        {
+            return flushLatency.snapshot();
+        }
+
+        public Map<String, BufferStats.FileStats> getFiles()
+        {
+            return stats().getFiles();
+        }
+    }
+
+    /**
+     * The frames as the replacement policy sees them. Claiming a frame
+     * takes it exclusively, exactly as freePage does.
+     */
+    private class PolicyFrames implements ReplacementPolicy.Frames
+    {
+        public int size()
+        {
+            return numFrames;
+        }
+
+        public boolean tryClaim(int frame)
+        {
+            victimProbes.increment();
+            // Frames being drained by a shrink are not reused.
+            return frame < numFrames && frameTable[frame].claim();
+        }
+
+        public int sweep(int frame)
+        {
+            victimProbes.increment();
+            if (frame >= numFrames)
+                return BUSY;
+            FrameDescriptor fd = frameTable[frame];
+            int state = fd.state;
+            if (state == 0) {
+                if (fd.casState(0, FrameDescriptor.EXCLUSIVE))
+                    return CLAIMED;
+                return UNPINNED;
+            }
+            if (state == FrameDescriptor.REFERENCED) {
+                fd.casState(state, 0);
+                return UNPINNED;
+            }
+            return BUSY;
+        }
+    }
+
+    /**
+     * The frames a thread's sequential scan reads into, used in turn.
+     * Each slot remembers the page the scan loaded into its frame, so
+     * that a frame someone else has since reused is not taken back.
+     */
+    private static class ScanRing
+    {
+        private static final int NO_FRAME = -1;
+
+        private final int[] frames;
+        private final long[] keys;
+        private int next;
+
+        private ScanRing(int size)
+        {
+            frames = new int[size];
+            keys = new long[size];
+            Arrays.fill(frames, NO_FRAME);
+        }
+
+        private void record(int frame, long key)
+        {
+            frames[next] = frame;
+            keys[next] = key;
+            next = (next + 1) % frames.length;
+        }
+    }
+
+    /**
+     * A database's sequential access pattern, as seen by read-ahead.
+     */
+    private static class ReadAheadState
+    {
+        private int lastPage = INVALID_PAGE;
+        private int run;
+        private int window;
+        // The page after the last one read ahead.
+        private int readAheadEnd;
+
+        private synchronized void wasted()
+        {
+            window = Math.max(MIN_READ_AHEAD, window / 2);
+        }
+    }
+
+    /**
+     * Records a miss, or a first hit on a page read ahead, and starts
+     * reading the next window of pages if the database is being read
+     * sequentially and the reader is within half a window of the end
+     * of what has been read ahead.
+     */
+    private void readAhead(String fileName, int pageId)
+    {
+        ThreadPoolExecutor worker = readAheadWorker;
+        if (worker == null)
+            return;
+        ReadAheadState state = readAheadStates.computeIfAbsent(
+            fileName, n -> new ReadAheadState());
+        int start;
+        int count;
+        synchronized (state) {
+            if (state.run > 0 && pageId == state.lastPage + 1)
+                state.run++;
+            else {
+                state.run = 1;
+                state.window = Math.min(MIN_READ_AHEAD, maxReadAhead);
+                state.readAheadEnd = pageId + 1;
+            }
+            state.lastPage = pageId;
+            if (state.run < readAheadTrigger
+                || state.readAheadEnd - pageId > state.window / 2)
+                return;
+            // Each window after the first follows a reader that caught
+            // up with the last one, so grow it.
+            if (state.readAheadEnd > pageId + 1)
+                state.window = Math.min(maxReadAhead, 2 * state.window);
+            start = Math.max(pageId + 1, state.readAheadEnd);
+            count = state.window;
+            state.readAheadEnd = start + count;
+        }
+        worker.execute(() -> prefetch(fileName, start, count));
+    }
+
+    /**
+     * Reads pages ahead into clean, unpinned frames, skipping pages
+     * already in the pool. Stops early rather than write a dirty
+     * victim or wait for a frame. Failures are ignored: the pages are
+     * simply read on demand instead.
+     */
+    private void prefetch(String fileName, int start, int count)
+    {
+        try {
+            int fileId = fileId(fileName);
+            // Stop at the end of the file or of the allocated pages.
+            int end = start;
+            DBFile dbFile = files.acquire(fileName);
+            try {
+                int limit = Math.min(start + count, dbFile.getNumPages());
+                while (end < limit && dbFile.isAllocated(end))
+                    end++;
+            }
+            finally {
+                files.release(dbFile);
+            }
+            int[] run = new int[count];
+            int pageId = start;
+            while (pageId < end) {
+                // Claim and publish frames for a run of pages that are
+                // not in the pool.
+                int runStart = pageId;
+                int runLength = 0;
+                boolean stop = false;
+                while (pageId < end) {
+                    long key = PageTable.key(fileId, pageId);
+                    if (pageTable.get(key) != PageTable.NOT_FOUND)
+                        break;
+                    int frame = claimFrame();
+                    if (frame == FRAME_PIN_FULL) {
+                        stop = true;
+                        break;
+                    }
+                    if (frameTable[frame].getDirty()) {
+                        unclaim(frame);
+                        stop = true;
+                        break;
+                    }
+                    if (!publishLoad(frame, key)) {
+                        unclaim(frame);
+                        break;
+                    }
+                    run[runLength++] = frame;
+                    pageId++;
+                }
+                if (runLength > 0) {
+                    loadRun(fileName, fileId, runStart, run, runLength, false);
+                    prefetchedPages.add(runLength);
+                }
+                if (stop)
+                    return;
+                if (runLength == 0)
+                    pageId++;
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            // Read-ahead is only a hint.
+        }
+    }
+
+    /**
+     * Evicts whatever a run of claimed frames holds and reads a run of
+     * consecutive pages into them with one read. Each page must
+     * already have been published with publishLoad. On return the pages
+     * are pinned once, as loadClaimed leaves them, or, for read-ahead,
+     * left unpinned and unreferenced. On failure the mappings are
+     * removed again and the frames given up.
+     */
+    private void loadRun(String fileName, int fileId, int firstPageId,
+                         int[] run, int runLength, boolean pin)
+        throws IOException
+    {
+        Page[] pages = new Page[runLength];
+        boolean evicted = false;
+        try {
+            DBFile dbFile = files.acquire(fileName);
+            try {
+                for (int i = 0; i < runLength; i++) {
+                    evictClaimed(run[i], true);
+                    pages[i] = framePage(run[i], dbFile.getPageSize());
+                }
+                evicted = true;
+                long start = System.nanoTime();
+                dbFile.readPages(firstPageId, pages, runLength);
+                readLatency.recordSince(start);
+                countReads(fileId, runLength);
+            }
+            finally {
+                files.release(dbFile);
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            // Frames whose old page could not be written still hold
+            // it; unclaim puts them back as they were. Threads waiting
+            // for the pages share a read failure, but look the pages up
+            // again if only an eviction failed.
+            for (int i = 0; i < runLength; i++) {
+                FrameDescriptor fd = frameTable[run[i]];
+                pageTable.remove(PageTable.key(fileId, firstPageId + i),
+                                 run[i]);
+                unclaim(run[i]);
+                fd.endLoad(evicted ? e : null);
+            }
+            throw e;
+        }
+        for (int i = 0; i < runLength; i++) {
+            FrameDescriptor fd = frameTable[run[i]];
+            long key = PageTable.key(fileId, firstPageId + i);
+            fd.assign(fileName, firstPageId + i, key);
+            policy.loaded(run[i], key);
+            if (pin) {
+                fd.release(1 | FrameDescriptor.REFERENCED);
+            }
+            else {
+                fd.prefetched = true;
+                fd.release(0);
+                policy.unpinned(run[i]);
+            }
+            fd.endLoad(null);
+        }
+    }
+
+    /**
+     * Claims a frame for a new page accessed with the given hint. A
+     * sequential access reuses the frame in the next slot of the
+     * thread's ring if it still holds the page the scan put there and
+     * is unpinned; otherwise it falls back to claimFrame().
+     * @return the claimed frame, or FRAME_PIN_FULL if every frame is
+     * pinned.
+     */
+    private int claimFrame(AccessHint hint)
+    {
+        if (hint == AccessHint.SEQUENTIAL) {
+            ScanRing ring = scanRings.get();
+            int frame = ring.frames[ring.next];
+            if (frame != ScanRing.NO_FRAME && frame < numFrames) {
+                FrameDescriptor fd = frameTable[frame];
+                long key = ring.keys[ring.next];
+                if (fd.getKey() == key && fd.claim()) {
+                    if (fd.getKey() == key)
+                        return frame;
+                    unclaim(frame);
+                }
+            }
+        }
+        return claimFrame();
+    }
+
+    /**
+     * Claims a frame for a new page: a free frame if there is one,
+     * otherwise a victim chosen by the replacement policy. A victim keeps its old
+     * page (and page table entry) until evictClaimed is called.
+     * @return the claimed frame, or FRAME_PIN_FULL if every frame is
+     * pinned.
+     */
+    private int claimFrame()
+    {
+        synchronized (freeLock) {
+            if (numFreeFrames > 0) {
+                int frame = freeFrames[--numFreeFrames];
+                frameTable[frame].release(FrameDescriptor.EXCLUSIVE);
+                return frame;
+            }
+        }
+        victimSearches.increment();
+        int frame = policy.victim();
+        return frame == ReplacementPolicy.NO_VICTIM ? FRAME_PIN_FULL : frame;
+    }
+
+    /**
+     * Gives up a claimed frame that did not end up being used. A
+     * victim goes back to holding its old page, and the policy is told
+     * it is unpinned again; an empty frame goes back on the free list.
+     */
+    private void unclaim(int frame)
+    {
+        if (frameTable[frame].isValid()) {
+            frameTable[frame].release(0);
+            policy.unpinned(frame);
+        }
+        else
+            freeClaimed(frame);
+    }
+
+    /**
+     * Empties a claimed frame and puts it on the free list.
+     */
+    private void freeClaimed(int frame)
+    {
+        FrameDescriptor fd = frameTable[frame];
+        fd.clear();
+        synchronized (freeLock) {
+            if (frame < numFrames)
+                freeFrames[numFreeFrames++] = frame;
+            else
+                fd.page = null;     // retired by a shrink
+            fd.release(FrameDescriptor.FREE);
+        }
+    }
+
+    /**
+     * Removes the old page from a claimed frame, writing it back first
+     * if it is dirty. If the write fails, the frame still holds the
+     * old page.
+     * @param replacing true if the frame is to hold another page, and
+     * so counts as an eviction; false if a shrink is retiring it.
+     */
+    private void evictClaimed(int frame, boolean replacing)
+        throws IOException
+    {
+        FrameDescriptor victim = frameTable[frame];
+        if (!victim.isValid())
+            return;
+        if (victim.takePrefetched()) {
+            prefetchWaste.increment();
+            ReadAheadState state = readAheadStates.get(victim.getFileName());
+            if (state != null)
+                state.wasted();
+        }
+        if (victim.getDirty()) {
+            if (replacing) {
+                foregroundWrites.increment();
+                BackgroundWriter w = writer;
+                if (w != null)
+                    w.wakeUp();
+            }
+            write(victim, victim.page);
+        }
+        pageTable.remove(victim.getKey(), frame);
+        victim.clear();
+        policy.removed(frame);
+        if (replacing)
+            evictions.increment();
+    }
+
+    /**
+     * Evicts whatever a claimed frame holds and reads a page into it.
+     * The key must already have been published with publishLoad. On
+     * return the frame holds the page, pinned once, and a sequential
+     * access has recorded the frame in its ring. On failure the
+     * mapping is removed again.
+     */
+    private void loadClaimed(int frame, long key, int pageId,
+                             String fileName, boolean emptyPage,
+                             AccessHint hint)
+        throws IOException
+    {
+        FrameDescriptor fd = frameTable[frame];
+        try {
+            evictClaimed(frame, true);
+        }
+        catch (IOException | RuntimeException e) {
+            // Our failure to write someone else's page: let the waiters
+            // try for themselves.
+            pageTable.remove(key, frame);
+            unclaim(frame);
+            fd.endLoad(null);
+            throw e;
+        }
+        // read the actual page from the database into the frame.
+        try {
+            DBFile dbFile = files.acquire(fileName);
+            try {
+                Page curPage = framePage(frame, dbFile.getPageSize());
+                //check to see if the page is empty, if so we don't need to read the page from the disk . but we still need to
+                //add this empty page and pin it
+                if (emptyPage){
+                    curPage.clear();
+                }
+                else {
+                    long start = System.nanoTime();
+                    dbFile.readPage(pageId, curPage);
+                    readLatency.recordSince(start);
+                    countReads(PageTable.fileId(key), 1);
+                }
+            }
+            finally {
+                files.release(dbFile);
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            pageTable.remove(key, frame);
+            freeClaimed(frame);
+            fd.endLoad(e);
+            throw e;
+        }
+        fd.assign(fileName, pageId, key);
+        // Tell the policy while the frame is still exclusive, so that
+        // it hears of the load before any pin or unpin of the page.
+        policy.loaded(frame, key);
+        if (hint == AccessHint.SEQUENTIAL)
+            scanRings.get().record(frame, key);
+        // A freshly loaded page gets a first pass of the clock hand,
+        // unless it was loaded for a scan or a one-off access.
+        fd.release(hint == AccessHint.NORMAL ?
+                   1 | FrameDescriptor.REFERENCED : 1);
+        fd.endLoad(null);
+    }
+
+    /**
+     * Publishes a claimed frame in the page table as the frame a page
+     * is being loaded into, so that threads missing on the page wait
+     * for this load. The load must then be finished by loadClaimed or
+     * loadRun.
+     * @return false if the page is already mapped to some other frame;
+     * the frame is still claimed.
+     */
+    private boolean publishLoad(int frame, long key)
+    {
+        FrameDescriptor fd = frameTable[frame];
+        fd.beginLoad(key);
+        if (pageTable.putIfAbsent(key, frame) == PageTable.NOT_FOUND)
+            return true;
+        fd.release(FrameDescriptor.EXCLUSIVE);
+        fd.endLoad(null);
+        return false;
+    }
 
-    private static class FrameDescriptor
+    /**
+     * Waits for a load of the page into the frame, if one is in
+     * progress, and rethrows what it failed with.
+     */
+    private void awaitLoad(int frame, long key) throws IOException
     {
-        private int pageNum;
-        private String fileName;
-        private int pinCount;
-        private boolean dirty;
-        private boolean pinned;
-        
-        public FrameDescriptor()
-        {
-            pageNum = INVALID_PAGE;
-            pinCount = 0;
-            fileName = null;
-            dirty = false;
-            pinned = true;
-        }
+        Load load = frameTable[frame].load;
+        if (load == null || load.key != key)
+            return;
+        Throwable failure = load.await();
+        if (failure instanceof IOException)
+            throw (IOException)failure;
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException)failure;
+        if (failure instanceof Error)
+            throw (Error)failure;
+    }
 
-        private void setFileName(String str){
-            this.fileName= str;
-        }
+    /**
+     * Pins a frame if it still holds the page with the given key,
+     * waiting while another thread owns the frame exclusively.
+     * @param reference whether to set the frame's reference bit; false
+     * for the buffer manager's own short pins.
+     * @return true if the frame was pinned; false if it holds some
+     * other page (or none), in which case the caller should look the
+     * page up again.
+     */
+    private boolean pinFrame(int frame, long key, boolean reference)
+    {
+        return pinFrame(frame, key, reference, true);
+    }
 
-        private String getFileName(){
-            return this.fileName;
+    /**
+     * As pinFrame(int, long, boolean), but if wait is false, gives up
+     * and returns false rather than wait for an exclusive owner.
+     */
+    private boolean pinFrame(int frame, long key, boolean reference,
+                             boolean wait)
+    {
+        FrameDescriptor fd = frameTable[frame];
+        int flags = reference ? FrameDescriptor.REFERENCED : 0;
+        for (int spins = 0; ; spins++) {
+            int s = fd.state;
+            if ((s & FrameDescriptor.FREE) != 0)
+                return false;
+            if ((s & FrameDescriptor.EXCLUSIVE) != 0) {
+                if (!wait)
+                    return false;
+                Load load = fd.load;
+                if ((s & FrameDescriptor.LOADING) != 0 && load != null
+                    && load.key == key) {
+                    if (load.await() != null)
+                        return false;
+                    continue;
+                }
+                backoff(spins);
+                continue;
+            }
+            if (fd.casState(s, (s + 1) | flags)) {
+                if (fd.getKey() == key)
+                    return true;
+                unpinFrame(frame);
+                return false;
+            }
         }
+    }
 
-        private void setpageNum(int pageID){
-            this.pageNum = pageID;
-        }
+    /**
+     * Drops one of the buffer manager's own pins on a frame.
+     */
+    private void unpinFrame(int frame)
+    {
+        if (frameTable[frame].decreasePinCount() == 0)
+            policy.unpinned(frame);
+    }
 
-        private int getPageNum(){
-            return this.pageNum;
+    /**
+     * Pins a frame to write its page out, as pinFrame does without
+     * setting the reference bit. The pin is counted as the buffer
+     * manager's own, so that freePage does not take it for a caller's.
+     * @return true if the frame was pinned.
+     */
+    private boolean pinToWrite(int frame, long key)
+    {
+        FrameDescriptor fd = frameTable[frame];
+        fd.addOwnPins(1);
+        if (pinFrame(frame, key, false))
+            return true;
+        fd.addOwnPins(-1);
+        return false;
+    }
+
+    /**
+     * Drops a pin taken by pinToWrite.
+     */
+    private void unpinWritten(int frame)
+    {
+        unpinFrame(frame);
+        frameTable[frame].addOwnPins(-1);
+    }
+
+    /**
+     * Writes a page out, clearing its dirty flag first so that a change
+     * made during the write marks it dirty again. The caller must
+     * either own the frame exclusively or have it pinned and hold its
+     * WRITING flag.
+     */
+    private void write(FrameDescriptor fd, Page page) throws IOException
+    {
+        fd.setDirty(false);
+        DBFile dbFile = files.acquire(fd.getFileName());
+        try {
+            long start = System.nanoTime();
+            dbFile.writePage(fd.getPageNum(), page);
+            writeLatency.recordSince(start);
+            countWrites(PageTable.fileId(fd.getKey()), 1);
         }
-        
-        private void increasePinCount(){
-            this.pinCount++;
+        catch (IOException | RuntimeException e) {
+            fd.setDirty(true);
+            throw e;
         }
-
-        private void decreasePinCount(){
-            this.pinCount--;
+        finally {
+            files.release(dbFile);
         }
+    }
 
-        private int getPinCount(){
-            return this.pinCount;
+    /**
+     * Writes the page in a frame the caller has pinned to its database
+     * if it is dirty. The write is not forced to disk.
+     * @return true if the page was written.
+     */
+    private boolean writePinned(int frame) throws IOException
+    {
+        FrameDescriptor fd = frameTable[frame];
+        beginWrite(fd);
+        try {
+            if (!fd.getDirty())
+                return false;
+            write(fd, fd.page);
+            return true;
         }
-
-        private void setDirty(){
-            this.dirty = !this.dirty;
+        finally {
+            fd.endWrite();
         }
+    }
 
-        private boolean getDirty(){
-            return this.dirty;
+    /**
+     * Takes a pinned frame's WRITING flag, waiting for any other
+     * writer to finish.
+     */
+    private static void beginWrite(FrameDescriptor fd)
+    {
+        for (int spins = 0; ; spins++) {
+            int s = fd.state;
+            if ((s & FrameDescriptor.WRITING) == 0
+                && fd.casState(s, s | FrameDescriptor.WRITING))
+                return;
+            backoff(spins);
         }
+    }
 
-        private void setUnpinned(){
-            this.pinned = !this.pinned;
-        }
+    /**
+     * Waits a little before retrying. Spins briefly, then yields, then
+     * parks, so that a long wait does not burn a core.
+     */
+    private static void backoff(int spins)
+    {
+        if (spins < 64)
+            Thread.onSpinWait();
+        else if (spins < 128)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(10000);
+    }
 
-        private boolean ifPinned(){
-            return this.pinned;
+    /**
+     * Returns the page object for a frame, sized for a database's
+     * pages. A frame keeps its page while the size stays the same, so a
+     * replacement normally reuses it rather than allocating a new one.
+     * Only called by the thread that owns the frame exclusively.
+     * @throws DBFile.PageSizeMismatchException if the pages are larger
+     * than the pool allows.
+     */
+    private Page framePage(int frame, int pageSize)
+    {
+        if (pageSize > maxPageSize)
+            throw new DBFile.PageSizeMismatchException();
+        FrameDescriptor fd = frameTable[frame];
+        Page page = fd.page;
+        if (page == null || page.size() != pageSize) {
+            page = arena != null ? arena.page(frame, pageSize)
+                : new Page(pageSize);
+            fd.page = page;
         }
-        
-    }
-    
-    
-    public int checkPinCount (int temp){
-        return frameTable[temp].getPinCount();
+        return page;
     }
-    // Here are some private variables to get you started. You'll
-    // probably need more.
-    private Page[] bufferPool;
-    private FrameDescriptor[] frameTable;
-    // We use this hash table to store the page ID as the key and the index of the page in the bufferpool as the value;
-    private HashMap<Integer, Integer> myMap = new HashMap<Integer, Integer>();
-    private int curClockIndex;
-    private final int FRAME_IS_FULL = -20; //frameTable is full
-    private final int FRAME_PIN_FULL = -30; //frameTable is full and all frames are pinned
-    
+
     /**
-     * Creates a buffer manager with the specified size.
-     * @param poolSize the number of pages that the buffer pool can hold.
+     * Returns the interned id for a database name.
      */
-    public BufferManager(int poolSize)
+    private int fileId(String fileName)
     {
-        bufferPool = new Page[poolSize];
-        frameTable= new FrameDescriptor[poolSize];
-        curClockIndex = 0;
-    }
-    
-    /**
-     *Check if the FrameDescriptor is full
-     *@param frameTable is a list of FrameDescriptor we are about to check
-     *@return the index of replacement for which we can pin the page or a constant int value of -20 if it is full
-     **/
-    public int ifFull(FrameDescriptor[] frameTable){
-        for (FrameDescriptor descriptor: frameTable){
-            if (descriptor == null){
-                return Arrays.asList(frameTable).indexOf(descriptor);
-            }
-        }
-        return FRAME_IS_FULL;
-    }
-    
-    /**
-    *if the frameTable is full, 
-    *we use the clock replacement policy and return the index of the frame in FDescriptor for which we can use to replace.
-    *@param frameTable is a list of FrameDescriptor we are about to check
-    *@return index of replacement on the frameDescriptor
-    **/
-    private int getClockIndex(FrameDescriptor[] frameTable)
-    {
-        FrameDescriptor curFDescriptor;
-        boolean isFound = false;
-        int poolSize = poolSize();
-        int curIndex = (curClockIndex%poolSize);
-        int count = 0;
-        while (!isFound && count<poolSize+1){
-            curFDescriptor = frameTable[(curIndex%poolSize)];
-            if (curFDescriptor.getPinCount() == 0){
-                if (!frameTable[curIndex%poolSize].ifPinned()){
-                    this.curClockIndex = Arrays.asList(frameTable).indexOf(curFDescriptor);
-                    isFound = true;
-                }else {
-                    curFDescriptor.setUnpinned();
-                }
-            }
-            else count++;
-            curIndex++;
+        Integer id = fileIds.get(fileName);
+        if (id == null) {
+            id = fileIds.computeIfAbsent(fileName, n -> {
+                    int newId = nextFileId.getAndIncrement();
+                    addFileCounters(newId);
+                    TraceRecorder t = trace;
+                    if (t != null)
+                        t.file(newId, n);
+                    return newId;
+                });
         }
-        if (count >= poolSize) return FRAME_PIN_FULL;
-        return this.curClockIndex;
+        return id;
     }
-    
-    
+
+
     /**
      * Returns the pool size.
      * @return the pool size.
      */
     public int poolSize()
     {
-        return bufferPool.length ;
+        return numFrames;
+    }
+
+    /**
+     * Changes the number of frames in the pool while it is in use.
+     * Growing takes effect at once: the new frames go on the free list.
+     * Shrinking drains the frames beyond the new size, last first: each
+     * is taken once it is unpinned, its page written back if dirty, and
+     * then retired. A pinned frame is waited for. Frames keep their
+     * numbers, so the pages in the frames that remain stay cached and
+     * the page table is left as it is. Nothing else is held up while a
+     * resize runs, beyond the odd array copy.
+     * @param newPoolSize the new number of frames, at least one.
+     * @throws IOException passed through from underlying file system
+     * if a dirty page could not be written back; the pool is then left
+     * as far shrunk as it got.
+     */
+    public void resize(int newPoolSize) throws IOException
+    {
+        if (newPoolSize < 1)
+            throw new IllegalArgumentException("poolSize " + newPoolSize);
+        synchronized (resizeLock) {
+            if (newPoolSize > numFrames)
+                grow(newPoolSize);
+            else if (newPoolSize < numFrames)
+                shrink(newPoolSize, true);
+        }
+    }
+
+    /**
+     * Shrinks the pool as resize does, except that it stops at the
+     * first frame that is pinned instead of waiting for it.
+     * @param newPoolSize the new number of frames, at least one.
+     * @return the pool size reached.
+     * @throws IOException passed through from underlying file system.
+     */
+    int tryShrink(int newPoolSize) throws IOException
+    {
+        if (newPoolSize < 1)
+            throw new IllegalArgumentException("poolSize " + newPoolSize);
+        synchronized (resizeLock) {
+            if (newPoolSize < numFrames)
+                shrink(newPoolSize, false);
+            return numFrames;
+        }
+    }
+
+    /**
+     * Adds frames to the pool. Called with the resize lock held.
+     */
+    private void grow(int newPoolSize)
+    {
+        int oldPoolSize = numFrames;
+        FrameDescriptor[] table = frameTable;
+        if (newPoolSize > table.length) {
+            // Copy on write: threads still reading the old table see
+            // the same descriptors for the frames they know about.
+            int oldLength = table.length;
+            table = Arrays.copyOf(table, newPoolSize);
+            for (int i = oldLength; i < newPoolSize; i++)
+                table[i] = new FrameDescriptor();
+        }
+        if (arena != null) {
+            arena.resize(newPoolSize);
+            for (int i = oldPoolSize; i < newPoolSize; i++)
+                table[i].page = arena.page(i, Math.min(Page.PAGESIZE,
+                                                       maxPageSize));
+        }
+        // The policy must be ready for the frames before they are used.
+        policy.resized(newPoolSize);
+        frameTable = table;
+        synchronized (freeLock) {
+            if (freeFrames.length < newPoolSize)
+                freeFrames = Arrays.copyOf(freeFrames, newPoolSize);
+            numFrames = newPoolSize;
+            for (int i = newPoolSize - 1; i >= oldPoolSize; i--)
+                freeFrames[numFreeFrames++] = i;
+        }
     }
 
+    /**
+     * Drains and retires the frames beyond a new, smaller size. Called
+     * with the resize lock held. If wait is false, stops at the first
+     * pinned frame.
+     */
+    private void shrink(int newPoolSize, boolean wait) throws IOException
+    {
+        int oldPoolSize = numFrames;
+        // From here on the frames being drained are neither handed out
+        // from the free list nor claimed by the policy.
+        synchronized (freeLock) {
+            numFrames = newPoolSize;
+            int n = 0;
+            for (int i = 0; i < numFreeFrames; i++)
+                if (freeFrames[i] < newPoolSize)
+                    freeFrames[n++] = freeFrames[i];
+            numFreeFrames = n;
+        }
+        int frame = oldPoolSize - 1;
+        try {
+            while (frame >= newPoolSize && drain(frame, wait))
+                frame--;
+        }
+        finally {
+            if (frame >= newPoolSize) {
+                // Keep the frames not drained yet.
+                synchronized (freeLock) {
+                    numFrames = frame + 1;
+                    for (int i = frame; i >= newPoolSize; i--)
+                        if (frameTable[i].state == FrameDescriptor.FREE)
+                            freeFrames[numFreeFrames++] = i;
+                }
+            }
+            policy.resized(numFrames);
+            if (arena != null)
+                arena.resize(numFrames);
+        }
+    }
 
     /**
-    * this method checks if given page is in the buffer pool.
-    *@param given pageId 
-    *@return boolean, true if the given page is in bufferPool already.
-    **/
-    private boolean checkIfInPool(int pageId)
+     * Waits for a frame beyond the pool size to be unpinned, evicts
+     * its page and retires it.
+     * @return true once the frame is retired, or false if it is busy
+     * and wait is false.
+     */
+    private boolean drain(int frame, boolean wait) throws IOException
     {
-        if (!myMap.containsKey(pageId)) return false;
-        return true;
+        FrameDescriptor fd = frameTable[frame];
+        for (int spins = 0; ; spins++) {
+            // Frames beyond the pool size are not on the free list, so
+            // a free one is retired.
+            if (fd.state == FrameDescriptor.FREE) {
+                fd.page = null;
+                return true;
+            }
+            if (fd.claim()) {
+                try {
+                    evictClaimed(frame, false);
+                }
+                catch (IOException | RuntimeException e) {
+                    unclaim(frame);
+                    throw e;
+                }
+                freeClaimed(frame);
+                return true;
+            }
+            if (!wait)
+                return false;
+            backoff(spins);
+        }
     }
+
     /**
      * Checks if this page is in buffer pool. If it is, returns a
      * pointer to it. Otherwise, it finds an available frame for this
@@ -192,67 +1889,146 @@ public class BufferManager
     public Page pinPage(int pinPageId, String fileName, boolean emptyPage)
         throws IOException
     {
-        DBFile curDBFile = new DBFile(fileName); // create a new DBFile 
-        Page curPage;
-        int poolSize = poolSize();
-        // If  the page is already in the pool, return a pointer to it;
-        if (checkIfInPool(pinPageId)) {
-            int pageIndex = myMap.get(pinPageId); //hash table stroing the pageId as the key and the index of the page in the buffer pool as the value
-            frameTable[pageIndex] .increasePinCount(); //increase pin count
-            return bufferPool[pageIndex];
-        }
-        //Now that the page is not in the buffer pool yet, check if the frameTable is full
-        if (ifFull(frameTable) == FRAME_IS_FULL){
-            //replace
-            int indexOfReplace = getClockIndex(frameTable); //find the index of replacement
-            if (indexOfReplace == FRAME_PIN_FULL) {
-                return null; 
-                }//If all frames are pinned, return null
-            int localPageId=frameTable[indexOfReplace].getPageNum();
-            flushPage(localPageId,fileName); // flushPage takes care of page that is dirty
-            // read the actual page from the database.
-            curPage = new Page();
-            //check to see if the page is empty, if so we don't need to read the page from the disk . but we still need to
-            //add this empty page and pin it
-            if (!emptyPage){
-                curDBFile.readPage(pinPageId, curPage);
-            }
-            // update the current FDescriptor.
-            FrameDescriptor curFDescriptor = new FrameDescriptor();
-            curFDescriptor.setpageNum(pinPageId);
-            curFDescriptor.increasePinCount();
-            curFDescriptor.setFileName(fileName);
-            //add the new frame in to the frame tableble
-            frameTable[indexOfReplace] = curFDescriptor;
-            // delete the old page in the buffer pool and add replace with new page
-            bufferPool[myMap.get(localPageId)] = curPage;
-            // delete the old entry in the hashmap and insert new entry
-            int indexForInsert = Arrays.asList(bufferPool).indexOf(curPage);
-            myMap.put(pinPageId, indexForInsert);
-            this.curClockIndex++;
-            return curPage;          
-        }
-        // When the frame descriptor still has empty space: add to existing empty frames
-        int indexOfemptyFrame = ifFull(frameTable);
-        FrameDescriptor curFDescriptor = new FrameDescriptor();
-        curFDescriptor.setpageNum(pinPageId);
-        curFDescriptor.increasePinCount();
-        curFDescriptor.setFileName(fileName);
-        //add the new frame in to the frame table
-        frameTable[indexOfemptyFrame] = curFDescriptor;
-        
-        // read the actual page from the database.
-        curPage = new Page();
-        if (!emptyPage){
-            curDBFile.readPage(pinPageId, curPage);
-        }
-        // push the page to the buffer pool
-        bufferPool[indexOfemptyFrame] = curPage;
-        // establish the key-value relationship in the myMap
-        int indexOfValue = Arrays.asList(bufferPool).indexOf(curPage);
-        myMap.put(pinPageId, indexOfValue);
-        this.curClockIndex++;
-        return curPage;        
+        return pinPage(pinPageId, fileName, emptyPage, AccessHint.NORMAL);
+    }
+
+    /**
+     * Pins a page as pinPage(int, String, boolean) does, with a hint
+     * about how the page will be used. Use SEQUENTIAL for scans, so
+     * that they do not flush the rest of the pool.
+     * @param pinPageId the page id for the page to be pinned
+     * @param fileName the name of the database that contains the page
+     * to be pinned
+     * @param emptyPage determines if the page is known to be
+     * empty. If true, then the page is not actually read from disk
+     * since it is assumed to be empty.
+     * @param hint how the page will be used.
+     * @return a reference to the page in the buffer pool. If the buffer
+     * pool is full, null is returned.
+     * @throws IOException passed through from underlying file system.
+     */
+    public Page pinPage(int pinPageId, String fileName, boolean emptyPage,
+                        AccessHint hint)
+        throws IOException
+    {
+        int fileId = fileId(fileName);
+        long key = PageTable.key(fileId, pinPageId);
+        trace(TraceRecorder.PIN, hint.ordinal(), fileId, pinPageId);
+        // Only a sample of hits is timed; reading the clock twice would
+        // cost about as much as the hit itself.
+        long hitStart = ThreadLocalRandom.current().nextInt(HIT_SAMPLE_RATE)
+            == 0 ? System.nanoTime() : 0;
+        for (;;) {
+            // If  the page is already in the pool, return a pointer to it;
+            int frame = pageTable.get(key);
+            if (frame != PageTable.NOT_FOUND) {
+                // Share the outcome of a load already under way.
+                awaitLoad(frame, key);
+                Page page = pinResident(frame, key, pinPageId, fileName,
+                                        hint, true);
+                if (page != null) {
+                    if (hitStart != 0)
+                        pinHitLatency.recordSince(hitStart);
+                    return page;
+                }
+                // The frame was reused while we looked; try again.
+                continue;
+            }
+            long missStart = System.nanoTime();
+            //Now that the page is not in the buffer pool yet, find a free
+            //frame or replace one
+            frame = claimFrame(hint);
+            if (frame == FRAME_PIN_FULL) {
+                poolFull.increment();
+                return null;
+            }//If all frames are pinned, return null
+            // Publish the page before reading it, so that other threads
+            // missing on it wait for this load instead of starting one.
+            if (!publishLoad(frame, key)) {
+                unclaim(frame);
+                continue;
+            }
+            fileCounters[fileId].misses.increment();
+            loadClaimed(frame, key, pinPageId, fileName, emptyPage, hint);
+            pinMissLatency.recordSince(missStart);
+            if (hint == AccessHint.NORMAL && !emptyPage)
+                readAhead(fileName, pinPageId);
+            return frameTable[frame].page;
+        }
+    }
+
+    /**
+     * Pins a page without waiting for it to be read. If the page is
+     * already in the pool it is pinned at once; otherwise it is read
+     * by the I/O engine, so that a caller can have many misses in
+     * flight. The page stays pinned, as with pinPage, once the future
+     * completes. It may be called from a completion stage of another
+     * such future, which runs on an engine worker: if the engine's
+     * queue is full, the read is then done on that worker before this
+     * returns.
+     * @param pinPageId the page id for the page to be pinned
+     * @param fileName the name of the database that contains the page
+     * to be pinned
+     * @return a future completed with the page, or with null if the
+     * buffer pool is full, or exceptionally with whatever pinPage
+     * would have thrown.
+     */
+    public CompletableFuture<Page> pinPageAsync(int pinPageId, String fileName)
+    {
+        return pinPageAsync(pinPageId, fileName, AccessHint.NORMAL);
+    }
+
+    /**
+     * Pins a page as pinPageAsync(int, String) does, with a hint about
+     * how the page will be used.
+     * @param pinPageId the page id for the page to be pinned
+     * @param fileName the name of the database that contains the page
+     * to be pinned
+     * @param hint how the page will be used.
+     * @return a future completed with the page, or with null if the
+     * buffer pool is full.
+     */
+    public CompletableFuture<Page> pinPageAsync(int pinPageId, String fileName,
+                                                AccessHint hint)
+    {
+        long key = PageTable.key(fileId(fileName), pinPageId);
+        int frame = pageTable.get(key);
+        if (frame != PageTable.NOT_FOUND) {
+            // Resident and not being loaded: no need for a worker.
+            Page page = pinResident(frame, key, pinPageId, fileName, hint,
+                                    false);
+            if (page != null) {
+                // Misses are traced by pinPage, on the engine.
+                trace(TraceRecorder.PIN, hint.ordinal(),
+                      PageTable.fileId(key), pinPageId);
+                return CompletableFuture.completedFuture(page);
+            }
+        }
+        return ioEngine().submit(() -> pinPage(pinPageId, fileName, false,
+                                               hint));
+    }
+
+    /**
+     * Pins a page found in the page table. If wait is false, gives up
+     * rather than wait for the frame to be loaded.
+     * @return the page, or null if the frame no longer holds it or is
+     * busy.
+     */
+    private Page pinResident(int frame, long key, int pinPageId,
+                             String fileName, AccessHint hint, boolean wait)
+    {
+        boolean reference = hint == AccessHint.NORMAL;
+        if (!pinFrame(frame, key, reference, wait))
+            return null;
+        fileCounters[PageTable.fileId(key)].hits.increment();
+        if (reference)
+            policy.pinned(frame);
+        if (frameTable[frame].takePrefetched()) {
+            prefetchHits.increment();
+            if (hint == AccessHint.NORMAL)
+                readAhead(fileName, pinPageId);
+        }
+        return frameTable[frame].page;
     }
 
     /**
@@ -271,15 +2047,163 @@ public class BufferManager
     public void unpinPage(int unpinPageId, String fileName, boolean dirty)
         throws IOException
     {
-            for (FrameDescriptor FDescriptor: frameTable){        
-            if (FDescriptor != null && unpinPageId == FDescriptor.getPageNum()) {
-                if (FDescriptor.getPinCount() > 0) {
-                    FDescriptor.decreasePinCount();
+        long key = PageTable.key(fileId(fileName), unpinPageId);
+        int frame = pageTable.get(key);
+        if (frame == PageTable.NOT_FOUND)
+            throw new PageNotPinnedException();
+        FrameDescriptor fd = frameTable[frame];
+        for (;;) {
+            int s = fd.state;
+            if ((s & FrameDescriptor.PIN_MASK) == 0 || fd.getKey() != key)
+                throw new PageNotPinnedException();
+            // Mark the page dirty before the pin is dropped, so that
+            // whoever evicts it next sees the flag.
+            if (dirty)
+                fd.setDirty(true);
+            if (fd.casState(s, s - 1)) {
+                if (((s - 1) & FrameDescriptor.PIN_MASK) == 0)
+                    policy.unpinned(frame);
+                trace(TraceRecorder.UNPIN, dirty ? TraceRecorder.DIRTY : 0,
+                      PageTable.fileId(key), unpinPageId);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Pins a run of consecutive pages at once. Pages already in the
+     * pool are pinned where they are; frames for all the others are
+     * reserved first, and each run of missing pages is then read with
+     * a single scattering read. Either every page is pinned or none
+     * is.
+     * @param startPageId the page id of the first page in the run.
+     * @param count the number of pages in the run.
+     * @param fileName the name of the database that contains the
+     * pages.
+     * @return the pinned pages, in page order. If the buffer pool
+     * cannot hold the whole run, null is returned.
+     * @throws IOException passed through from underlying file system.
+     */
+    public Page[] pinRange(int startPageId, int count, String fileName)
+        throws IOException
+    {
+        if (count <= 0)
+            throw new DBFile.NonPositiveRunSizeException();
+        if (count > poolSize())
+            return null;
+        int fileId = fileId(fileName);
+        int[] frames = new int[count];
+        // What is held on frames[i]: PINNED, CLAIMED for a load, or
+        // nothing once a failed load has given the frame back.
+        final byte PINNED = 0, CLAIMED = 1, RELEASED = 2;
+        byte[] held = new byte[count];
+        int reserved = 0;
+        // Hits are counted once the run is pinned, since a run given
+        // back pins nothing; misses as their reads are started, as in
+        // pinPage.
+        int numHits = 0;
+        try {
+            while (reserved < count) {
+                int pageId = startPageId + reserved;
+                long key = PageTable.key(fileId, pageId);
+                int frame = pageTable.get(key);
+                if (frame != PageTable.NOT_FOUND) {
+                    if (pinFrame(frame, key, true)) {
+                        policy.pinned(frame);
+                        frames[reserved++] = frame;
+                        numHits++;
+                    }
+                    continue;
+                }
+                frame = claimFrame();
+                if (frame == FRAME_PIN_FULL) {
+                    poolFull.increment();
+                    return null;
+                }
+                // Evict the victim now: its old page may be further on
+                // in the run, and must not be found in a frame this
+                // thread holds exclusively.
+                try {
+                    evictClaimed(frame, true);
+                }
+                catch (IOException | RuntimeException e) {
+                    unclaim(frame);
+                    throw e;
+                }
+                if (!publishLoad(frame, key)) {
+                    unclaim(frame);
+                    continue;
                 }
-                else if (FDescriptor.getPinCount()==0) FDescriptor.setUnpinned();
-                else throw new PageNotPinnedException();
-                 }
+                held[reserved] = CLAIMED;
+                frames[reserved++] = frame;
+            }
+
+            int[] run = new int[count];
+            for (int i = 0; i < count; ) {
+                if (held[i] != CLAIMED) {
+                    i++;
+                    continue;
+                }
+                int runStart = i;
+                int runLength = 0;
+                while (i < count && held[i] == CLAIMED) {
+                    // loadRun gives the frames back if it fails.
+                    held[i] = RELEASED;
+                    run[runLength++] = frames[i++];
+                }
+                fileCounters[fileId].misses.add(runLength);
+                loadRun(fileName, fileId, startPageId + runStart, run,
+                        runLength, true);
+                for (int j = runStart; j < i; j++)
+                    held[j] = PINNED;
+            }
+            Page[] pages = new Page[count];
+            for (int i = 0; i < count; i++)
+                pages[i] = frameTable[frames[i]].page;
+            reserved = 0;
+            fileCounters[fileId].hits.add(numHits);
+            // Traced only once the whole run is pinned, as a run that
+            // is given back leaves no pins to unpin.
+            for (int i = 0; i < count; i++)
+                trace(TraceRecorder.PIN, AccessHint.NORMAL.ordinal(), fileId,
+                      startPageId + i);
+            return pages;
+        }
+        finally {
+            // Reached with frames still reserved if the pool ran out
+            // or a read failed: drop the pins and claims taken so far.
+            for (int i = 0; i < reserved; i++) {
+                if (held[i] == CLAIMED) {
+                    pageTable.remove(PageTable.key(fileId, startPageId + i),
+                                     frames[i]);
+                    unclaim(frames[i]);
+                    frameTable[frames[i]].endLoad(null);
+                }
+                else if (held[i] == PINNED) {
+                    unpinFrame(frames[i]);
+                }
+            }
+        }
     }
+
+    /**
+     * Unpins a run of consecutive pages, as unpinPage does for each.
+     * @param startPageId the page id of the first page in the run.
+     * @param count the number of pages in the run.
+     * @param fileName the name of the database that contains the
+     * pages.
+     * @param dirty if false, then the pages do not actually need to be
+     * written back to disk.
+     * @throws PageNotPinnedException if a page is not pinned. Pages
+     * before it in the run have been unpinned.
+     * @throws IOException passed through from underlying file system.
+     */
+    public void unpinRange(int startPageId, int count, String fileName,
+                           boolean dirty)
+        throws IOException
+    {
+        for (int i = 0; i < count; i++)
+            unpinPage(startPageId + i, fileName, dirty);
     }
 
     /**
@@ -300,15 +2224,68 @@ public class BufferManager
     public Pair<Integer,Page> newPage(int numPages, String fileName)
         throws IOException
     {
-        DBFile dbFile = new DBFile(fileName);
-        if  (ifFull(frameTable) == FRAME_IS_FULL){
+        return newPage(numPages, fileName, AccessHint.NORMAL);
+    }
+
+    /**
+     * Allocates a run of pages as newPage(int, String) does, with a
+     * hint about how the first page will be used. A bulk load can pass
+     * SEQUENTIAL here and when pinning the rest of the run, so that it
+     * fills a ring of frames rather than the whole pool.
+     * @param numPages the number of pages in the run to be allocated.
+     * @param fileName the name of the database from where pages are
+     * to be allocated.
+     * @param hint how the first page will be used.
+     * @return an Integer containing the first page id of the run, and
+     * a references to the Page which has been pinned in the buffer
+     * pool. Returns null if there is not enough space in the buffer
+     * pool for the first page.
+     * @throws DBFile.FileFullException if there are not enough free pages.
+     * @throws IOException passed through from underlying file system.
+     */
+    public Pair<Integer,Page> newPage(int numPages, String fileName,
+                                      AccessHint hint)
+        throws IOException
+    {
+        // Make sure there is a frame before touching the database.
+        int frame = claimFrame(hint);
+        if (frame == FRAME_PIN_FULL) {
+            poolFull.increment();
             return null;
-       }
-        int firstPageId = dbFile.allocatePages(numPages);
+        }
+        try {
+            evictClaimed(frame, true);
+        }
+        catch (IOException | RuntimeException e) {
+            unclaim(frame);
+            throw e;
+        }
+        int firstPageId;
+        DBFile dbFile = files.acquire(fileName);
+        try {
+            firstPageId = dbFile.allocatePages(numPages);
+        }
+        catch (IOException | RuntimeException e) {
+            freeClaimed(frame);
+            throw e;
+        }
+        finally {
+            files.release(dbFile);
+        }
+        long key = PageTable.key(fileId(fileName), firstPageId);
+        if (!publishLoad(frame, key)) {
+            // A stale copy of a page that was deallocated behind our
+            // back; fall back to pinning it.
+            freeClaimed(frame);
+            return new Pair<Integer,Page>(firstPageId,
+                                          pinPage(firstPageId, fileName, false,
+                                                  hint));
+        }
+        trace(TraceRecorder.NEW_PAGE, hint.ordinal(), PageTable.fileId(key),
+              firstPageId);
         // Summing the first page is not empty
-        Page curPage = pinPage(firstPageId, fileName, false);
-        Pair pair = new Pair(firstPageId, curPage);
-        return pair;     
+        loadClaimed(frame, key, firstPageId, fileName, false, hint);
+        return new Pair<Integer,Page>(firstPageId, frameTable[frame].page);
     }
 
     /**
@@ -317,20 +2294,43 @@ public class BufferManager
      * @param pageId the page id to be deallocated.
      * @param fileName the name of the database from where the page is
      * to be deallocated.
-     * @throws PagePinnedException if the page is pinned
+     * @throws PagePinnedException if the page is pinned by a caller
      * @throws IOException passed through from underlying file system.
      */
     public void freePage(int pageId, String fileName) throws IOException
     {
-        DBFile dbFile = new DBFile(fileName);
-        for (FrameDescriptor FDescriptor: frameTable){
-            if (FDescriptor != null && FDescriptor.getPinCount()== 0){
-                dbFile.deallocatePages(pageId, 1);
+        long key = PageTable.key(fileId(fileName), pageId);
+        for (int spins = 0; ; spins++) {
+            int frame = pageTable.get(key);
+            if (frame == PageTable.NOT_FOUND)
+                break;
+            FrameDescriptor fd = frameTable[frame];
+            if (fd.claim()) {
+                if (fd.getKey() != key) {
+                    unclaim(frame);
+                    continue;
+                }
+                // The page is going away, so its contents need not be
+                // written.
+                pageTable.remove(key, frame);
+                policy.removed(frame);
+                freeClaimed(frame);
+                break;
             }
-            else {
+            // The buffer manager's own pins, while a flush or the
+            // background writer writes the page out, are waited out.
+            if (fd.hasCallerPins() && fd.getKey() == key)
                 throw new PagePinnedException();
-            }
+            backoff(spins);
+        }
+        DBFile dbFile = files.acquire(fileName);
+        try {
+            dbFile.deallocatePages(pageId, 1);
         }
+        finally {
+            files.release(dbFile);
+        }
+        trace(TraceRecorder.FREE_PAGE, 0, PageTable.fileId(key), pageId);
     }
 
     /**
@@ -339,7 +2339,7 @@ public class BufferManager
      * especially since an undirty page may hang around even after the
      * underlying database has been erased. If the page is not in the
      * buffer pool, do nothing, since the page is effectively flushed
-     * already.
+     * already. A page that is written is also forced to disk.
      * @param pageId the page id to be flushed.
      * @param fileName the name of the database where the page should
      * be flushed.
@@ -347,40 +2347,193 @@ public class BufferManager
      */
     public void flushPage(int pageId, String fileName) throws IOException
     {
-        DBFile dbFile = new DBFile(fileName);
-        int bufferIndex = myMap.get(pageId);
-        Page curPage = bufferPool[bufferIndex];
-        for (FrameDescriptor fDestriptor: frameTable){
-            if (fDestriptor.getPageNum()== pageId){
-                 if (fDestriptor.getDirty()) {
-                    dbFile.writePage(pageId,curPage);
-                    fDestriptor.setDirty();
-                 }
+        long key = PageTable.key(fileId(fileName), pageId);
+        int frame = pageTable.get(key);
+        // Pin the frame for the duration so that it cannot be evicted;
+        // if it has been evicted already, it was written back then.
+        if (frame == PageTable.NOT_FOUND || !pinToWrite(frame, key))
+            return;
+        long start = System.nanoTime();
+        try {
+            if (writePinned(frame)) {
+                force(fileName);
+                flushLatency.recordSince(start);
             }
         }
+        finally {
+            unpinWritten(frame);
+        }
     }
 
     /**
      * Flushes all dirty pages from the buffer pool to the underlying
      * databases. If page is not dirty, it is not flushed, especially
      * since an undirty page may hang around even after the underlying
-     * database has been erased.
+     * database has been erased. Dirty pages are written in file and
+     * page order, runs of consecutive pages with one gathering write
+     * each, and each database written to is forced to disk once at
+     * the end.
      * @throws IOException passed through from underlying file system.
      */
     public void flushAllPages() throws IOException
     {
-        DBFile dbFile;
-        for (FrameDescriptor FDescriptor: frameTable){
-            if (FDescriptor != null && FDescriptor.getDirty()){
-                String curFileName = FDescriptor.getFileName();
-                int curPageId=FDescriptor.getPageNum();
-                Page curPage = bufferPool[myMap.get(curPageId)];
-                dbFile = new DBFile(curFileName);
-                dbFile.writePage(curPageId, curPage);
+        long start = System.nanoTime();
+        // Pin every dirty page, so that none of them can be evicted
+        // until it has been written. Keys sort by file, then page.
+        FrameDescriptor[] table = frameTable;
+        long[] keys = new long[table.length];
+        int numKeys = 0;
+        for (int frame = 0; frame < table.length; frame++) {
+            FrameDescriptor fd = table[frame];
+            long key = fd.getKey();
+            if (fd.getDirty() && pinToWrite(frame, key))
+                keys[numKeys++] = key;
+        }
+        Arrays.sort(keys, 0, numKeys);
+
+        HashSet<String> written = new HashSet<String>();
+        int[] run = new int[Math.min(MAX_WRITE_RUN, Math.max(numKeys, 1))];
+        int next = 0;
+        try {
+            while (next < numKeys) {
+                // Pinned pages stay put, so the table still maps them
+                // to the frames pinned above.
+                int runLength = 0;
+                do {
+                    run[runLength++] = pageTable.get(keys[next++]);
+                } while (next < numKeys && runLength < run.length
+                         && keys[next] == keys[next - 1] + 1);
+                try {
+                    if (writeRun(run, runLength))
+                        written.add(frameTable[run[0]].getFileName());
+                }
+                finally {
+                    for (int i = 0; i < runLength; i++)
+                        unpinWritten(run[i]);
+                }
+            }
+        }
+        finally {
+            // Pages left over after a failed write.
+            while (next < numKeys)
+                unpinWritten(pageTable.get(keys[next++]));
+        }
+        for (String fileName : written)
+            force(fileName);
+        flushLatency.recordSince(start);
+    }
+
+    /**
+     * Writes a run of pinned frames holding consecutive pages of one
+     * database with a single call, skipping the write if none of them
+     * is dirty any more. The pins are left to the caller.
+     * @return true if the run was written.
+     */
+    private boolean writeRun(int[] run, int runLength) throws IOException
+    {
+        for (int i = 0; i < runLength; i++)
+            beginWrite(frameTable[run[i]]);
+        try {
+            boolean dirty = false;
+            for (int i = 0; i < runLength; i++)
+                dirty |= frameTable[run[i]].getDirty();
+            if (!dirty)
+                return false;
+            Page[] pages = new Page[runLength];
+            for (int i = 0; i < runLength; i++) {
+                frameTable[run[i]].setDirty(false);
+                pages[i] = frameTable[run[i]].page;
+            }
+            FrameDescriptor first = frameTable[run[0]];
+            DBFile dbFile = files.acquire(first.getFileName());
+            try {
+                long start = System.nanoTime();
+                dbFile.writePages(first.getPageNum(), pages, runLength);
+                writeLatency.recordSince(start);
+                countWrites(PageTable.fileId(first.getKey()), runLength);
+            }
+            catch (IOException | RuntimeException e) {
+                for (int i = 0; i < runLength; i++)
+                    frameTable[run[i]].setDirty(true);
+                throw e;
+            }
+            finally {
+                files.release(dbFile);
+            }
+            return true;
+        }
+        finally {
+            for (int i = 0; i < runLength; i++)
+                frameTable[run[i]].endWrite();
+        }
+    }
+
+    /**
+     * Writes back dirty, unpinned pages among the frames the replacement
+     * policy will replace next, or among the next frames in turn if the
+     * policy cannot say, until lowWaterMark of those frames are clean.
+     * If that many already are, nothing is written. Pages are not forced
+     * to disk. Called by the background writer.
+     * @param candidates scratch space; its length is how many frames
+     * are looked at.
+     * @param lowWaterMark the number of clean upcoming victims to stop at.
+     * @param maxPages the most pages to write.
+     * @return the number of pages written.
+     * @throws IOException passed through from underlying file system.
+     */
+    int cleanAhead(int[] candidates, int lowWaterMark, int maxPages)
+        throws IOException
+    {
+        int n = policy.upcomingVictims(candidates);
+        if (n == 0) {
+            n = candidates.length;
+            for (int i = 0; i < n; i++)
+                candidates[i] = (cleanCursor + i) % poolSize();
+            cleanCursor = (cleanCursor + n) % poolSize();
+        }
+        int clean = 0;
+        int written = 0;
+        for (int i = 0; i < n && clean < lowWaterMark && written < maxPages; i++) {
+            int frame = candidates[i];
+            FrameDescriptor fd = frameTable[frame];
+            int state = fd.state & ~FrameDescriptor.REFERENCED;
+            if (state == FrameDescriptor.FREE) {
+                clean++;
+                continue;
+            }
+            // Pinned pages may still change, so leave them for later;
+            // they are not about to be replaced either.
+            if (state != 0)
+                continue;
+            if (!fd.getDirty()) {
+                clean++;
+                continue;
+            }
+            if (!pinToWrite(frame, fd.getKey()))
+                continue;
+            try {
+                if (writePinned(frame))
+                    written++;
             }
+            finally {
+                unpinWritten(frame);
+            }
+            clean++;
+        }
+        return written;
+    }
+
+    private void force(String fileName) throws IOException
+    {
+        DBFile dbFile = files.acquire(fileName);
+        try {
+            dbFile.force();
+        }
+        finally {
+            files.release(dbFile);
         }
     }
-        
+
     /**
      * Returns buffer pool location for a particular pageId. This
      * method is just used for testing purposes: it probably doesn't
@@ -392,11 +2545,6 @@ public class BufferManager
     */
     public int findFrame(int pageId, String fileName)
     {
-        //Qeustion: shall we check if the data is actually in the database system?
-        //Question: is Buffer pool location the same as frame location?
-        if (myMap.containsKey(pageId)) {
-            return myMap.get(pageId);
-        }
-        return -1;
+        return pageTable.get(PageTable.key(fileId(fileName), pageId));
     }
-  }  
\ No newline at end of file
+  }
@@ -0,0 +1,45 @@
+import java.util.Map;
+
+/**
+ * The management interface of a buffer manager, registered with
+ * BufferManager.registerMBean so that JConsole or any JMX client can
+ * watch it. Attributes are read when asked for, with the meanings
+ * given in BufferStats.
+ * @author Yawen Chen and Tao Liu
+ */
+public interface BufferManagerMXBean
+{
+    int getPoolSize();
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    long getEvictions();
+
+    long getDirtyEvictions();
+
+    long getPagesRead();
+
+    long getPagesWritten();
+
+    long getPoolFull();
+
+    long getVictimSearches();
+
+    double getMeanSweepLength();
+
+    LatencyHistogram.Snapshot getPinHitLatency();
+
+    LatencyHistogram.Snapshot getPinMissLatency();
+
+    LatencyHistogram.Snapshot getReadLatency();
+
+    LatencyHistogram.Snapshot getWriteLatency();
+
+    LatencyHistogram.Snapshot getFlushLatency();
+
+    Map<String, BufferStats.FileStats> getFiles();
+}
@@ -0,0 +1,322 @@
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A snapshot of a buffer manager's counters and latency histograms,
+ * taken by BufferManager.stats(). Counters are totals since the
+ * buffer manager was created. Each value is read without stopping the
+ * buffer manager, so values taken while it is busy may be a few
+ * events apart from each other.
+ *
+ * Pin hit latencies are sampled, one hit in
+ * BufferManager.HIT_SAMPLE_RATE, to keep timing off the hit path;
+ * everything else is timed on every call. Read and write latencies
+ * are per DBFile call, which may cover a run of pages.
+ * @author Yawen Chen and Tao Liu
+ */
+public class BufferStats
+{
+    private final int poolSize;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long dirtyEvictions;
+    private final long pagesRead;
+    private final long pagesWritten;
+    private final long poolFull;
+    private final long victimSearches;
+    private final long victimProbes;
+    private final LatencyHistogram.Snapshot pinHitLatency;
+    private final LatencyHistogram.Snapshot pinMissLatency;
+    private final LatencyHistogram.Snapshot readLatency;
+    private final LatencyHistogram.Snapshot writeLatency;
+    private final LatencyHistogram.Snapshot flushLatency;
+    private final Map<String, FileStats> files;
+
+    BufferStats(int poolSize, long hits, long misses, long evictions,
+                long dirtyEvictions, long pagesRead, long pagesWritten,
+                long poolFull, long victimSearches, long victimProbes,
+                LatencyHistogram.Snapshot pinHitLatency,
+                LatencyHistogram.Snapshot pinMissLatency,
+                LatencyHistogram.Snapshot readLatency,
+                LatencyHistogram.Snapshot writeLatency,
+                LatencyHistogram.Snapshot flushLatency,
+                Map<String, FileStats> files)
+    {
+        this.poolSize = poolSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.dirtyEvictions = dirtyEvictions;
+        this.pagesRead = pagesRead;
+        this.pagesWritten = pagesWritten;
+        this.poolFull = poolFull;
+        this.victimSearches = victimSearches;
+        this.victimProbes = victimProbes;
+        this.pinHitLatency = pinHitLatency;
+        this.pinMissLatency = pinMissLatency;
+        this.readLatency = readLatency;
+        this.writeLatency = writeLatency;
+        this.flushLatency = flushLatency;
+        this.files = Collections.unmodifiableMap(
+            new TreeMap<String, FileStats>(files));
+    }
+
+    /**
+     * Returns the pool size when the snapshot was taken.
+     * @return the number of frames.
+     */
+    public int getPoolSize()
+    {
+        return poolSize;
+    }
+
+    /**
+     * Returns the number of pins that found their page in the pool.
+     * @return the number of hits.
+     */
+    public long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of pins that read their page.
+     * @return the number of misses.
+     */
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Returns the share of pins that were hits.
+     * @return hits divided by pins, or 0 if there were no pins.
+     */
+    public double getHitRatio()
+    {
+        return hits + misses == 0 ? 0 : (double)hits / (hits + misses);
+    }
+
+    /**
+     * Returns the number of pages evicted to make room for others.
+     * @return the number of evictions.
+     */
+    public long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of evicted pages that had to be written back
+     * first, by the thread that needed the frame.
+     * @return the number of dirty evictions.
+     */
+    public long getDirtyEvictions()
+    {
+        return dirtyEvictions;
+    }
+
+    /**
+     * Returns the number of pages read, including read-ahead.
+     * @return the number of pages read.
+     */
+    public long getPagesRead()
+    {
+        return pagesRead;
+    }
+
+    /**
+     * Returns the number of pages written, by evictions, flushes and
+     * the background writer.
+     * @return the number of pages written.
+     */
+    public long getPagesWritten()
+    {
+        return pagesWritten;
+    }
+
+    /**
+     * Returns how often pinPage, pinRange or newPage returned null
+     * because every frame was pinned.
+     * @return the number of such calls.
+     */
+    public long getPoolFull()
+    {
+        return poolFull;
+    }
+
+    /**
+     * Returns the number of times the replacement policy was asked for
+     * a victim.
+     * @return the number of victim searches.
+     */
+    public long getVictimSearches()
+    {
+        return victimSearches;
+    }
+
+    /**
+     * Returns the mean number of frames the policy looked at per
+     * victim search: for the clock, the length of its sweeps.
+     * @return frames looked at per search, or 0 if there were none.
+     */
+    public double getMeanSweepLength()
+    {
+        return victimSearches == 0 ? 0 : (double)victimProbes / victimSearches;
+    }
+
+    /**
+     * Returns the latencies of pins that hit, sampled.
+     * @return the histogram snapshot.
+     */
+    public LatencyHistogram.Snapshot getPinHitLatency()
+    {
+        return pinHitLatency;
+    }
+
+    /**
+     * Returns the latencies of pinPage calls that missed, from the
+     * miss to the page being loaded.
+     * @return the histogram snapshot.
+     */
+    public LatencyHistogram.Snapshot getPinMissLatency()
+    {
+        return pinMissLatency;
+    }
+
+    /**
+     * Returns the latencies of DBFile reads.
+     * @return the histogram snapshot.
+     */
+    public LatencyHistogram.Snapshot getReadLatency()
+    {
+        return readLatency;
+    }
+
+    /**
+     * Returns the latencies of DBFile writes.
+     * @return the histogram snapshot.
+     */
+    public LatencyHistogram.Snapshot getWriteLatency()
+    {
+        return writeLatency;
+    }
+
+    /**
+     * Returns the latencies of flushPage calls that wrote a page and
+     * of flushAllPages calls, including forcing to disk.
+     * @return the histogram snapshot.
+     */
+    public LatencyHistogram.Snapshot getFlushLatency()
+    {
+        return flushLatency;
+    }
+
+    /**
+     * Returns the counters of each database the buffer manager has
+     * used.
+     * @return the counters by database name, sorted by name.
+     */
+    public Map<String, FileStats> getFiles()
+    {
+        return files;
+    }
+
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("pool size %d, hits %d, misses %d"
+                                + " (hit ratio %.4f)%n",
+                                poolSize, hits, misses, getHitRatio()));
+        sb.append(String.format("evictions %d (%d dirty), pages read %d,"
+                                + " pages written %d, pool full %d%n",
+                                evictions, dirtyEvictions, pagesRead,
+                                pagesWritten, poolFull));
+        sb.append(String.format("victim searches %d, mean sweep length"
+                                + " %.2f%n",
+                                victimSearches, getMeanSweepLength()));
+        sb.append("pin hit:  ").append(pinHitLatency).append('\n');
+        sb.append("pin miss: ").append(pinMissLatency).append('\n');
+        sb.append("read:     ").append(readLatency).append('\n');
+        sb.append("write:    ").append(writeLatency).append('\n');
+        sb.append("flush:    ").append(flushLatency).append('\n');
+        for (Map.Entry<String, FileStats> e : files.entrySet())
+            sb.append(e.getKey()).append(": ").append(e.getValue())
+                .append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * The counters of one database.
+     */
+    public static class FileStats
+    {
+        private final long hits;
+        private final long misses;
+        private final long pagesRead;
+        private final long pagesWritten;
+
+        FileStats(long hits, long misses, long pagesRead, long pagesWritten)
+        {
+            this.hits = hits;
+            this.misses = misses;
+            this.pagesRead = pagesRead;
+            this.pagesWritten = pagesWritten;
+        }
+
+        /**
+         * Returns the number of pins of the database's pages that hit.
+         * @return the number of hits.
+         */
+        public long getHits()
+        {
+            return hits;
+        }
+
+        /**
+         * Returns the number of pins of the database's pages that
+         * missed.
+         * @return the number of misses.
+         */
+        public long getMisses()
+        {
+            return misses;
+        }
+
+        /**
+         * Returns the share of the database's pins that were hits.
+         * @return hits divided by pins, or 0 if there were no pins.
+         */
+        public double getHitRatio()
+        {
+            return hits + misses == 0 ? 0 : (double)hits / (hits + misses);
+        }
+
+        /**
+         * Returns the number of the database's pages read.
+         * @return the number of pages read.
+         */
+        public long getPagesRead()
+        {
+            return pagesRead;
+        }
+
+        /**
+         * Returns the number of the database's pages written.
+         * @return the number of pages written.
+         */
+        public long getPagesWritten()
+        {
+            return pagesWritten;
+        }
+
+        public String toString()
+        {
+            return String.format("hits %d, misses %d, pages read %d,"
+                                 + " pages written %d",
+                                 hits, misses, pagesRead, pagesWritten);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The clock replacement policy. Frames with a non-zero pin count are
+ * skipped; an unpinned frame that has been referenced since the hand
+ * last passed gets a second chance. This is the buffer manager's
+ * default policy.
+ *
+ * The policy keeps no per-page state: reference bits live in the
+ * buffer manager's frame state words. The sweep is lock-free: threads
+ * advance the shared hand with fetch-and-add, clear reference bits
+ * with compare-and-set, and claim a victim by compare-and-set, so no
+ * two threads can take the same frame.
+ * @author Yawen Chen and Tao Liu
+ */
+public class ClockPolicy implements ReplacementPolicy
+{
+    // The clock hand. It only ever increases; the frame it points at
+    // is its value modulo the pool size.
+    private final AtomicLong curClockIndex = new AtomicLong();
+    // The hand value at which a sweeper last found an unpinned frame.
+    // Updated without a lock: a late write of a smaller value can at
+    // worst make a sweep give up a little early.
+    private volatile long lastUnpinned = -1;
+    private Frames frames;
+
+    public void attach(Frames frames)
+    {
+        if (this.frames != null)
+            throw new IllegalStateException("policy already attached");
+        this.frames = frames;
+    }
+
+    /**
+     * Sweeps for a victim. The sweep is bounded by the shared hand,
+     * whoever moves it, so that sweepers running at once share the
+     * work: it gives up once the hand has made a full turn, since this
+     * call began, in which no sweeper found an unpinned frame. Every
+     * frame was then pinned (or otherwise busy) when the hand passed
+     * it. A referenced frame found on the way has its bit cleared and
+     * is taken when the hand comes round to it again.
+     * @return the claimed frame, or NO_VICTIM.
+     */
+    public int victim()
+    {
+        int poolSize = frames.size();
+        long start = curClockIndex.get();
+        for (;;)
+        {
+            long hand = curClockIndex.getAndIncrement();
+            int curIndex = (int)(hand % poolSize);
+            int result = frames.sweep(curIndex);
+            if (result == Frames.CLAIMED)
+                return curIndex;
+            if (result == Frames.UNPINNED && lastUnpinned < hand)
+                lastUnpinned = hand;
+            if (hand + 1 - Math.max(start, lastUnpinned + 1) >= poolSize)
+                return NO_VICTIM;
+        }
+    }
+
+    /**
+     * Lists the frames the hand is about to pass.
+     */
+    public int upcomingVictims(int[] out)
+    {
+        int poolSize = frames.size();
+        int n = Math.min(out.length, poolSize);
+        long hand = curClockIndex.get();
+        for (int i = 0; i < n; i++)
+            out[i] = (int)((hand + i) % poolSize);
+        return n;
+    }
+}
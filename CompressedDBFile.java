@@ -0,0 +1,485 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Database file that stores pages compressed. writePage deflates the
+ * page into a variable-size slot of a slot file (name.cmp), and an
+ * indirection table (name.idx) records where each page's slot is and
+ * how long it is; readPage inflates the slot back into the caller's
+ * page. A miss on a page that compresses well thus reads a fraction
+ * of a page from disk.
+ *
+ * Slots are a whole number of GRANULE-byte granules. A page that would
+ * not save at least one granule is stored raw instead, in its usual
+ * place in the data file, and so is any page not yet written since the
+ * database was first opened compressed; an existing database can
+ * therefore be switched to this format without converting it.
+ * Rewriting a page whose size in granules is unchanged reuses its slot;
+ * otherwise the old slot is freed for reuse by a page of the same size.
+ *
+ * The indirection table is kept in memory, and the entries changed
+ * since it was last written are written back by force() and close().
+ * Until a table that no longer refers to a freed slot has
+ * been forced to disk, the slot is not reused: the table on disk may
+ * still point at it, and a crash must not find another page's data
+ * there. Once a database holds compressed pages it is always
+ * opened as a CompressedDBFile; see DBFile.open.
+ * @author Yawen Chen and Tao Liu
+ */
+public class CompressedDBFile extends DBFile
+{
+    /**
+     * Unit of slot allocation in the slot file, in bytes.
+     */
+    public static final int GRANULE = 64;
+
+    // Index entry of a page held raw in the data file. Other entries
+    // pack the first granule of the slot and the compressed length.
+    private static final long RAW = -1L;
+
+    private final String slotFileName;
+    private final String indexFileName;
+    // Compressed pages needing more granules than this are stored raw.
+    private final int maxGranules;
+    // One entry per page; pages past the end are RAW. Replaced by a
+    // larger copy as the database grows. Updates are guarded by this.
+    private volatile long[] index;
+    // Entries changed since the table was last written, as a range,
+    // and the number of entries the index file holds.
+    private int dirtyFrom = Integer.MAX_VALUE;
+    private int dirtyTo = 0;
+    private int numWritten;
+    // Free slots, by size in granules; the list for size 0 stays empty.
+    private final ArrayList<ArrayDeque<Integer>> freeSlots;
+    // The old entries of slots freed since the indirection table was
+    // last written; not yet free.
+    private ArrayList<Long> freedEntries = new ArrayList<Long>();
+    private int endGranule;
+    private volatile FileChannel slotChannel;
+    private volatile FileChannel indexChannel;
+
+    // Deflater and inflater per thread, so that pages can be compressed
+    // without holding the lock.
+    private static final ThreadLocal<Codec> CODECS =
+        ThreadLocal.withInitial(Codec::new);
+
+    private static class Codec
+    {
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final Inflater inflater = new Inflater();
+        private ByteBuffer slot = ByteBuffer.allocateDirect(Page.PAGESIZE);
+
+        /**
+         * Returns the slot buffer, cleared, with room for at least the
+         * given number of bytes and its limit there.
+         */
+        private ByteBuffer slot(int bytes)
+        {
+            if (slot.capacity() < bytes)
+                slot = ByteBuffer.allocateDirect(bytes);
+            slot.clear().limit(bytes);
+            return slot;
+        }
+    }
+
+    /**
+     * Opens the database with the given name, reading its indirection
+     * table if it has one.
+     * @param name name of the database.
+     * @throws IOException passed through from underlying file system.
+     */
+    public CompressedDBFile(String name) throws IOException
+    {
+        super(name);
+        slotFileName = name + ".cmp";
+        indexFileName = name + ".idx";
+        maxGranules = getPageSize() / GRANULE - 1;
+        freeSlots = new ArrayList<ArrayDeque<Integer>>(maxGranules + 1);
+        for (int i = 0; i <= maxGranules; i++)
+            freeSlots.add(new ArrayDeque<Integer>());
+        index = readIndex();
+        findFreeSlots();
+    }
+
+    /**
+     * Checks whether a database holds compressed pages.
+     * @param name name of the database.
+     * @return true if it has an indirection table.
+     */
+    public static boolean isCompressed(String name)
+    {
+        return (new File(name + ".idx")).exists();
+    }
+
+    /**
+     * Erases the slot file and indirection table of a database, if it
+     * has them.
+     * @param name name of the database.
+     */
+    static void eraseCompressed(String name)
+    {
+        (new File(name + ".cmp")).delete();
+        (new File(name + ".idx")).delete();
+    }
+
+    /**
+     * Returns the number of bytes a read of the page fetches from disk.
+     * @param pageNum the page number.
+     * @return the compressed length, or the page size if the page is
+     * stored raw.
+     */
+    public int getStoredLength(int pageNum)
+    {
+        long entry = entry(pageNum);
+        return entry == RAW ? getPageSize() : length(entry);
+    }
+
+    @Override
+    public void readPage(int pageNum, Page page) throws IOException
+    {
+        checkAllocated(pageNum);
+        long entry = entry(pageNum);
+        if (entry == RAW)
+        {
+            super.readPage(pageNum, page);
+            return;
+        }
+        checkPageSize(page);
+        ByteBuffer slot = CODECS.get().slot(length(entry));
+        readFully(slotChannel(), slot, (long)granule(entry) * GRANULE);
+        slot.flip();
+
+        Inflater inflater = CODECS.get().inflater;
+        inflater.reset();
+        inflater.setInput(slot);
+        ByteBuffer out = page.ioBuffer();
+        try {
+            inflater.inflate(out);
+        }
+        catch (DataFormatException e) {
+            throw new IOException("Corrupt page " + pageNum, e);
+        }
+        if (out.hasRemaining() || !inflater.finished())
+            throw new IOException("Corrupt page " + pageNum);
+    }
+
+    @Override
+    public void writePage(int pageNum, Page page) throws IOException
+    {
+        if (getNumPages() == 0)
+            throw new EmptyFileException();
+
+        checkAllocated(pageNum);
+        checkPageSize(page);
+        Codec codec = CODECS.get();
+        int length = compress(page, codec);
+        if (length < 0)
+        {
+            super.writePage(pageNum, page);
+            setEntry(pageNum, RAW);
+            return;
+        }
+        int granules = granules(length);
+        int granule = reserve(pageNum, granules);
+        try {
+            writeFully(slotChannel(), codec.slot, (long)granule * GRANULE);
+        }
+        catch (IOException | RuntimeException e) {
+            unreserve(pageNum, granule, granules);
+            throw e;
+        }
+        setEntry(pageNum, ((long)granule << 32) | length);
+    }
+
+    /**
+     * Reads a run of pages. Compressed pages are not contiguous on
+     * disk, so each page is read on its own.
+     */
+    @Override
+    public void readPages(int firstPageNum, Page[] pages, int count)
+        throws IOException
+    {
+        if (count <= 0)
+            throw new NonPositiveRunSizeException();
+        for (int i = 0; i < count; i++)
+            readPage(firstPageNum + i, pages[i]);
+    }
+
+    /**
+     * Writes a run of pages. Each page is compressed on its own, so
+     * each is written on its own.
+     */
+    @Override
+    public void writePages(int firstPageNum, Page[] pages, int count)
+        throws IOException
+    {
+        if (count <= 0)
+            throw new NonPositiveRunSizeException();
+        for (int i = 0; i < count; i++)
+            writePage(firstPageNum + i, pages[i]);
+    }
+
+    /**
+     * Deallocates a run of pages and frees their slots.
+     */
+    @Override
+    public synchronized void deallocatePages(int startPageNum, int runSize)
+        throws IOException
+    {
+        super.deallocatePages(startPageNum, runSize);
+        for (int i = startPageNum; i < startPageNum + runSize; i++)
+            if (entry(i) != RAW)
+                setEntry(i, RAW);
+    }
+
+    /**
+     * Forces pages written so far out to the storage device. Slots are
+     * forced before the indirection table that refers to them, and
+     * slots the forced table no longer refers to become free.
+     * @throws IOException passed through from underlying file system.
+     */
+    @Override
+    public void force() throws IOException
+    {
+        super.force();
+        slotChannel().force(false);
+        ArrayList<Long> written = writeIndex();
+        indexChannel().force(false);
+        freeEntries(written);
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        try {
+            writeIndex();
+        }
+        finally {
+            if (slotChannel != null)
+                slotChannel.close();
+            slotChannel = null;
+            if (indexChannel != null)
+                indexChannel.close();
+            indexChannel = null;
+            super.close();
+        }
+    }
+
+    /**
+     * Deflates a page into the thread's slot buffer.
+     * @return the compressed length, or -1 if the page would not save
+     * at least one granule.
+     */
+    private int compress(Page page, Codec codec)
+    {
+        Deflater deflater = codec.deflater;
+        deflater.reset();
+        deflater.setInput(page.ioBuffer());
+        deflater.finish();
+        ByteBuffer slot = codec.slot(maxGranules * GRANULE);
+        while (!deflater.finished() && slot.hasRemaining())
+            deflater.deflate(slot);
+        if (!deflater.finished())
+            return -1;
+        slot.flip();
+        return slot.remaining();
+    }
+
+    /**
+     * Finds a slot of the given size for a page, reusing the page's
+     * own slot if it is the right size.
+     */
+    private synchronized int reserve(int pageNum, int granules)
+    {
+        long entry = entry(pageNum);
+        if (entry != RAW && granules(length(entry)) == granules)
+            return granule(entry);
+        Integer slot = freeSlots.get(granules).poll();
+        if (slot != null)
+            return slot;
+        int granule = endGranule;
+        endGranule += granules;
+        return granule;
+    }
+
+    /**
+     * Returns a slot taken by reserve to the free lists, unless it is
+     * the page's own.
+     */
+    private synchronized void unreserve(int pageNum, int granule,
+                                        int granules)
+    {
+        long entry = entry(pageNum);
+        if (entry == RAW || granule(entry) != granule)
+            freeSlots.get(granules).add(granule);
+    }
+
+    /**
+     * Points a page at a new slot, or at the data file, and frees the
+     * slot it used before.
+     */
+    private synchronized void setEntry(int pageNum, long entry)
+    {
+        long[] index = this.index;
+        if (pageNum >= index.length)
+        {
+            if (entry == RAW)
+                return;
+            int length = Math.max(pageNum + 1,
+                                  Math.max(getNumPages(), 2 * index.length));
+            long[] grown = Arrays.copyOf(index, length);
+            Arrays.fill(grown, index.length, length, RAW);
+            this.index = index = grown;
+        }
+        long old = index[pageNum];
+        index[pageNum] = entry;
+        dirtyFrom = Math.min(dirtyFrom, pageNum);
+        dirtyTo = Math.max(dirtyTo, pageNum + 1);
+        if (old != RAW && (entry == RAW || granule(old) != granule(entry)))
+            freedEntries.add(old);
+    }
+
+    /**
+     * Frees the slots of index entries that the table on disk no
+     * longer refers to.
+     */
+    private synchronized void freeEntries(ArrayList<Long> entries)
+    {
+        for (long entry : entries)
+            freeSlots.get(granules(length(entry))).add(granule(entry));
+    }
+
+    private long entry(int pageNum)
+    {
+        long[] index = this.index;
+        return pageNum < index.length ? index[pageNum] : RAW;
+    }
+
+    private static int granule(long entry)
+    {
+        return (int)(entry >>> 32);
+    }
+
+    private static int length(long entry)
+    {
+        return (int)entry;
+    }
+
+    private static int granules(int length)
+    {
+        return (length + GRANULE - 1) / GRANULE;
+    }
+
+    private long[] readIndex() throws IOException
+    {
+        File file = new File(indexFileName);
+        int numEntries = (int)(file.length() / 8);
+        numWritten = numEntries;
+        long[] index = new long[Math.max(numEntries, getNumPages())];
+        Arrays.fill(index, RAW);
+        if (numEntries > 0)
+        {
+            ByteBuffer bytes = ByteBuffer.allocate(numEntries * 8);
+            readFully(indexChannel(), bytes, 0);
+            bytes.flip().asLongBuffer().get(index, 0, numEntries);
+        }
+        return index;
+    }
+
+    /**
+     * Writes back the part of the indirection table that has changed.
+     * Entries between the end of the index file and a changed entry
+     * are written too, so that the file has no holes. The write is not
+     * forced to disk.
+     * @return the old entries of slots freed before the write, which
+     * can be freed once it is forced.
+     */
+    private synchronized ArrayList<Long> writeIndex() throws IOException
+    {
+        if (dirtyFrom < dirtyTo)
+        {
+            int from = Math.min(dirtyFrom, numWritten);
+            ByteBuffer bytes = ByteBuffer.allocate((dirtyTo - from) * 8);
+            bytes.asLongBuffer().put(index, from, dirtyTo - from);
+            writeFully(indexChannel(), bytes, (long)from * 8);
+            numWritten = Math.max(numWritten, dirtyTo);
+            dirtyFrom = Integer.MAX_VALUE;
+            dirtyTo = 0;
+        }
+        ArrayList<Long> written = freedEntries;
+        freedEntries = new ArrayList<Long>();
+        return written;
+    }
+
+    /**
+     * Rebuilds the free slot lists from the gaps between the slots the
+     * indirection table refers to.
+     */
+    private void findFreeSlots()
+    {
+        long[] used = new long[index.length];
+        int numUsed = 0;
+        for (long entry : index)
+            if (entry != RAW)
+                used[numUsed++] = entry;
+        Arrays.sort(used, 0, numUsed);
+        int end = 0;
+        for (int i = 0; i < numUsed; i++)
+        {
+            freeGap(end, granule(used[i]));
+            end = granule(used[i]) + granules(length(used[i]));
+        }
+        endGranule = end;
+    }
+
+    private void freeGap(int from, int to)
+    {
+        while (from < to)
+        {
+            int size = Math.min(maxGranules, to - from);
+            freeSlots.get(size).add(from);
+            from += size;
+        }
+    }
+
+    private FileChannel slotChannel() throws IOException
+    {
+        FileChannel channel = slotChannel;
+        return channel != null ? channel : openSlots();
+    }
+
+    private FileChannel indexChannel() throws IOException
+    {
+        FileChannel channel = indexChannel;
+        return channel != null ? channel : openIndex();
+    }
+
+    private synchronized FileChannel openSlots() throws IOException
+    {
+        if (slotChannel == null)
+            slotChannel = FileChannel.open(Paths.get(slotFileName),
+                                           StandardOpenOption.CREATE,
+                                           StandardOpenOption.READ,
+                                           StandardOpenOption.WRITE);
+        return slotChannel;
+    }
+
+    private synchronized FileChannel openIndex() throws IOException
+    {
+        if (indexChannel == null)
+            indexChannel = FileChannel.open(Paths.get(indexFileName),
+                                            StandardOpenOption.CREATE,
+                                            StandardOpenOption.READ,
+                                            StandardOpenOption.WRITE);
+        return indexChannel;
+    }
+}
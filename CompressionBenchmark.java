@@ -0,0 +1,151 @@
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Compares the compressed page format with the raw one on page misses.
+ * The same table-like pages are loaded into a raw and a compressed
+ * database, and each is then read through a small buffer pool with
+ * random pins, so that almost every pin is a miss. Reported are the
+ * bytes read from disk per miss and the mean pin latency. Run with an
+ * optional page count, pin count and pool size:
+ *
+ *     java CompressionBenchmark [numPages] [numPins] [poolSize]
+ *
+ * Both databases are written just before they are read, so misses are
+ * served from the OS page cache and the latency shown includes the
+ * cost of inflating but little of the I/O it saves; the bytes per miss
+ * show what a cold read would fetch.
+ * @author Yawen Chen and Tao Liu
+ */
+public class CompressionBenchmark
+{
+    public static final String RAW_FILENAME = "__benchmark_raw";
+    public static final String COMPRESSED_FILENAME = "__benchmark_cmp";
+
+    // Each page holds fixed-size records of a few columns with a small
+    // range of values, like a typical table.
+    private static final int RECORD_SIZE = 32;
+    private static final byte[][] STATUSES = {
+        "ACTIVE      ".getBytes(), "SUSPENDED   ".getBytes(),
+        "CLOSED      ".getBytes(), "PENDING     ".getBytes()
+    };
+
+    public static void main(String[] args) throws IOException
+    {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 16384;
+        int numPins = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int poolSize = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+        try
+        {
+            load(RAW_FILENAME, DBFile.Mode.CHANNEL, numPages);
+            load(COMPRESSED_FILENAME, DBFile.Mode.COMPRESSED, numPages);
+            for (int round = 0; round < 2; round++)
+            {
+                // The first round warms up the JIT.
+                run(RAW_FILENAME, DBFile.Mode.CHANNEL, numPages, numPins,
+                    poolSize, round > 0);
+                run(COMPRESSED_FILENAME, DBFile.Mode.COMPRESSED, numPages,
+                    numPins, poolSize, round > 0);
+            }
+        }
+        finally
+        {
+            DBFile.erase(RAW_FILENAME);
+            DBFile.erase(COMPRESSED_FILENAME);
+        }
+    }
+
+    private static void load(String fileName, DBFile.Mode mode, int numPages)
+        throws IOException
+    {
+        DBFile.erase(fileName);
+        new DBFile(fileName, numPages).close();
+        DBFile file = DBFile.open(fileName, mode);
+        Random random = new Random(42);
+        Page page = new Page();
+        try
+        {
+            file.allocatePages(numPages);
+            for (int i = 0; i < numPages; i++)
+            {
+                fill(page, i, random);
+                file.writePage(i, page);
+            }
+            file.force();
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    private static void fill(Page page, int pageNum, Random random)
+    {
+        int perPage = Page.PAGESIZE / RECORD_SIZE;
+        for (int r = 0; r < perPage; r++)
+        {
+            int offset = r * RECORD_SIZE;
+            page.buffer().putInt(offset, pageNum * perPage + r);
+            page.buffer().putInt(offset + 4, random.nextInt(16));
+            page.buffer().putLong(offset + 8, 1600000000000L
+                                  + random.nextInt(1000000));
+            page.buffer().putInt(offset + 16, random.nextInt(100) * 100);
+            page.buffer().put(offset + 20,
+                              STATUSES[random.nextInt(STATUSES.length)]);
+        }
+    }
+
+    private static void run(String fileName, DBFile.Mode mode, int numPages,
+                            int numPins, int poolSize, boolean report)
+        throws IOException
+    {
+        int[] stored = new int[numPages];
+        DBFile file = DBFile.open(fileName, mode);
+        try
+        {
+            for (int i = 0; i < numPages; i++)
+                stored[i] = file instanceof CompressedDBFile ?
+                    ((CompressedDBFile)file).getStoredLength(i) :
+                    Page.PAGESIZE;
+        }
+        finally
+        {
+            file.close();
+        }
+
+        BufferManager bufMgr = new BufferManager(poolSize);
+        bufMgr.setFileMode(fileName, mode);
+        Random random = new Random(7);
+        long misses = 0;
+        long bytesRead = 0;
+        try
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < numPins; i++)
+            {
+                int pageId = random.nextInt(numPages);
+                if (bufMgr.findFrame(pageId, fileName) < 0)
+                {
+                    misses++;
+                    bytesRead += stored[pageId];
+                }
+                bufMgr.pinPage(pageId, fileName, false);
+                bufMgr.unpinPage(pageId, fileName, false);
+            }
+            long elapsed = System.nanoTime() - start;
+
+            if (report)
+                System.out.printf("%-10s %6.1f bytes/miss, %5.1f%% misses, "
+                                  + "pin+unpin %7.1f ns%n",
+                                  mode,
+                                  misses == 0 ? 0.0 : (double)bytesRead / misses,
+                                  100.0 * misses / numPins,
+                                  (double)elapsed / numPins);
+        }
+        finally
+        {
+            bufMgr.close();
+        }
+    }
+}
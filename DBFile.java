@@ -1,12 +1,25 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Low level database file. This abstraction allows the user to treat
- * a database as a collection of pages.
+ * a database as a collection of pages. Page reads and writes may be
+ * issued from several threads at once; allocation and deallocation
+ * are serialized. A database has a fixed number of pages unless
+ * auto-extension is turned on; see setAutoExtend.
+ *
+ * Each database has its own page size, chosen when it is created and
+ * recorded in a header at the start of the map file. Databases created
+ * before the header existed have no header and Page.PAGESIZE pages.
  * @author Dave Musicant, with considerable material reused from the
  * UW-Madison Minibase project
  */
-public class DBFile
+public class DBFile implements Closeable
 {
     public static class NonPositiveRunSizeException
         extends RuntimeException {};
@@ -15,45 +28,173 @@ public class DBFile
         extends RuntimeException {};
     public static class EmptyFileException extends RuntimeException {};
     public static class PageNotAllocatedException extends RuntimeException {};
+    public static class PageSizeMismatchException extends RuntimeException {};
+    public static class BadFileHeaderException extends RuntimeException {};
+
+    /**
+     * How a database's pages are accessed once it is open.
+     */
+    public static enum Mode
+    {
+        /** Positional reads and writes on a FileChannel. */
+        CHANNEL,
+        /** The data and map files are memory-mapped; see MappedDBFile. */
+        MAPPED,
+        /** Pages are stored compressed; see CompressedDBFile. */
+        COMPRESSED,
+        /** The data file bypasses the OS page cache; see
+         * DirectDBFile. */
+        DIRECT
+    }
+
+    /**
+     * How an auto-extending database grows when it runs out of pages.
+     */
+    public static enum Growth
+    {
+        /** By the configured number of pages each time. */
+        FIXED,
+        /** By half its current size, and at least the configured
+         * number of pages. */
+        GEOMETRIC
+    }
 
     private String dataFileName;
     private String mapFileName;
-    private int numPages;
+    // Grows if auto-extension is on; read without the lock.
+    private volatile int numPages;
+
+    private int pageSize = Page.PAGESIZE;
+    // Bytes of header before the first byte of the space map; 0 for a
+    // database created without a header.
+    private int mapHeaderLength;
+    private static final int HEADER_MAGIC = 0x44424648;     // "DBFH"
+    private static final int HEADER_VERSION = 1;
+    private static final int HEADER_LENGTH = 16;
+
+    // Auto-extension settings; see setAutoExtend. Guarded by this.
+    private int growthChunk;
+    private Growth growth;
+    private boolean preallocateGrowth;
+    // End of the pages claimed for growth so far. Above numPages while
+    // a background extension is preparing pages.
+    private int reservedEnd;
+    private boolean extending;
+    // Prepares preallocated extensions ahead of need.
+    private static final ExecutorService EXTENDER =
+        Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "DBFileExtender");
+            t.setDaemon(true);
+            return t;
+        });
+
+    // Channels are opened on first use and kept open until close(), so
+    // that page I/O does not pay for an open/close on every call.
+    private volatile FileChannel dataChannel;
+    private volatile FileChannel mapChannel;
+    // The space map, read in on first use; see SpaceMap. Changes are
+    // written back to the map file in batches, and by force and close.
+    private volatile SpaceMap spaceMap;
+    private static final int MAP_WRITEBACK_BATCH = 4096;
+    // Largest buffer used to preallocate a data file.
+    private static final int PREALLOCATE_CHUNK = 1 << 20;
+
+    // Gathering writes and scattering reads go through the channel
+    // position, so they are serialized; positional reads and writes
+    // are unaffected.
+    private final Object gatherLock = new Object();
     
     /**
      * Creates a database with the specified number of pages. The
-     * number of pages in the database can never be increased.
+     * number of pages only grows if auto-extension is turned on. The
+     * data file is created sparse, so creation takes the same time
+     * whatever the size; pages never written read back as zeros.
      * @param name name to be given to database.
      * @param numPages maximum number of pages in database.
      * @throws IOException passed through from underlying filesystem.
      */
     public DBFile(String name, int numPages) throws IOException
     {
+        this(name, numPages, false);
+    }
+
+    /**
+     * Creates a database with the specified number of pages,
+     * optionally reserving disk space for all of them up front.
+     * Preallocating costs a write of the whole file at creation, in
+     * bounded chunks, but means that page writes can never fail for
+     * lack of space and that the file is laid out contiguously where
+     * the filesystem allows.
+     * @param name name to be given to database.
+     * @param numPages maximum number of pages in database.
+     * @param preallocate if true, write zeros over the whole data file
+     * instead of leaving it sparse.
+     * @throws IOException passed through from underlying filesystem.
+     */
+    public DBFile(String name, int numPages, boolean preallocate)
+        throws IOException
+    {
+        this(name, numPages, Page.PAGESIZE, preallocate);
+    }
+
+    /**
+     * Creates a database with the specified number and size of pages.
+     * Larger pages mean fewer I/O operations and page table entries
+     * for the same data; a page size that is a multiple of the
+     * filesystem block size suits DirectDBFile best.
+     * @param name name to be given to database.
+     * @param numPages maximum number of pages in database.
+     * @param pageSize the page size in bytes; see Page.isValidSize.
+     * @param preallocate if true, write zeros over the whole data file
+     * instead of leaving it sparse.
+     * @throws IOException passed through from underlying filesystem.
+     */
+    public DBFile(String name, int numPages, int pageSize,
+                  boolean preallocate)
+        throws IOException
+    {
+        if (!Page.isValidSize(pageSize))
+            throw new IllegalArgumentException("page size " + pageSize);
+        this.pageSize = pageSize;
+
         // If numPages is too small, just create it with at least two pages
         if (numPages < 2)
             numPages = 2;
 
-        // Create the file
+        // Create the file, discarding the contents of any old one so
+        // that every page reads as zeros.
         dataFileName = name;
+        long length = (long)numPages * pageSize;
         RandomAccessFile dataFile = new RandomAccessFile(dataFileName,"rw");
+        try
+        {
+            dataFile.setLength(0);
+            dataFile.setLength(length);
+            if (preallocate)
+                preallocate(dataFile.getChannel(), 0, length);
+        }
+        finally
+        {
+            dataFile.close();
+        }
 
-        // Make the file num_pages pages long.
-        dataFile.setLength(numPages * Page.PAGESIZE);
-        byte[] zzeros = new byte[numPages * Page.PAGESIZE];
-        dataFile.write(zzeros);
-        dataFile.close();
-
-        // Create a separate space map for each file.
+        // Create a separate space map for each file, with one byte for
+        // each page in the data file, all zero (free), after the header.
         mapFileName = name + ".map";
+        mapHeaderLength = HEADER_LENGTH;
         RandomAccessFile mapFile = new RandomAccessFile(mapFileName,"rw");
-
-        // Allocate one byte for each page in the data file.
-        mapFile.setLength(numPages); 
-
-        // Fill in map pages with zeros.
-        byte[] zeros = new byte[numPages];
-        mapFile.write(zeros);
-        mapFile.close();
+        try
+        {
+            mapFile.setLength(0);
+            mapFile.writeInt(HEADER_MAGIC);
+            mapFile.writeInt(HEADER_VERSION);
+            mapFile.writeInt(pageSize);
+            mapFile.setLength(HEADER_LENGTH + (long)numPages);
+        }
+        finally
+        {
+            mapFile.close();
+        }
 
         this.numPages = numPages;
     }
@@ -70,14 +211,71 @@ public class DBFile
         if ((new File(dataFileName)).exists())
         {
             mapFileName = name + ".map";
-            RandomAccessFile mapFile = new RandomAccessFile(mapFileName,"rw");
-            numPages = (int)(mapFile.length());
-            mapFile.close();
+            numPages = (int)(readHeader() - mapHeaderLength);
+            if ((new File(dataFileName)).length() % pageSize != 0)
+                throw new BadFileHeaderException();
         }
         else
             numPages = 0;
     }
 
+    /**
+     * Reads and checks the map file header, if there is one, and sets
+     * the page size from it.
+     * @return the length of the map file.
+     */
+    private long readHeader() throws IOException
+    {
+        RandomAccessFile mapFile = new RandomAccessFile(mapFileName,"r");
+        try
+        {
+            long length = mapFile.length();
+            // A map without a header holds only zeros and ones, so it
+            // can never start with the magic number.
+            if (length < HEADER_LENGTH || mapFile.readInt() != HEADER_MAGIC)
+                return length;
+            if (mapFile.readInt() != HEADER_VERSION)
+                throw new BadFileHeaderException();
+            int size = mapFile.readInt();
+            if (!Page.isValidSize(size))
+                throw new BadFileHeaderException();
+            pageSize = size;
+            mapHeaderLength = HEADER_LENGTH;
+            return length;
+        }
+        finally
+        {
+            mapFile.close();
+        }
+    }
+
+    /**
+     * Opens the database with the given name using the given access
+     * mode. A database that already holds compressed pages is opened
+     * as a CompressedDBFile whatever the mode, since its pages cannot
+     * be read any other way.
+     * @param name name of the database.
+     * @param mode how pages are to be accessed.
+     * @return the open database.
+     * @throws IOException passed through from underlying file system.
+     */
+    public static DBFile open(String name, Mode mode) throws IOException
+    {
+        if (CompressedDBFile.isCompressed(name))
+            return new CompressedDBFile(name);
+        switch (mode)
+        {
+        case MAPPED:
+            return new MappedDBFile(name);
+        case COMPRESSED:
+            return new CompressedDBFile(name);
+        case DIRECT:
+            return new DirectDBFile(name);
+        default:
+            return new DBFile(name);
+        }
+    }
+
     /**
      * Erases the database entirely from the filesystem. Dangerous to
      * do if still have a DBFile object that refers to this file. 
@@ -90,6 +288,7 @@ public class DBFile
         success = (new File(name)).delete();
         if (success)
             success = (new File(name + ".map")).delete();
+        CompressedDBFile.eraseCompressed(name);
         return success;
     }
 
@@ -102,51 +301,167 @@ public class DBFile
      * @throws FileFullException if there are not enough free pages.
      * @throws IOException passed through from underlying file system.
      */
-    public int allocatePages(int runSize) throws IOException
+    public synchronized int allocatePages(int runSize) throws IOException
     {
         if (runSize <= 0)
             throw new NonPositiveRunSizeException();
 
-        // Load the space map into memory to look for runs of the
-        // necessary size. Technically, should do this a page at a
-        // time (since might not have enough memory). Going with a
-        // simpler approach here for expediency.
-        RandomAccessFile mapFile = new RandomAccessFile(mapFileName,"rw");
-        mapFile.seek(0);
-        byte[] map = new byte[numPages];
-        mapFile.readFully(map);
-
-        // Loop over run starting positions
-        for (int i=0; i < mapFile.length() - (runSize-1); i++)
+        SpaceMap map = spaceMap();
+        int start = map.allocate(runSize);
+        if (start < 0 && growthChunk > 0)
         {
-            // Loop over entire possible run: give up if any spot in
-            // the possible run already has a 1 (page is taken).
-            int currentRunSize = 0;
-            for (int j=i; j < i + runSize; j++)
-            {
-                if (map[j] == 1)
-                    break;
-                else
-                    currentRunSize++;
-            }
+            // The background extension, if any, has not kept up. Grow
+            // past whatever it is preparing, sparse, which is cheap.
+            extend(nextGrowth(runSize), false);
+            start = map.allocate(runSize);
+        }
+        if (start < 0)
+            throw new FileFullException();
+        if (map.pendingChanges() >= MAP_WRITEBACK_BATCH)
+            writeSpaceMap();
+        if (preallocateGrowth && !extending
+            && map.getNumFree() < nextGrowth(1) / 2)
+            extendInBackground();
+        return start;
+    }
 
-            // Found a run.
-            if (currentRunSize == runSize)
-            {
-                // Indicate pages are now used
-                byte[] mapUpdate = new byte[runSize];
-                for (int j=0; j < runSize; j++)
-                    mapUpdate[j] = 1;
-                mapFile.seek(i);
-                mapFile.write(mapUpdate);
-                mapFile.close();
-                return i;
+    /**
+     * Turns auto-extension on or off. With it on, allocatePages grows
+     * the database rather than throw FileFullException. Growing a
+     * sparse file only changes its length, so it is done on the spot.
+     * If preallocate is set, new pages are instead written out by a
+     * background thread once free space runs low, so that an
+     * allocation seldom has to wait; if one does run out first, it
+     * grows the file sparse beyond the pages being prepared.
+     * @param chunkPages the number of pages to grow by, or the minimum
+     * for GEOMETRIC; 0 turns auto-extension off.
+     * @param growth how the growth step is chosen.
+     * @param preallocate whether new pages are written out ahead of
+     * use, as by DBFile(String, int, boolean).
+     */
+    public synchronized void setAutoExtend(int chunkPages, Growth growth,
+                                           boolean preallocate)
+    {
+        if (chunkPages < 0)
+            throw new IllegalArgumentException("chunkPages " + chunkPages);
+        this.growthChunk = chunkPages;
+        this.growth = growth;
+        this.preallocateGrowth = chunkPages > 0 && preallocate;
+    }
+
+    /**
+     * Returns the number of pages the next extension adds.
+     */
+    private int nextGrowth(int runSize)
+    {
+        long step = growthChunk;
+        if (growth == Growth.GEOMETRIC)
+            step = Math.max(step, reservedEnd() / 2);
+        step = Math.max(step, runSize);
+        return (int)Math.min(step, Integer.MAX_VALUE - reservedEnd());
+    }
+
+    private int reservedEnd()
+    {
+        return Math.max(reservedEnd, numPages);
+    }
+
+    /**
+     * Grows the database by the given number of pages, after any pages
+     * already claimed by a background extension, and publishes them.
+     * Called with the lock held.
+     */
+    private void extend(int pages, boolean zeroFill) throws IOException
+    {
+        if (pages <= 0)
+            throw new FileFullException();
+        int start = reservedEnd();
+        int end = start + pages;
+        reservedEnd = end;
+        if (zeroFill)
+            preallocate(start, end);
+        publish(start, end);
+    }
+
+    /**
+     * Claims the next extension and prepares it on the extender
+     * thread, without holding the lock while zeros are written.
+     * Called with the lock held.
+     */
+    private void extendInBackground()
+    {
+        int start = reservedEnd();
+        int end = start + nextGrowth(1);
+        if (end <= start)
+            return;
+        reservedEnd = end;
+        extending = true;
+        EXTENDER.execute(() -> {
+            try {
+                preallocate(start, end);
+                synchronized (DBFile.this) {
+                    publish(start, end);
+                }
             }
+            catch (IOException | RuntimeException e) {
+                // Left unpublished; allocation grows past it instead.
+            }
+            finally {
+                synchronized (DBFile.this) {
+                    extending = false;
+                    DBFile.this.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes zeros over pages start to end-1 of the data file, through
+     * a channel of its own so that closing this object does not
+     * interfere.
+     */
+    private void preallocate(int start, int end) throws IOException
+    {
+        FileChannel channel = FileChannel.open(Paths.get(dataFileName),
+                                               StandardOpenOption.WRITE);
+        try {
+            preallocate(channel, (long)start * pageSize,
+                        (long)end * pageSize);
         }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Makes pages start to end-1 part of the database and free.
+     * Called with the lock held.
+     */
+    private void publish(int start, int end) throws IOException
+    {
+        extendFile(dataFileName, (long)end * pageSize);
+        extendFile(mapFileName, mapHeaderLength + (long)end);
+        SpaceMap map = spaceMap();
+        map.extend(end);
+        map.addFree(start, end - start);
+        if (end > numPages)
+            numPages = end;
+    }
 
-        // If made it to here, then no run was found.
-        mapFile.close();
-        throw new FileFullException();
+    /**
+     * Lengthens a file, leaving it alone if it is already long enough.
+     */
+    private static void extendFile(String fileName, long length)
+        throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+        try {
+            if (file.length() < length)
+                file.setLength(length);
+        }
+        finally {
+            file.close();
+        }
     }
 
     /**
@@ -161,7 +476,7 @@ public class DBFile
      * @throws BadPageNumberException if startPageNum is illegal.
      * @throws IOException passed through from underlying file system.
      */
-    public void deallocatePages(int startPageNum, int runSize)
+    public synchronized void deallocatePages(int startPageNum, int runSize)
         throws IOException
     {
         if (runSize <= 0)
@@ -171,13 +486,10 @@ public class DBFile
             startPageNum + runSize - 1 > numPages-1)
             throw new BadPageNumberException();
 
-        byte[] mapUpdate = new byte[runSize];
-        for (int i=0; i < runSize; i++)
-            mapUpdate[i] = 0;
-        RandomAccessFile mapFile = new RandomAccessFile(mapFileName,"rw");
-        mapFile.seek(startPageNum);
-        mapFile.write(mapUpdate);
-        mapFile.close();
+        SpaceMap map = spaceMap();
+        map.free(startPageNum, runSize);
+        if (map.pendingChanges() >= MAP_WRITEBACK_BATCH)
+            writeSpaceMap();
     }
 
     /**
@@ -188,26 +500,56 @@ public class DBFile
      * @throws BadPageNumberException if pageNum is not in the file.
      * @throws IOException passed through from underlying file system.
      * @throws PageNotAllocatedException if pageNum is not allocaated.
+     * @throws PageSizeMismatchException if the page is the wrong size.
      */
     public void readPage(int pageNum, Page page) throws IOException
     {
-        if (pageNum < 0 || pageNum > numPages-1)
-            throw new BadPageNumberException();
-
-        // Make sure that page has actually been allocated
-        RandomAccessFile mapFile = new RandomAccessFile(mapFileName,"r");
-        mapFile.seek(pageNum);
-        byte[] map = new byte[1];
-        mapFile.readFully(map);
-        if (map[0] == 0)
-            throw new PageNotAllocatedException();
-        mapFile.close();
+        checkAllocated(pageNum);
+        checkPageSize(page);
 
         // Read the actual page from the file
-        RandomAccessFile dataFile = new RandomAccessFile(dataFileName,"r");
-        dataFile.seek(pageNum * Page.PAGESIZE);
-        dataFile.readFully(page.data);
-        dataFile.close();
+        readFully(dataChannel(), page.ioBuffer(), (long)pageNum * pageSize);
+    }
+
+    /**
+     * Reads a run of consecutive pages from disk with a single
+     * scattering read.
+     * @param firstPageNum the page number to be read into pages[0].
+     * @param pages already allocated Page objects, in page order.
+     * @param count the number of pages to read, from pages[0].
+     * @throws BadPageNumberException if a page is not in the file.
+     * @throws IOException passed through from underlying file system.
+     * @throws PageNotAllocatedException if a page is not allocaated.
+     * @throws PageSizeMismatchException if a page is the wrong size.
+     */
+    public void readPages(int firstPageNum, Page[] pages, int count)
+        throws IOException
+    {
+        if (count <= 0)
+            throw new NonPositiveRunSizeException();
+
+        checkAllocated(firstPageNum, count);
+
+        ByteBuffer[] buffers = new ByteBuffer[count];
+        long remaining = 0;
+        for (int i = 0; i < count; i++)
+        {
+            checkPageSize(pages[i]);
+            buffers[i] = pages[i].ioBuffer();
+            remaining += buffers[i].remaining();
+        }
+        FileChannel channel = dataChannel();
+        synchronized (gatherLock)
+        {
+            channel.position((long)firstPageNum * pageSize);
+            while (remaining > 0)
+            {
+                long n = channel.read(buffers);
+                if (n < 0)
+                    throw new EOFException();
+                remaining -= n;
+            }
+        }
     }
 
     /**
@@ -218,28 +560,318 @@ public class DBFile
      * @throws BadPageNumberException if pageNum is not in the file.
      * @throws IOException passed through from underlying file system.
      * @throws PageNotAllocatedException if pageNum is not allocaated.
+     * @throws PageSizeMismatchException if the page is the wrong size.
      */
     public void writePage(int pageNum, Page page) throws IOException
     {
         if (numPages == 0)
             throw new EmptyFileException();
 
+        checkAllocated(pageNum);
+        checkPageSize(page);
+
+        writeFully(dataChannel(), page.ioBuffer(), (long)pageNum * pageSize);
+    }
+
+    /**
+     * Writes a run of consecutive pages to disk with a single
+     * gathering write.
+     * @param firstPageNum the page number of pages[0].
+     * @param pages Page objects with the data to be written, in page
+     * order.
+     * @param count the number of pages to write, from pages[0].
+     * @throws EmptyFileException() if the file has no pages within it.
+     * @throws BadPageNumberException if a page is not in the file.
+     * @throws IOException passed through from underlying file system.
+     * @throws PageNotAllocatedException if a page is not allocaated.
+     * @throws PageSizeMismatchException if a page is the wrong size.
+     */
+    public void writePages(int firstPageNum, Page[] pages, int count)
+        throws IOException
+    {
+        if (numPages == 0)
+            throw new EmptyFileException();
+        if (count <= 0)
+            throw new NonPositiveRunSizeException();
+
+        checkAllocated(firstPageNum, count);
+
+        ByteBuffer[] buffers = new ByteBuffer[count];
+        long remaining = 0;
+        for (int i = 0; i < count; i++)
+        {
+            checkPageSize(pages[i]);
+            buffers[i] = pages[i].ioBuffer();
+            remaining += buffers[i].remaining();
+        }
+        FileChannel channel = dataChannel();
+        synchronized (gatherLock)
+        {
+            channel.position((long)firstPageNum * pageSize);
+            while (remaining > 0)
+                remaining -= channel.write(buffers);
+        }
+    }
+
+    /**
+     * Forces pages written so far out to the storage device.
+     * @throws IOException passed through from underlying file system.
+     */
+    public void force() throws IOException
+    {
+        writeSpaceMap();
+        dataChannel().force(false);
+        mapChannel().force(false);
+    }
+
+    /**
+     * Closes the channels held open by this database. The object may
+     * still be used afterwards; the channels are simply reopened on
+     * the next page operation. Waits for any background extension to
+     * finish first.
+     * @throws IOException passed through from underlying file system.
+     */
+    public synchronized void close() throws IOException
+    {
+        // Let a background extension finish, so that it does not touch
+        // the files after they are closed or erased.
+        boolean interrupted = false;
+        while (extending)
+        {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        try {
+            writeSpaceMap();
+            if (dataChannel != null)
+                dataChannel.close();
+        }
+        finally {
+            dataChannel = null;
+            if (mapChannel != null)
+                mapChannel.close();
+            mapChannel = null;
+        }
+    }
+
+    /**
+     * Returns the number of pages in the database.
+     * @return the number of pages.
+     */
+    public int getNumPages()
+    {
+        return numPages;
+    }
+
+    /**
+     * Returns the size of the database's pages. Pages passed to reads
+     * and writes must be of this size.
+     * @return the page size in bytes.
+     */
+    public int getPageSize()
+    {
+        return pageSize;
+    }
+
+    /**
+     * Checks that a page is the size of this database's pages.
+     * @param page a page passed to a read or write.
+     * @throws PageSizeMismatchException if it is not.
+     */
+    protected void checkPageSize(Page page)
+    {
+        if (page.size() != pageSize)
+            throw new PageSizeMismatchException();
+    }
+
+    /**
+     * Returns the name of the data file.
+     * @return the data file name.
+     */
+    protected String getDataFileName()
+    {
+        return dataFileName;
+    }
+
+    /**
+     * Returns the name of the space map file.
+     * @return the map file name.
+     */
+    protected String getMapFileName()
+    {
+        return mapFileName;
+    }
+
+    /**
+     * Makes sure that a page is in the file and has been allocated.
+     * @param pageNum the page number to be checked.
+     * @throws BadPageNumberException if pageNum is not in the file.
+     * @throws PageNotAllocatedException if pageNum is not allocaated.
+     * @throws IOException passed through from underlying file system.
+     */
+    protected void checkAllocated(int pageNum) throws IOException
+    {
         if (pageNum < 0 || pageNum > numPages-1)
             throw new BadPageNumberException();
 
         // Make sure that page has actually been allocated
-        RandomAccessFile mapFile = new RandomAccessFile(mapFileName,"r");
-        mapFile.seek(pageNum);
-        byte[] map = new byte[1];
-        mapFile.readFully(map);
-        if (map[0] == 0)
+        if (!isAllocated(pageNum))
             throw new PageNotAllocatedException();
-        mapFile.close();
+    }
 
-        RandomAccessFile dataFile = new RandomAccessFile(dataFileName,"rw");
-        dataFile.seek(pageNum * Page.PAGESIZE);
-        dataFile.write(page.data);
-        dataFile.close();
+    /**
+     * Makes sure that a run of pages is in the file and has been
+     * allocated.
+     * @param firstPageNum the first page number to be checked.
+     * @param count the number of pages to be checked.
+     * @throws BadPageNumberException if a page is not in the file.
+     * @throws PageNotAllocatedException if a page is not allocaated.
+     * @throws IOException passed through from underlying file system.
+     */
+    protected void checkAllocated(int firstPageNum, int count)
+        throws IOException
+    {
+        if (firstPageNum < 0 || count > numPages - firstPageNum)
+            throw new BadPageNumberException();
+
+        if (!spaceMap().isAllocated(firstPageNum, count))
+            throw new PageNotAllocatedException();
+    }
+
+    /**
+     * Checks the space map to see whether a page is allocated.
+     * @param pageNum the page number to be checked.
+     * @return true if the page is allocated.
+     * @throws IOException passed through from underlying file system.
+     */
+    protected boolean isAllocated(int pageNum) throws IOException
+    {
+        return spaceMap().isAllocated(pageNum);
+    }
+
+    /**
+     * Returns the in-memory space map, reading the map file the first
+     * time.
+     * @return the space map.
+     * @throws IOException passed through from underlying file system.
+     */
+    protected SpaceMap spaceMap() throws IOException
+    {
+        SpaceMap map = spaceMap;
+        return map != null ? map : readSpaceMap();
+    }
+
+    private synchronized SpaceMap readSpaceMap() throws IOException
+    {
+        if (spaceMap == null)
+        {
+            byte[] map = new byte[numPages];
+            readFully(mapChannel(), ByteBuffer.wrap(map), mapHeaderLength);
+            spaceMap = new SpaceMap(map);
+        }
+        return spaceMap;
+    }
+
+    /**
+     * Writes the changed part of the space map back to the map file.
+     * The write is not forced to disk.
+     * @throws IOException passed through from underlying file system.
+     */
+    protected synchronized void writeSpaceMap() throws IOException
+    {
+        SpaceMap map = spaceMap;
+        if (map == null || map.pendingChanges() == 0)
+            return;
+        writeFully(mapChannel(), ByteBuffer.wrap(map.changedBytes()),
+                   mapHeaderLength + (long)map.dirtyFrom());
+        map.clean();
+    }
+
+    protected FileChannel dataChannel() throws IOException
+    {
+        FileChannel channel = dataChannel;
+        return channel != null ? channel : openData();
+    }
+
+    protected FileChannel mapChannel() throws IOException
+    {
+        FileChannel channel = mapChannel;
+        return channel != null ? channel : openMap();
+    }
+
+    private synchronized FileChannel openData() throws IOException
+    {
+        if (dataChannel == null)
+            dataChannel = FileChannel.open(Paths.get(dataFileName),
+                                           StandardOpenOption.READ,
+                                           StandardOpenOption.WRITE);
+        return dataChannel;
+    }
+
+    private synchronized FileChannel openMap() throws IOException
+    {
+        if (mapChannel == null)
+            mapChannel = FileChannel.open(Paths.get(mapFileName),
+                                          StandardOpenOption.READ,
+                                          StandardOpenOption.WRITE);
+        return mapChannel;
+    }
+
+    /**
+     * Writes zeros over part of a file in chunks of at most
+     * PREALLOCATE_CHUNK bytes, so that the filesystem assigns blocks to
+     * all of it.
+     */
+    private static void preallocate(FileChannel channel, long from,
+                                    long length)
+        throws IOException
+    {
+        if (length <= from)
+            return;
+        ByteBuffer zeros = ByteBuffer.allocateDirect(
+            (int)Math.min(length - from, PREALLOCATE_CHUNK));
+        for (long position = from; position < length; )
+        {
+            zeros.clear();
+            if (length - position < zeros.capacity())
+                zeros.limit((int)(length - position));
+            int n = zeros.remaining();
+            writeFully(channel, zeros, position);
+            position += n;
+        }
+    }
+
+    /**
+     * Positional read that keeps going until the buffer is full. The
+     * channel position is left untouched.
+     */
+    protected static void readFully(FileChannel channel, ByteBuffer buf,
+                                    long position) throws IOException
+    {
+        while (buf.hasRemaining())
+        {
+            int n = channel.read(buf, position);
+            if (n < 0)
+                throw new EOFException();
+            position += n;
+        }
+    }
+
+    /**
+     * Positional write of the whole buffer. The channel position is
+     * left untouched.
+     */
+    protected static void writeFully(FileChannel channel, ByteBuffer buf,
+                                     long position) throws IOException
+    {
+        while (buf.hasRemaining())
+            position += channel.write(buf, position);
     }
 
     // Stub for testing.
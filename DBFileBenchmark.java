@@ -0,0 +1,106 @@
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Compares page read and write throughput of the channel-based DBFile
+ * with the memory-mapped MappedDBFile, for a range of page sizes. Run
+ * with an optional page count, operation count and comma-separated
+ * list of page sizes:
+ *
+ *     java DBFileBenchmark [numPages] [numOps] [pageSizes]
+ *
+ * The page count is in default-sized pages; with larger pages the file
+ * keeps the same size and has fewer of them. The page sizes default to
+ * 1K, 4K, 8K and 16K.
+ *
+ * The file is written once before timing, so reads are served from
+ * the OS page cache in both modes; the difference measured is the cost
+ * of the read/write path itself.
+ * @author Yawen Chen and Tao Liu
+ */
+public class DBFileBenchmark
+{
+    public static final String FILENAME = "__benchmark";
+
+    public static void main(String[] args) throws IOException
+    {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 16384;
+        int numOps = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        String[] pageSizes = (args.length > 2 ? args[2]
+                              : "1024,4096,8192,16384").split(",");
+
+        for (String pageSize : pageSizes)
+            run(Integer.parseInt(pageSize.trim()), numPages, numOps);
+    }
+
+    private static void run(int pageSize, int numPages, int numOps)
+        throws IOException
+    {
+        numPages = Math.max(1, (int)((long)numPages * Page.PAGESIZE
+                                     / pageSize));
+        DBFile.erase(FILENAME);
+        DBFile created = new DBFile(FILENAME, numPages, pageSize, false);
+        created.allocatePages(numPages);
+        Page page = new Page(pageSize);
+        for (int i = 0; i < numPages; i++)
+            created.writePage(i, page);
+        created.close();
+
+        try
+        {
+            for (int round = 0; round < 2; round++)
+            {
+                // The first round warms up the JIT.
+                // COMPRESSED would convert the file for the other
+                // modes; see CompressionBenchmark.
+                for (DBFile.Mode mode : DBFile.Mode.values())
+                    if (mode != DBFile.Mode.COMPRESSED)
+                        run(mode, pageSize, numPages, numOps, round > 0);
+            }
+        }
+        finally
+        {
+            DBFile.erase(FILENAME);
+        }
+    }
+
+    private static void run(DBFile.Mode mode, int pageSize, int numPages,
+                            int numOps, boolean report) throws IOException
+    {
+        DBFile file = DBFile.open(FILENAME, mode);
+        Page page = new Page(pageSize);
+        Random random = new Random(42);
+        try
+        {
+            long start = System.nanoTime();
+            for (int i = 0; i < numOps; i++)
+                file.readPage(random.nextInt(numPages), page);
+            long randomRead = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < numOps; i++)
+                file.readPage(i % numPages, page);
+            long seqRead = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < numOps; i++)
+                file.writePage(random.nextInt(numPages), page);
+            file.force();
+            long randomWrite = System.nanoTime() - start;
+
+            if (report)
+                System.out.printf("%-8s %5d-byte pages: "
+                                  + "random read %7.1f ns/page, "
+                                  + "sequential read %7.1f ns/page, "
+                                  + "random write+force %7.1f ns/page%n",
+                                  mode, pageSize,
+                                  (double)randomRead / numOps,
+                                  (double)seqRead / numOps,
+                                  (double)randomWrite / numOps);
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+}
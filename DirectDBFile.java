@@ -0,0 +1,364 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import com.sun.nio.file.ExtendedOpenOption;
+
+/**
+ * Database file whose data file is opened for direct I/O, bypassing
+ * the OS page cache, so that the buffer pool is the only copy of a
+ * page in memory. Best paired with a large, off-heap buffer pool.
+ *
+ * Direct I/O moves whole filesystem blocks between the device and
+ * block-aligned memory. Pages are therefore read and written through
+ * an aligned bounce buffer per thread. When a page is smaller than a
+ * block, writing it means reading the rest of the block first; writes
+ * that share a block are serialized so that neither loses the other's
+ * pages. Pages that are a multiple of the block size need no such
+ * read.
+ *
+ * If the filesystem does not support direct I/O, the data file is
+ * opened normally instead and the class behaves like DBFile; see
+ * isDirect.
+ * @author Yawen Chen and Tao Liu
+ */
+public class DirectDBFile extends DBFile
+{
+    // Size of each thread's bounce buffer, and so the largest span of
+    // blocks moved in one system call.
+    private static final int BOUNCE_BYTES = 1 << 18;
+    // Locks serializing writes that share a block, by block number.
+    private static final int STRIPES = 64;
+
+    private static final ThreadLocal<ByteBuffer> BOUNCE =
+        new ThreadLocal<ByteBuffer>();
+
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private volatile FileChannel directChannel;
+    // Cleared if direct I/O turns out not to be supported.
+    private volatile boolean direct = true;
+    private int blockSize;
+
+    /**
+     * Opens the database with the given name.
+     * @param name name of the database.
+     * @throws IOException passed through from underlying file system.
+     */
+    public DirectDBFile(String name) throws IOException
+    {
+        super(name);
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new ReentrantLock();
+    }
+
+    /**
+     * Returns true if the data file is accessed with direct I/O, false
+     * if the filesystem refused it and ordinary I/O is used. Opens the
+     * data file if it is not open yet.
+     * @return true if the OS page cache is bypassed.
+     * @throws IOException passed through from underlying file system.
+     */
+    public boolean isDirect() throws IOException
+    {
+        return directChannel() != null;
+    }
+
+    /**
+     * Returns the block size direct I/O is done in.
+     * @return the block size in bytes, or 0 if direct I/O is not used.
+     * @throws IOException passed through from underlying file system.
+     */
+    public int getBlockSize() throws IOException
+    {
+        return directChannel() != null ? blockSize : 0;
+    }
+
+    @Override
+    public void readPage(int pageNum, Page page) throws IOException
+    {
+        if (directChannel() == null)
+        {
+            super.readPage(pageNum, page);
+            return;
+        }
+        checkAllocated(pageNum);
+        checkPageSize(page);
+        read(pageNum, new Page[] {page}, 1);
+    }
+
+    @Override
+    public void readPages(int firstPageNum, Page[] pages, int count)
+        throws IOException
+    {
+        if (directChannel() == null)
+        {
+            super.readPages(firstPageNum, pages, count);
+            return;
+        }
+        if (count <= 0)
+            throw new NonPositiveRunSizeException();
+        checkAllocated(firstPageNum, count);
+        for (int i = 0; i < count; i++)
+            checkPageSize(pages[i]);
+        read(firstPageNum, pages, count);
+    }
+
+    @Override
+    public void writePage(int pageNum, Page page) throws IOException
+    {
+        if (directChannel() == null)
+        {
+            super.writePage(pageNum, page);
+            return;
+        }
+        if (getNumPages() == 0)
+            throw new EmptyFileException();
+        checkAllocated(pageNum);
+        checkPageSize(page);
+        write(pageNum, new Page[] {page}, 1);
+    }
+
+    @Override
+    public void writePages(int firstPageNum, Page[] pages, int count)
+        throws IOException
+    {
+        if (directChannel() == null)
+        {
+            super.writePages(firstPageNum, pages, count);
+            return;
+        }
+        if (getNumPages() == 0)
+            throw new EmptyFileException();
+        if (count <= 0)
+            throw new NonPositiveRunSizeException();
+        checkAllocated(firstPageNum, count);
+        for (int i = 0; i < count; i++)
+            checkPageSize(pages[i]);
+        write(firstPageNum, pages, count);
+    }
+
+    @Override
+    public void force() throws IOException
+    {
+        FileChannel channel = directChannel();
+        if (channel == null)
+        {
+            super.force();
+            return;
+        }
+        // Direct writes skip the page cache, but not the device's own
+        // cache or the file's metadata.
+        writeSpaceMap();
+        channel.force(false);
+        mapChannel().force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        try {
+            if (directChannel != null)
+                directChannel.close();
+        }
+        finally {
+            directChannel = null;
+            super.close();
+        }
+    }
+
+    /**
+     * Reads a run of pages, a bounce buffer's worth at a time.
+     */
+    private void read(int firstPageNum, Page[] pages, int count)
+        throws IOException
+    {
+        int pageSize = getPageSize();
+        int perSpan = pagesPerSpan();
+        for (int done = 0; done < count; done += perSpan)
+        {
+            int n = Math.min(perSpan, count - done);
+            long from = (long)(firstPageNum + done) * pageSize;
+            long start = alignDown(from);
+            ByteBuffer bounce = bounce();
+            readBlocks(bounce, start, alignUp(from + (long)n * pageSize));
+            for (int i = 0; i < n; i++)
+                pages[done + i].buffer().put(0, bounce,
+                    (int)(from - start) + i * pageSize, pageSize);
+        }
+    }
+
+    /**
+     * Writes a run of pages, a bounce buffer's worth at a time. Blocks
+     * only partly covered by the run are read first and, if pages are
+     * smaller than blocks, the blocks are locked throughout.
+     */
+    private void write(int firstPageNum, Page[] pages, int count)
+        throws IOException
+    {
+        int pageSize = getPageSize();
+        int perSpan = pagesPerSpan();
+        for (int done = 0; done < count; done += perSpan)
+        {
+            int n = Math.min(perSpan, count - done);
+            long from = (long)(firstPageNum + done) * pageSize;
+            long to = from + (long)n * pageSize;
+            long start = alignDown(from);
+            long end = alignUp(to);
+            ByteBuffer bounce = bounce();
+            long locked = lockBlocks(start, end);
+            try {
+                if (start < from)
+                    readBlocks(bounce, start, start + blockSize);
+                if (end > to && (end - blockSize > start || start == from))
+                {
+                    bounce.clear();
+                    ByteBuffer tail = bounce.duplicate();
+                    tail.position((int)(end - blockSize - start));
+                    readBlocks(tail, end - blockSize, end);
+                }
+                bounce.clear();
+                for (int i = 0; i < n; i++)
+                    bounce.put((int)(from - start) + i * pageSize,
+                               pages[done + i].buffer(), 0, pageSize);
+                bounce.position(0).limit((int)(end - start));
+                writeFully(directChannel, bounce, start);
+            }
+            finally {
+                unlockBlocks(locked);
+            }
+        }
+    }
+
+    /**
+     * Fills a bounce buffer, from its position, with the blocks from
+     * start to end. Blocks past the end of the file read as zeros.
+     */
+    private void readBlocks(ByteBuffer bounce, long start, long end)
+        throws IOException
+    {
+        int base = bounce.position();
+        bounce.limit(base + (int)(end - start));
+        long position = start;
+        while (bounce.hasRemaining())
+        {
+            int n = directChannel.read(bounce, position);
+            if (n < 0)
+            {
+                while (bounce.hasRemaining())
+                    bounce.put((byte)0);
+                break;
+            }
+            position += n;
+        }
+        bounce.position(base);
+    }
+
+    /**
+     * Locks the stripes of the blocks from start to end, in stripe
+     * order so that writers cannot deadlock. Needed only when a block
+     * can hold parts of more than one write.
+     * @return a mask of the stripes locked.
+     */
+    private long lockBlocks(long start, long end)
+    {
+        if (getPageSize() % blockSize == 0)
+            return 0;
+        long mask = 0;
+        for (long block = start / blockSize; block < end / blockSize
+                 && mask != -1L; block++)
+            mask |= 1L << (block % STRIPES);
+        for (int s = 0; s < STRIPES; s++)
+            if ((mask & (1L << s)) != 0)
+                stripes[s].lock();
+        return mask;
+    }
+
+    private void unlockBlocks(long mask)
+    {
+        for (int s = STRIPES - 1; s >= 0; s--)
+            if ((mask & (1L << s)) != 0)
+                stripes[s].unlock();
+    }
+
+    private long alignDown(long position)
+    {
+        return position - position % blockSize;
+    }
+
+    private long alignUp(long position)
+    {
+        return alignDown(position + blockSize - 1);
+    }
+
+    /**
+     * Returns the most pages moved through a bounce buffer at once,
+     * allowing for a partial block at either end.
+     */
+    private int pagesPerSpan()
+    {
+        return Math.max(1, (bounceBytes() - 2 * blockSize) / getPageSize());
+    }
+
+    private int bounceBytes()
+    {
+        return Math.max(BOUNCE_BYTES, 2 * blockSize + getPageSize());
+    }
+
+    /**
+     * Returns this thread's bounce buffer, aligned to the block size,
+     * cleared.
+     */
+    private ByteBuffer bounce()
+    {
+        int bytes = bounceBytes();
+        ByteBuffer bounce = BOUNCE.get();
+        if (bounce == null || bounce.capacity() < bytes
+            || bounce.alignmentOffset(0, blockSize) != 0)
+        {
+            bounce = ByteBuffer.allocateDirect(bytes + blockSize)
+                .alignedSlice(blockSize);
+            BOUNCE.set(bounce);
+        }
+        bounce.clear();
+        return bounce;
+    }
+
+    /**
+     * Returns the direct channel onto the data file, or null if direct
+     * I/O is not supported there.
+     */
+    private FileChannel directChannel() throws IOException
+    {
+        FileChannel channel = directChannel;
+        return channel != null || !direct ? channel : openDirect();
+    }
+
+    private synchronized FileChannel openDirect() throws IOException
+    {
+        if (directChannel == null && direct)
+        {
+            Path path = Paths.get(getDataFileName());
+            try {
+                blockSize = (int)Files.getFileStore(path).getBlockSize();
+                directChannel = FileChannel.open(path,
+                                                 StandardOpenOption.READ,
+                                                 StandardOpenOption.WRITE,
+                                                 ExtendedOpenOption.DIRECT);
+            }
+            catch (UnsupportedOperationException e) {
+                direct = false;
+            }
+            catch (IOException e) {
+                // Typically EINVAL from a filesystem without O_DIRECT.
+                if (!Files.exists(path))
+                    throw e;
+                direct = false;
+            }
+        }
+        return directChannel;
+    }
+}
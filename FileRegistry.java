@@ -0,0 +1,390 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of open databases, owned by the buffer manager. Each
+ * database is opened once and its DBFile (and with it the channels
+ * onto the data and map files) is kept open across page operations.
+ * The number of open databases is bounded: when the registry is full,
+ * the least recently used database is closed to make room.
+ *
+ * Callers that may run concurrently with an eviction use acquire and
+ * release, so that a database is not closed while an operation on it
+ * is in flight; it is closed by the last release instead.
+ *
+ * Databases are opened and closed without the registry's lock, which
+ * guards only the maps. While a database is being opened its entry has
+ * no DBFile yet, and while it is being closed its entry stays in
+ * closing; anyone else wanting it waits for either to finish.
+ * @author Yawen Chen and Tao Liu
+ */
+public class FileRegistry implements Closeable
+{
+    /**
+     * Default number of databases kept open at once.
+     */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final int capacity;
+    // Access-ordered, so the eldest entry is the least recently used.
+    private final LinkedHashMap<String, Entry> open =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    // Evicted databases that are still in use, keyed by name. They are
+    // handed out again if reopened before the last user releases them,
+    // so that a database is never open twice at once.
+    private final HashMap<String, Entry> closing = new HashMap<String, Entry>();
+    private final HashMap<DBFile, Entry> entries = new HashMap<DBFile, Entry>();
+    // Access mode for databases that do not use DBFile.Mode.CHANNEL.
+    private final HashMap<String, DBFile.Mode> modes =
+        new HashMap<String, DBFile.Mode>();
+    // Auto-extension settings, applied whenever a database is opened.
+    private final HashMap<String, AutoExtend> autoExtends =
+        new HashMap<String, AutoExtend>();
+
+    private static class AutoExtend
+    {
+        private final int chunkPages;
+        private final DBFile.Growth growth;
+        private final boolean preallocate;
+
+        private AutoExtend(int chunkPages, DBFile.Growth growth,
+                           boolean preallocate)
+        {
+            this.chunkPages = chunkPages;
+            this.growth = growth;
+            this.preallocate = preallocate;
+        }
+
+        private void applyTo(DBFile dbFile)
+        {
+            dbFile.setAutoExtend(chunkPages, growth, preallocate);
+        }
+    }
+
+    private static class Entry
+    {
+        private final String name;
+        // Null while the database is being opened.
+        private DBFile dbFile;
+        private int users;
+        // Set once the database is being closed.
+        private boolean closed;
+
+        private Entry(String name)
+        {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Creates a registry holding at most DEFAULT_CAPACITY open
+     * databases.
+     */
+    public FileRegistry()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a registry with the specified bound.
+     * @param capacity the maximum number of databases kept open.
+     */
+    public FileRegistry(int capacity)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity " + capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the open database with the given name, opening it if
+     * necessary. Opening a database may close the least recently used
+     * one. The result must not be used concurrently with an eviction;
+     * use acquire for that.
+     * @param fileName the name of the database.
+     * @return the open database.
+     * @throws IOException passed through from underlying file system.
+     */
+    public DBFile get(String fileName) throws IOException
+    {
+        DBFile dbFile = open(fileName).dbFile;
+        release(dbFile);
+        return dbFile;
+    }
+
+    /**
+     * Returns the open database with the given name and marks it in
+     * use until the matching release.
+     * @param fileName the name of the database.
+     * @return the open database.
+     * @throws IOException passed through from underlying file system.
+     */
+    public DBFile acquire(String fileName) throws IOException
+    {
+        return open(fileName).dbFile;
+    }
+
+    /**
+     * Ends a use of a database begun with acquire. Closes the database
+     * if it was evicted while in use.
+     * @param dbFile the database returned by acquire.
+     * @throws IOException passed through from underlying file system.
+     */
+    public void release(DBFile dbFile) throws IOException
+    {
+        Entry entry;
+        synchronized (this)
+        {
+            entry = entries.get(dbFile);
+            if (--entry.users > 0 || closing.get(entry.name) != entry)
+                return;
+            entry.closed = true;
+        }
+        closeAll(Collections.singletonList(entry));
+    }
+
+    /**
+     * Selects how a database is accessed. If the database is open, it
+     * is closed and will be reopened in the new mode on next use.
+     * @param fileName the name of the database.
+     * @param mode the access mode.
+     * @throws IOException passed through from underlying file system.
+     */
+    public void setMode(String fileName, DBFile.Mode mode)
+        throws IOException
+    {
+        synchronized (this)
+        {
+            modes.put(fileName, mode);
+        }
+        close(fileName);
+    }
+
+    /**
+     * Turns auto-extension on or off for a database, now if it is open
+     * and whenever it is opened again. See DBFile.setAutoExtend.
+     * @param fileName the name of the database.
+     * @param chunkPages the number of pages to grow by; 0 turns
+     * auto-extension off.
+     * @param growth how the growth step is chosen.
+     * @param preallocate whether new pages are written out ahead of use.
+     */
+    public synchronized void setAutoExtend(String fileName, int chunkPages,
+                                           DBFile.Growth growth,
+                                           boolean preallocate)
+    {
+        AutoExtend settings = new AutoExtend(chunkPages, growth, preallocate);
+        autoExtends.put(fileName, settings);
+        Entry entry = open.get(fileName);
+        if (entry == null)
+            entry = closing.get(fileName);
+        // One still being opened picks the settings up when it is.
+        if (entry != null && entry.dbFile != null)
+            settings.applyTo(entry.dbFile);
+    }
+
+    /**
+     * Closes the database with the given name, if it is open. If it is
+     * in use, it is closed by the last release.
+     * @param fileName the name of the database.
+     * @throws IOException passed through from underlying file system.
+     */
+    public void close(String fileName) throws IOException
+    {
+        ArrayList<Entry> victims = new ArrayList<Entry>();
+        synchronized (this)
+        {
+            Entry entry = open.remove(fileName);
+            if (entry != null)
+                retire(entry, victims);
+        }
+        closeAll(victims);
+    }
+
+    /**
+     * Closes every open database. Databases still in use are closed by
+     * their last release. The first failure is rethrown once all
+     * databases have been closed.
+     * @throws IOException passed through from underlying file system.
+     */
+    public void close() throws IOException
+    {
+        ArrayList<Entry> victims = new ArrayList<Entry>();
+        synchronized (this)
+        {
+            for (Entry entry : open.values())
+                retire(entry, victims);
+            open.clear();
+        }
+        closeAll(victims);
+    }
+
+    /**
+     * Returns the entry for a database, open and with one more user.
+     * The registry's lock is held only to look the entry up; the
+     * database is opened, and any it displaces closed, without it.
+     */
+    private Entry open(String fileName) throws IOException
+    {
+        ArrayList<Entry> victims = new ArrayList<Entry>();
+        Entry entry = reserve(fileName, victims);
+        try {
+            closeAll(victims);
+        }
+        catch (IOException | RuntimeException e) {
+            if (entry.dbFile == null)
+                abandon(entry);
+            else
+                release(entry.dbFile);
+            throw e;
+        }
+        if (entry.dbFile == null)
+            load(entry);
+        return entry;
+    }
+
+    /**
+     * Finds or creates the entry for a database and adds a user to it.
+     * A new entry has no DBFile yet; the caller opens it with load.
+     * Waits while another thread is opening or closing the database.
+     * @param fileName the name of the database.
+     * @param victims collects the entries evicted to make room, which
+     * the caller must close.
+     * @return the entry.
+     */
+    private synchronized Entry reserve(String fileName, List<Entry> victims)
+    {
+        boolean interrupted = false;
+        Entry entry;
+        for (;;)
+        {
+            entry = open.get(fileName);
+            if (entry == null)
+                entry = closing.get(fileName);
+            if (entry == null)
+            {
+                entry = new Entry(fileName);
+                open.put(fileName, entry);
+                evict(victims);
+                break;
+            }
+            if (entry.dbFile != null && !entry.closed)
+            {
+                if (closing.remove(fileName, entry))
+                {
+                    open.put(fileName, entry);
+                    evict(victims);
+                }
+                break;
+            }
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        entry.users++;
+        return entry;
+    }
+
+    /**
+     * Opens the database for a new entry from reserve. If that fails,
+     * the entry is dropped.
+     */
+    private void load(Entry entry) throws IOException
+    {
+        DBFile.Mode mode;
+        synchronized (this)
+        {
+            mode = modes.get(entry.name);
+        }
+        DBFile dbFile;
+        try {
+            dbFile = DBFile.open(entry.name, mode == null ?
+                                 DBFile.Mode.CHANNEL : mode);
+        }
+        catch (IOException | RuntimeException e) {
+            abandon(entry);
+            throw e;
+        }
+        synchronized (this)
+        {
+            AutoExtend settings = autoExtends.get(entry.name);
+            if (settings != null)
+                settings.applyTo(dbFile);
+            entry.dbFile = dbFile;
+            entries.put(dbFile, entry);
+            notifyAll();
+        }
+    }
+
+    private synchronized void abandon(Entry entry)
+    {
+        if (!open.remove(entry.name, entry))
+            closing.remove(entry.name, entry);
+        notifyAll();
+    }
+
+    private void evict(List<Entry> victims)
+    {
+        while (open.size() > capacity)
+        {
+            Iterator<Map.Entry<String, Entry>> eldest =
+                open.entrySet().iterator();
+            Entry victim = eldest.next().getValue();
+            eldest.remove();
+            retire(victim, victims);
+        }
+    }
+
+    /**
+     * Takes an entry out of use. It stays in closing, so that it is not
+     * reopened meanwhile, until it is in use by nobody and closed.
+     */
+    private void retire(Entry entry, List<Entry> victims)
+    {
+        closing.put(entry.name, entry);
+        if (entry.users > 0)
+            return;
+        entry.closed = true;
+        victims.add(entry);
+    }
+
+    /**
+     * Closes retired databases, without the registry's lock. The first
+     * failure is rethrown once all have been closed.
+     */
+    private void closeAll(List<Entry> victims) throws IOException
+    {
+        IOException failure = null;
+        for (Entry entry : victims)
+        {
+            try {
+                entry.dbFile.close();
+            }
+            catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+            finally {
+                synchronized (this)
+                {
+                    closing.remove(entry.name, entry);
+                    entries.remove(entry.dbFile);
+                    notifyAll();
+                }
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+}
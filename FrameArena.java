@@ -0,0 +1,127 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Off-heap storage for a buffer pool. The arena is allocated once as a
+ * few large direct buffers, carved into page-sized slots, and a Page
+ * view is created for every slot up front. Frames are reused in place
+ * when pages are replaced, so a miss allocates nothing and the page
+ * contents never occupy the Java heap.
+ *
+ * Slots are the size of the largest page the pool holds. A smaller
+ * page uses the start of its frame's slot, through a view made by
+ * page(frame, size).
+ *
+ * The arena can be resized. Growing allocates a new chunk for the
+ * added slots; shrinking drops the last slots, and a chunk's memory is
+ * released once none of its slots is left or referred to.
+ * @author Yawen Chen and Tao Liu
+ */
+public class FrameArena
+{
+    // A single direct buffer is indexed by int, so a large pool is
+    // split into chunks of at most this many bytes.
+    private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+    // Each page is a view over its chunk and keeps the chunk alive.
+    private volatile Page[] pages = new Page[0];
+    private final int slotSize;
+
+    /**
+     * Allocates an arena of default-sized slots.
+     * @param numFrames the number of page slots.
+     */
+    public FrameArena(int numFrames)
+    {
+        this(numFrames, Page.PAGESIZE);
+    }
+
+    /**
+     * Allocates an arena.
+     * @param numFrames the number of page slots.
+     * @param slotSize the size of each slot, a valid page size.
+     */
+    public FrameArena(int numFrames, int slotSize)
+    {
+        if (!Page.isValidSize(slotSize))
+            throw new IllegalArgumentException("slotSize " + slotSize);
+        this.slotSize = slotSize;
+        resize(numFrames);
+    }
+
+    /**
+     * Changes the number of slots. Slots that remain keep their
+     * contents. The caller must make sure that dropped slots are no
+     * longer in use.
+     * @param numFrames the new number of page slots.
+     */
+    public synchronized void resize(int numFrames)
+    {
+        Page[] old = pages;
+        Page[] resized = Arrays.copyOf(old, numFrames);
+        int framesPerChunk = MAX_CHUNK_BYTES / slotSize;
+        for (int first = old.length; first < numFrames; first += framesPerChunk)
+        {
+            int count = Math.min(framesPerChunk, numFrames - first);
+            ByteBuffer chunk = ByteBuffer.allocateDirect(count * slotSize);
+            for (int i = 0; i < count; i++)
+                resized[first + i] = new Page(
+                    chunk.slice(i * slotSize, slotSize));
+        }
+        pages = resized;
+    }
+
+    /**
+     * Returns the number of frames in the arena.
+     * @return the number of frames.
+     */
+    public int size()
+    {
+        return pages.length;
+    }
+
+    /**
+     * Returns the page view over a frame's slot.
+     * @param frame the frame index.
+     * @return the page for that frame.
+     */
+    public Page page(int frame)
+    {
+        return pages[frame];
+    }
+
+    /**
+     * Returns a page view of the given size over the start of a
+     * frame's slot.
+     * @param frame the frame index.
+     * @param size the page size, no larger than the slot size.
+     * @return the whole-slot page if size is the slot size, otherwise a
+     * new view.
+     */
+    public Page page(int frame, int size)
+    {
+        if (size == slotSize)
+            return pages[frame];
+        if (!Page.isValidSize(size) || size > slotSize)
+            throw new IllegalArgumentException("size " + size);
+        return new Page(pages[frame].buffer().slice(0, size));
+    }
+
+    /**
+     * Returns the size of each slot.
+     * @return the slot size in bytes.
+     */
+    public int getSlotSize()
+    {
+        return slotSize;
+    }
+
+    /**
+     * Returns the total number of bytes held off-heap.
+     * @return the arena size in bytes.
+     */
+    public long capacity()
+    {
+        return (long)pages.length * slotSize;
+    }
+}
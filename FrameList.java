@@ -0,0 +1,178 @@
+import java.util.Arrays;
+
+/**
+ * Doubly linked list of frame indexes, stored in two int arrays so
+ * that adding, removing and moving a frame is O(1) and never
+ * allocates. The first element is the most recently added; policies
+ * use it as the MRU end and scan for victims from last().
+ * Not thread-safe.
+ * @author Yawen Chen and Tao Liu
+ */
+public class FrameList
+{
+    /**
+     * Returned by last() and previous() at the end of the list.
+     */
+    public static final int NONE = -1;
+
+    // Marks a frame that is not in the list.
+    private static final int ABSENT = -2;
+
+    private int[] prev;
+    private int[] next;
+    private int head = NONE;
+    private int tail = NONE;
+    private int size;
+    // Frames taken off the list that will be put back on it.
+    private int parked;
+
+    /**
+     * Creates an empty list for frames 0 to capacity-1.
+     * @param capacity the number of frames.
+     */
+    public FrameList(int capacity)
+    {
+        prev = new int[capacity];
+        next = new int[capacity];
+        Arrays.fill(prev, ABSENT);
+    }
+
+    /**
+     * Makes room for frames up to capacity-1.
+     * @param capacity the number of frames.
+     */
+    public void ensureCapacity(int capacity)
+    {
+        int old = prev.length;
+        if (capacity <= old)
+            return;
+        prev = Arrays.copyOf(prev, capacity);
+        next = Arrays.copyOf(next, capacity);
+        Arrays.fill(prev, old, capacity, ABSENT);
+    }
+
+    /**
+     * Returns the number of frames in the list.
+     * @return the list size.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of frames in the list plus the number parked
+     * to go back on it: the list's share of the pool.
+     * @return the list size including parked frames.
+     */
+    public int residentSize()
+    {
+        return size + parked;
+    }
+
+    /**
+     * Counts frames parked to go back on the list, or put back.
+     * @param delta the change in the number of parked frames.
+     */
+    public void addParked(int delta)
+    {
+        parked += delta;
+    }
+
+    /**
+     * Checks whether a frame is in the list.
+     * @param frame the frame index.
+     * @return true if the frame is in the list.
+     */
+    public boolean contains(int frame)
+    {
+        return prev[frame] != ABSENT;
+    }
+
+    /**
+     * Adds a frame at the front. The frame must not be in the list.
+     * @param frame the frame index.
+     */
+    public void addFirst(int frame)
+    {
+        prev[frame] = NONE;
+        next[frame] = head;
+        if (head != NONE)
+            prev[head] = frame;
+        else
+            tail = frame;
+        head = frame;
+        size++;
+    }
+
+    /**
+     * Adds a frame at the back. The frame must not be in the list.
+     * @param frame the frame index.
+     */
+    public void addLast(int frame)
+    {
+        next[frame] = NONE;
+        prev[frame] = tail;
+        if (tail != NONE)
+            next[tail] = frame;
+        else
+            head = frame;
+        tail = frame;
+        size++;
+    }
+
+    /**
+     * Removes a frame if it is in the list.
+     * @param frame the frame index.
+     * @return true if the frame was in the list.
+     */
+    public boolean remove(int frame)
+    {
+        int p = prev[frame];
+        if (p == ABSENT)
+            return false;
+        int n = next[frame];
+        if (p != NONE)
+            next[p] = n;
+        else
+            head = n;
+        if (n != NONE)
+            prev[n] = p;
+        else
+            tail = p;
+        prev[frame] = ABSENT;
+        size--;
+        return true;
+    }
+
+    /**
+     * Moves a frame to the front, adding it if it is not in the list.
+     * @param frame the frame index.
+     */
+    public void moveToFirst(int frame)
+    {
+        if (head == frame)
+            return;
+        remove(frame);
+        addFirst(frame);
+    }
+
+    /**
+     * Returns the frame at the back of the list.
+     * @return the last frame, or NONE if the list is empty.
+     */
+    public int last()
+    {
+        return tail;
+    }
+
+    /**
+     * Returns the frame in front of the given one.
+     * @param frame a frame in the list.
+     * @return the previous frame, or NONE at the front.
+     */
+    public int previous(int frame)
+    {
+        return prev[frame];
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Bounded LRU list of page keys that are no longer in the buffer pool,
+ * as used by 2Q and ARC to remember recent evictions. All storage is
+ * allocated up front, so adding and removing keys never allocates.
+ * Not thread-safe.
+ * @author Yawen Chen and Tao Liu
+ */
+public class GhostList
+{
+    private final PageTable index;
+    private final long[] keys;
+    private final FrameList order;
+    private final int[] freeSlots;
+    private int numFreeSlots;
+
+    /**
+     * Creates an empty list.
+     * @param capacity the maximum number of keys remembered.
+     */
+    public GhostList(int capacity)
+    {
+        capacity = Math.max(1, capacity);
+        index = new PageTable(capacity);
+        keys = new long[capacity];
+        order = new FrameList(capacity);
+        freeSlots = new int[capacity];
+        for (int i = 0; i < capacity; i++)
+            freeSlots[i] = capacity - 1 - i;
+        numFreeSlots = capacity;
+    }
+
+    /**
+     * Returns a copy of the list with a new capacity. If it is smaller
+     * than the list, the least recent keys are forgotten.
+     * @param capacity the maximum number of keys remembered.
+     * @return the new list.
+     */
+    public GhostList resized(int capacity)
+    {
+        GhostList copy = new GhostList(capacity);
+        for (int slot = order.last(); slot != FrameList.NONE;
+             slot = order.previous(slot))
+            copy.add(keys[slot]);
+        return copy;
+    }
+
+    /**
+     * Returns the number of keys in the list.
+     * @return the list size.
+     */
+    public int size()
+    {
+        return order.size();
+    }
+
+    /**
+     * Checks whether a key is in the list.
+     * @param key a PageTable key.
+     * @return true if the key is in the list.
+     */
+    public boolean contains(long key)
+    {
+        return index.get(key) != PageTable.NOT_FOUND;
+    }
+
+    /**
+     * Adds a key as the most recent one, forgetting the least recent
+     * key if the list is full.
+     * @param key a PageTable key.
+     */
+    public void add(long key)
+    {
+        if (contains(key))
+            remove(key);
+        if (numFreeSlots == 0)
+            removeLast();
+        int slot = freeSlots[--numFreeSlots];
+        keys[slot] = key;
+        index.put(key, slot);
+        order.addFirst(slot);
+    }
+
+    /**
+     * Removes a key.
+     * @param key a PageTable key.
+     * @return true if the key was in the list.
+     */
+    public boolean remove(long key)
+    {
+        int slot = index.remove(key);
+        if (slot == PageTable.NOT_FOUND)
+            return false;
+        order.remove(slot);
+        freeSlots[numFreeSlots++] = slot;
+        return true;
+    }
+
+    /**
+     * Forgets the least recent key, if any.
+     */
+    public void removeLast()
+    {
+        int slot = order.last();
+        if (slot != FrameList.NONE)
+            remove(keys[slot]);
+    }
+}
@@ -0,0 +1,221 @@
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs blocking page I/O on a pool of worker threads, so that a single
+ * caller can keep many reads in flight and a device with deep queues
+ * is kept busy. The queue depth is the number of workers, and so the
+ * number of operations in progress at once; as many more may wait in
+ * a bounded submission queue, and submitting blocks while it is full.
+ * A worker cannot wait for room that only the workers can make, so an
+ * operation submitted by one of the engine's own workers, such as
+ * from a completion stage of one of its futures, is run at once on
+ * that worker instead when the queue is full.
+ *
+ * Each operation completes a CompletableFuture, normally with its
+ * result or exceptionally with whatever it threw. Used by
+ * BufferManager.pinPageAsync; see BufferManager.startIOEngine.
+ * @author Yawen Chen and Tao Liu
+ */
+public class IOEngine implements Closeable
+{
+    /**
+     * Default number of operations in flight at once.
+     */
+    public static final int DEFAULT_QUEUE_DEPTH = 32;
+
+    /**
+     * An operation run by the engine.
+     */
+    public interface Task<T>
+    {
+        /**
+         * Performs the operation on a worker thread.
+         * @return the result the future completes with.
+         * @throws IOException passed through from underlying file system.
+         */
+        T run() throws IOException;
+    }
+
+    private final int queueDepth;
+    private final ThreadPoolExecutor workers;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Creates an engine with its worker threads.
+     * @param queueDepth the number of operations in flight at once.
+     */
+    public IOEngine(int queueDepth)
+    {
+        if (queueDepth < 1)
+            throw new IllegalArgumentException("queueDepth " + queueDepth);
+        this.queueDepth = queueDepth;
+        AtomicInteger threads = new AtomicInteger();
+        workers = new ThreadPoolExecutor(
+            queueDepth, queueDepth, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(queueDepth),
+            r -> {
+                Thread t = new Worker(r, "IOEngine-" + threads.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            },
+            (r, executor) -> waitForRoom(r, executor));
+    }
+
+    /**
+     * A worker thread, known by its engine.
+     */
+    private class Worker extends Thread
+    {
+        private Worker(Runnable r, String name)
+        {
+            super(r, name);
+        }
+
+        private IOEngine engine()
+        {
+            return IOEngine.this;
+        }
+    }
+
+    /**
+     * Returns the number of operations run at once.
+     * @return the queue depth.
+     */
+    public int getQueueDepth()
+    {
+        return queueDepth;
+    }
+
+    /**
+     * Returns the number of operations submitted and not yet complete.
+     * @return the operations queued or in progress.
+     */
+    public int getInFlight()
+    {
+        return inFlight.get();
+    }
+
+    /**
+     * Submits an operation, waiting for room in the submission queue
+     * if it is full. Called from one of the engine's workers while the
+     * queue is full, it runs the operation at once instead of waiting.
+     * @param task the operation.
+     * @return a future completed with the result of the operation.
+     * @throws RejectedExecutionException if the engine is closed.
+     */
+    public <T> CompletableFuture<T> submit(Task<T> task)
+    {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        inFlight.incrementAndGet();
+        try {
+            workers.execute(() -> {
+                // Leave the count before completing the future, so that
+                // whoever it wakes sees the operation done.
+                T result;
+                try {
+                    result = task.run();
+                }
+                catch (Throwable e) {
+                    inFlight.decrementAndGet();
+                    future.completeExceptionally(e);
+                    return;
+                }
+                inFlight.decrementAndGet();
+                future.complete(result);
+            });
+        }
+        catch (RuntimeException e) {
+            inFlight.decrementAndGet();
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * Reads a page in the background.
+     * @param dbFile the database to read from.
+     * @param pageNum the page number to be read.
+     * @param page the page to read into; not to be touched until the
+     * future completes.
+     * @return a future completed with the page once it has been read.
+     */
+    public CompletableFuture<Page> readPage(DBFile dbFile, int pageNum,
+                                            Page page)
+    {
+        return submit(() -> {
+            dbFile.readPage(pageNum, page);
+            return page;
+        });
+    }
+
+    /**
+     * Writes a page in the background.
+     * @param dbFile the database to write to.
+     * @param pageNum the page number to be written.
+     * @param page the page to write; not to be changed until the future
+     * completes.
+     * @return a future completed with the page once it has been
+     * written.
+     */
+    public CompletableFuture<Page> writePage(DBFile dbFile, int pageNum,
+                                             Page page)
+    {
+        return submit(() -> {
+            dbFile.writePage(pageNum, page);
+            return page;
+        });
+    }
+
+    /**
+     * Stops accepting operations and waits for those submitted to
+     * finish.
+     */
+    public void close()
+    {
+        workers.shutdown();
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                if (workers.awaitTermination(1, TimeUnit.SECONDS))
+                    break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Called when every worker is busy and the submission queue is
+     * full: blocks the submitter until there is room, or runs the
+     * operation on the submitter if it is one of the workers.
+     */
+    private void waitForRoom(Runnable r, ThreadPoolExecutor executor)
+    {
+        if (executor.isShutdown())
+            throw new RejectedExecutionException("IOEngine closed");
+        Thread current = Thread.currentThread();
+        if (current instanceof Worker && ((Worker)current).engine() == this) {
+            r.run();
+            return;
+        }
+        try {
+            executor.getQueue().put(r);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+        }
+        // Closed while we waited: nobody may be left to run it.
+        if (executor.isShutdown() && executor.getQueue().remove(r))
+            throw new RejectedExecutionException("IOEngine closed");
+    }
+}
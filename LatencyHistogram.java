@@ -0,0 +1,216 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram in the style of HdrHistogram: buckets are
+ * linear below 32 ns and then 16 to each power of two, so any value
+ * is reported to within about 6%, from nanoseconds up to
+ * MAX_NANOS. Recording never allocates or locks.
+ *
+ * Threads record into one of several stripes, picked by thread id,
+ * so that threads on different cores rarely update the same counters;
+ * snapshot() adds the stripes up. A snapshot taken while values are
+ * being recorded may miss the latest of them, but every bucket is
+ * always consistent with itself.
+ * @author Yawen Chen and Tao Liu
+ */
+public class LatencyHistogram
+{
+    /**
+     * Longest latency told apart; longer ones are counted as this.
+     */
+    public static final long MAX_NANOS = 1L << 40;  // about 18 minutes
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int NUM_BUCKETS = bucket(MAX_NANOS) + 1;
+    // Per stripe, after the buckets: the sum of the values and the
+    // largest one.
+    private static final int SUM = NUM_BUCKETS;
+    private static final int MAX = NUM_BUCKETS + 1;
+    private static final int STRIPE_LENGTH = NUM_BUCKETS + 2;
+
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
+
+    /**
+     * Creates an empty histogram with a stripe per processor, up to 16.
+     */
+    public LatencyHistogram()
+    {
+        int n = Integer.highestOneBit(
+            Math.min(16, Runtime.getRuntime().availableProcessors()));
+        stripes = new AtomicLongArray[n];
+        for (int i = 0; i < n; i++)
+            stripes[i] = new AtomicLongArray(STRIPE_LENGTH);
+        stripeMask = n - 1;
+    }
+
+    private static int bucket(long nanos)
+    {
+        // 0..31 map to themselves; above that, the top SUB_BITS+1 bits
+        // pick the bucket.
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(nanos)
+                             - (SUB_BITS + 1));
+        return shift * SUB_BUCKETS + (int)(nanos >>> shift);
+    }
+
+    // The smallest value counted in a bucket.
+    private static long lowest(int bucket)
+    {
+        if (bucket < 2 * SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long)(bucket - shift * SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * Records a latency.
+     * @param nanos the latency in nanoseconds; negative values count
+     * as 0.
+     */
+    public void record(long nanos)
+    {
+        long value = Math.max(0, Math.min(nanos, MAX_NANOS));
+        AtomicLongArray stripe =
+            stripes[(int)Thread.currentThread().getId() & stripeMask];
+        stripe.getAndIncrement(bucket(value));
+        stripe.getAndAdd(SUM, value);
+        long max = stripe.get(MAX);
+        while (value > max && !stripe.compareAndSet(MAX, max, value))
+            max = stripe.get(MAX);
+    }
+
+    /**
+     * Records the time since start.
+     * @param startNanos a System.nanoTime() reading.
+     */
+    public void recordSince(long startNanos)
+    {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Takes a snapshot of the histogram.
+     * @return the snapshot.
+     */
+    public Snapshot snapshot()
+    {
+        long[] counts = new long[NUM_BUCKETS];
+        long sum = 0;
+        long max = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < NUM_BUCKETS; i++)
+                counts[i] += stripe.get(i);
+            sum += stripe.get(SUM);
+            max = Math.max(max, stripe.get(MAX));
+        }
+        return new Snapshot(counts, sum, max);
+    }
+
+    /**
+     * The contents of a histogram at one point in time.
+     */
+    public static class Snapshot
+    {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long sum, long max)
+        {
+            this.counts = counts;
+            long n = 0;
+            for (long c : counts)
+                n += c;
+            this.count = n;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * Returns the number of latencies recorded.
+         * @return the count.
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * Returns the mean latency.
+         * @return the mean in nanoseconds, or 0 if nothing was
+         * recorded.
+         */
+        public double getMean()
+        {
+            return count == 0 ? 0 : (double)sum / count;
+        }
+
+        /**
+         * Returns the largest latency recorded.
+         * @return the maximum in nanoseconds.
+         */
+        public long getMax()
+        {
+            return max;
+        }
+
+        /**
+         * Returns a percentile: a value that the given share of the
+         * latencies do not exceed, rounded down to the bottom of its
+         * bucket.
+         * @param percent from 0 to 100.
+         * @return the percentile in nanoseconds, or 0 if nothing was
+         * recorded.
+         */
+        public long getPercentile(double percent)
+        {
+            if (count == 0)
+                return 0;
+            long rank = Math.max(1, (long)Math.ceil(percent / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(lowest(i), max);
+            }
+            return max;
+        }
+
+        /**
+         * Returns the median latency.
+         * @return the 50th percentile in nanoseconds.
+         */
+        public long getP50()
+        {
+            return getPercentile(50);
+        }
+
+        /**
+         * Returns the 99th percentile.
+         * @return the 99th percentile in nanoseconds.
+         */
+        public long getP99()
+        {
+            return getPercentile(99);
+        }
+
+        /**
+         * Returns the 99.9th percentile.
+         * @return the 99.9th percentile in nanoseconds.
+         */
+        public long getP999()
+        {
+            return getPercentile(99.9);
+        }
+
+        public String toString()
+        {
+            return String.format("count %d, mean %.0f ns, p50 %d ns,"
+                                 + " p99 %d ns, p99.9 %d ns, max %d ns",
+                                 count, getMean(), getP50(), getP99(),
+                                 getP999(), max);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Base class for replacement policies that keep their bookkeeping in
+ * ordinary data structures guarded by one lock. Every hook takes the
+ * lock except pinned(), which is on the hit path and only tries it: if
+ * another thread holds the lock, that access goes unrecorded. Losing
+ * the odd access under contention costs a little accuracy, but a hit
+ * never waits for the policy.
+ *
+ * A frame that claimFromBack finds pinned is parked: taken off its
+ * list until it is unpinned or removed, so that later searches do not
+ * walk past it again. Policies may park frames themselves in
+ * onPinned. Either way, a victim search costs time for the frames it
+ * claims or parks, not for every frame pinned.
+ * @author Yawen Chen and Tao Liu
+ */
+public abstract class LockingPolicy implements ReplacementPolicy
+{
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The frames being managed, set by attach().
+     */
+    protected Frames frames;
+
+    // For each parked frame, the list it goes back on and whether at
+    // the front; null for frames not parked.
+    private FrameList[] parkedIn;
+    private boolean[] parkedFirst;
+
+    public void attach(Frames frames)
+    {
+        lock.lock();
+        try {
+            if (this.frames != null)
+                throw new IllegalStateException("policy already attached");
+            this.frames = frames;
+            parkedIn = new FrameList[frames.size()];
+            parkedFirst = new boolean[frames.size()];
+            allocate(frames.size());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void loaded(int frame, long key)
+    {
+        lock.lock();
+        try {
+            onLoaded(frame, key);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void pinned(int frame)
+    {
+        if (!lock.tryLock())
+            return;
+        try {
+            onPinned(frame);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void unpinned(int frame)
+    {
+        lock.lock();
+        try {
+            unpark(frame);
+            onUnpinned(frame);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void removed(int frame)
+    {
+        lock.lock();
+        try {
+            unpark(frame);
+            onRemoved(frame);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void resized(int poolSize)
+    {
+        lock.lock();
+        try {
+            if (poolSize > parkedIn.length) {
+                parkedIn = Arrays.copyOf(parkedIn, poolSize);
+                parkedFirst = Arrays.copyOf(parkedFirst, poolSize);
+            }
+            resize(poolSize);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int victim()
+    {
+        lock.lock();
+        try {
+            return chooseVictim();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int upcomingVictims(int[] out)
+    {
+        lock.lock();
+        try {
+            return listVictims(out);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Allocates the policy's data structures. Called with the lock
+     * held.
+     * @param poolSize the number of frames.
+     */
+    protected abstract void allocate(int poolSize);
+
+    /**
+     * See resized(). Called with the lock held. Bookkeeping for frames
+     * beyond a smaller size is already empty, so it need only grow.
+     * @param poolSize the new number of frames.
+     */
+    protected abstract void resize(int poolSize);
+
+    /**
+     * See loaded(). Called with the lock held.
+     * @param frame the frame index.
+     * @param key the page's PageTable key.
+     */
+    protected abstract void onLoaded(int frame, long key);
+
+    /**
+     * See pinned(). Called with the lock held.
+     * @param frame the frame index.
+     */
+    protected abstract void onPinned(int frame);
+
+    /**
+     * See unpinned(). Called with the lock held, after a parked frame
+     * has been put back on its list. Does nothing unless overridden.
+     * @param frame the frame index.
+     */
+    protected void onUnpinned(int frame)
+    {
+    }
+
+    /**
+     * See removed(). Called with the lock held, after a parked frame
+     * has been put back on its list.
+     * @param frame the frame index.
+     */
+    protected abstract void onRemoved(int frame);
+
+    /**
+     * See victim(). Called with the lock held.
+     * @return the claimed frame, or NO_VICTIM.
+     */
+    protected abstract int chooseVictim();
+
+    /**
+     * See upcomingVictims(). Called with the lock held. Lists nothing
+     * unless overridden.
+     * @param out an array to fill.
+     * @return the number of frames filled in.
+     */
+    protected int listVictims(int[] out)
+    {
+        return 0;
+    }
+
+    /**
+     * Appends frames from the back of a list to an array.
+     * @param list the list to read.
+     * @param out the array to fill.
+     * @param n the number of frames already in out.
+     * @return the number of frames in out afterwards.
+     */
+    protected static int listFromBack(FrameList list, int[] out, int n)
+    {
+        for (int frame = list.last(); frame != FrameList.NONE && n < out.length;
+             frame = list.previous(frame))
+            out[n++] = frame;
+        return n;
+    }
+
+    /**
+     * Claims the frame nearest the back of a list that can be claimed,
+     * parking the pinned frames it passes.
+     * @param list the list to scan.
+     * @return the claimed frame, or NO_VICTIM.
+     */
+    protected int claimFromBack(FrameList list)
+    {
+        int frame = list.last();
+        while (frame != FrameList.NONE)
+        {
+            if (frames.tryClaim(frame))
+                return frame;
+            // It has been at the back longer than anything left in the
+            // list, so that is where it goes back.
+            int previous = list.previous(frame);
+            list.remove(frame);
+            park(frame, list, false);
+            frame = previous;
+        }
+        return NO_VICTIM;
+    }
+
+    /**
+     * Parks a frame that is on no list until it is next unpinned or
+     * removed, or moves a parked frame to another list.
+     * @param frame the frame index.
+     * @param list the list it goes back on.
+     * @param first true to go back at the front, false at the back.
+     */
+    protected void park(int frame, FrameList list, boolean first)
+    {
+        if (parkedIn[frame] != null)
+            parkedIn[frame].addParked(-1);
+        list.addParked(1);
+        parkedIn[frame] = list;
+        parkedFirst[frame] = first;
+    }
+
+    /**
+     * Returns the list a parked frame goes back on.
+     * @param frame the frame index.
+     * @return the list, or null if the frame is not parked.
+     */
+    protected FrameList parkedList(int frame)
+    {
+        return parkedIn[frame];
+    }
+
+    private void unpark(int frame)
+    {
+        FrameList list = parkedIn[frame];
+        if (list == null)
+            return;
+        parkedIn[frame] = null;
+        list.addParked(-1);
+        if (parkedFirst[frame])
+            list.addFirst(frame);
+        else
+            list.addLast(frame);
+    }
+}
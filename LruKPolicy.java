@@ -0,0 +1,204 @@
+import java.util.Arrays;
+
+/**
+ * The LRU-K replacement policy (O'Neil, O'Neil and Weikum). The victim
+ * is the unpinned page whose K-th most recent access is oldest; pages
+ * seen fewer than K times are replaced first, least recently used
+ * first. With K = 2 this keeps pages that are used repeatedly ahead of
+ * pages touched once by a scan.
+ *
+ * Unpinned frames are kept in a binary heap ordered by K-th access
+ * time, so each pin, unpin and eviction costs O(log n); the ordering
+ * key of a page changes arbitrarily on access, so it cannot be kept in
+ * a list. Access history is only kept for pages in the pool.
+ * @author Yawen Chen and Tao Liu
+ */
+public class LruKPolicy extends LockingPolicy
+{
+    private final int k;
+    private long clock;
+    // The last k access times of each frame, most recent first.
+    private long[] history;
+    private int[] numAccesses;
+    // Min-heap of unpinned frames by priority(), with each frame's
+    // position in the heap (or -1).
+    private int[] heap;
+    private int[] position;
+    private long[] heapKey;
+    private int heapSize;
+
+    /**
+     * Creates an LRU-2 policy.
+     */
+    public LruKPolicy()
+    {
+        this(2);
+    }
+
+    /**
+     * Creates an LRU-K policy.
+     * @param k the number of accesses remembered per page.
+     */
+    public LruKPolicy(int k)
+    {
+        if (k < 1)
+            throw new IllegalArgumentException("k " + k);
+        this.k = k;
+    }
+
+    protected void allocate(int poolSize)
+    {
+        history = new long[poolSize * k];
+        numAccesses = new int[poolSize];
+        heap = new int[poolSize];
+        position = new int[poolSize];
+        heapKey = new long[poolSize];
+        Arrays.fill(position, -1);
+    }
+
+    protected void resize(int poolSize)
+    {
+        int old = numAccesses.length;
+        if (poolSize <= old)
+            return;
+        history = Arrays.copyOf(history, poolSize * k);
+        numAccesses = Arrays.copyOf(numAccesses, poolSize);
+        heap = Arrays.copyOf(heap, poolSize);
+        position = Arrays.copyOf(position, poolSize);
+        heapKey = Arrays.copyOf(heapKey, poolSize);
+        Arrays.fill(position, old, poolSize, -1);
+    }
+
+    protected void onLoaded(int frame, long key)
+    {
+        numAccesses[frame] = 0;
+        access(frame);
+    }
+
+    protected void onPinned(int frame)
+    {
+        access(frame);
+        // Pinned frames are not candidates; unpinned() puts it back.
+        heapRemove(frame);
+    }
+
+    protected void onUnpinned(int frame)
+    {
+        heapRemove(frame);
+        heapInsert(frame, priority(frame));
+    }
+
+    protected void onRemoved(int frame)
+    {
+        heapRemove(frame);
+        numAccesses[frame] = 0;
+    }
+
+    protected int chooseVictim()
+    {
+        while (heapSize > 0)
+        {
+            int frame = heap[0];
+            if (frames.tryClaim(frame))
+                return frame;
+            // Pinned again since it was unpinned; it comes back on the
+            // next unpin.
+            heapRemove(frame);
+        }
+        return NO_VICTIM;
+    }
+
+    /**
+     * Lists the top of the heap. Its first levels hold the frames with
+     * the oldest K-th access, roughly in order.
+     */
+    protected int listVictims(int[] out)
+    {
+        int n = Math.min(out.length, heapSize);
+        System.arraycopy(heap, 0, out, 0, n);
+        return n;
+    }
+
+    private void access(int frame)
+    {
+        int base = frame * k;
+        System.arraycopy(history, base, history, base + 1, k - 1);
+        history[base] = ++clock;
+        if (numAccesses[frame] < k)
+            numAccesses[frame]++;
+    }
+
+    /**
+     * Returns the heap key for a frame: its K-th most recent access
+     * time, or, for a page seen fewer than K times, its last access
+     * time shifted below every real time.
+     */
+    private long priority(int frame)
+    {
+        int base = frame * k;
+        if (numAccesses[frame] < k)
+            return Long.MIN_VALUE + history[base];
+        return history[base + k - 1];
+    }
+
+    private void heapInsert(int frame, long key)
+    {
+        int i = heapSize++;
+        heap[i] = frame;
+        heapKey[frame] = key;
+        position[frame] = i;
+        siftUp(i);
+    }
+
+    private void heapRemove(int frame)
+    {
+        int i = position[frame];
+        if (i < 0)
+            return;
+        position[frame] = -1;
+        int last = heap[--heapSize];
+        if (i == heapSize)
+            return;
+        heap[i] = last;
+        position[last] = i;
+        siftUp(i);
+        siftDown(position[last]);
+    }
+
+    private void siftUp(int i)
+    {
+        int frame = heap[i];
+        while (i > 0)
+        {
+            int parent = (i - 1) >>> 1;
+            if (heapKey[heap[parent]] <= heapKey[frame])
+                break;
+            heap[i] = heap[parent];
+            position[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = frame;
+        position[frame] = i;
+    }
+
+    private void siftDown(int i)
+    {
+        int frame = heap[i];
+        for (;;)
+        {
+            int child = 2 * i + 1;
+            if (child >= heapSize)
+                break;
+            if (child + 1 < heapSize
+                && heapKey[heap[child + 1]] < heapKey[heap[child]])
+                child++;
+            if (heapKey[heap[child]] >= heapKey[frame])
+                break;
+            heap[i] = heap[child];
+            position[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = frame;
+        position[frame] = i;
+    }
+}
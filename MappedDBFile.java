@@ -0,0 +1,173 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Database file whose data file is memory-mapped. Reads are a copy out
+ * of the mapping and writes are a store into it, with no system call
+ * per page; force() makes the stores durable. Intended for read-mostly
+ * databases whose working set fits in memory. If the database grows,
+ * the new pages are mapped on first use. The space map is the
+ * in-memory one every DBFile keeps.
+ * @author Yawen Chen and Tao Liu
+ */
+public class MappedDBFile extends DBFile
+{
+    // A mapping is indexed by int, so the data file is mapped in
+    // chunks of at most this many bytes (a whole number of pages).
+    private static final int MAX_CHUNK_BYTES = 1 << 30;
+    private final int pagesPerChunk;
+
+    private volatile MappedByteBuffer[] dataMap;
+
+    /**
+     * Opens the database with the given name.
+     * @param name name of the database.
+     * @throws IOException passed through from underlying file system.
+     */
+    public MappedDBFile(String name) throws IOException
+    {
+        super(name);
+        pagesPerChunk = MAX_CHUNK_BYTES / getPageSize();
+    }
+
+    /**
+     * Returns a read-only view of a page directly over the mapping.
+     * The view reflects later writes to the page, and is only valid
+     * until the page is deallocated.
+     * @param pageNum the page number to be viewed.
+     * @return a buffer of one page.
+     * @throws BadPageNumberException if pageNum is not in the file.
+     * @throws PageNotAllocatedException if pageNum is not allocaated.
+     * @throws IOException passed through from underlying file system.
+     */
+    public ByteBuffer pageSlice(int pageNum) throws IOException
+    {
+        checkAllocated(pageNum);
+        return chunk(pageNum).slice(offset(pageNum), getPageSize())
+            .asReadOnlyBuffer();
+    }
+
+    @Override
+    public void readPage(int pageNum, Page page) throws IOException
+    {
+        checkAllocated(pageNum);
+        checkPageSize(page);
+        page.buffer().put(0, chunk(pageNum), offset(pageNum), getPageSize());
+    }
+
+    @Override
+    public void writePage(int pageNum, Page page) throws IOException
+    {
+        if (getNumPages() == 0)
+            throw new EmptyFileException();
+
+        checkAllocated(pageNum);
+        checkPageSize(page);
+        chunk(pageNum).put(offset(pageNum), page.buffer(), 0, getPageSize());
+    }
+
+    /**
+     * Reads a run of pages. With a mapping there is nothing to gain
+     * from scattering, so each page is simply copied.
+     */
+    @Override
+    public void readPages(int firstPageNum, Page[] pages, int count)
+        throws IOException
+    {
+        if (count <= 0)
+            throw new NonPositiveRunSizeException();
+        for (int i = 0; i < count; i++)
+            readPage(firstPageNum + i, pages[i]);
+    }
+
+    /**
+     * Writes a run of pages. With a mapping there is nothing to gain
+     * from gathering, so each page is simply stored.
+     */
+    @Override
+    public void writePages(int firstPageNum, Page[] pages, int count)
+        throws IOException
+    {
+        if (count <= 0)
+            throw new NonPositiveRunSizeException();
+        for (int i = 0; i < count; i++)
+            writePage(firstPageNum + i, pages[i]);
+    }
+
+    @Override
+    public void force() throws IOException
+    {
+        MappedByteBuffer[] chunks = mapData();
+        for (MappedByteBuffer chunk : chunks)
+            chunk.force();
+        writeSpaceMap();
+        mapChannel().force(false);
+    }
+
+    /**
+     * Drops the mappings and closes the channels. The mapped memory is
+     * released once the buffers are garbage collected.
+     * @throws IOException passed through from underlying file system.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        dataMap = null;
+        super.close();
+    }
+
+    private MappedByteBuffer chunk(int pageNum) throws IOException
+    {
+        MappedByteBuffer[] chunks = dataMap();
+        int c = pageNum / pagesPerChunk;
+        if (c >= chunks.length || offset(pageNum) >= chunks[c].capacity())
+            chunks = mapData();     // the database has grown
+        return chunks[c];
+    }
+
+    private int offset(int pageNum)
+    {
+        return (pageNum % pagesPerChunk) * getPageSize();
+    }
+
+    private MappedByteBuffer[] dataMap() throws IOException
+    {
+        MappedByteBuffer[] chunks = dataMap;
+        return chunks != null ? chunks : mapData();
+    }
+
+    /**
+     * Maps the data file, or the part of it added since it was last
+     * mapped. Chunks that were already full are kept.
+     */
+    private synchronized MappedByteBuffer[] mapData() throws IOException
+    {
+        int numPages = getNumPages();
+        int pageSize = getPageSize();
+        int numChunks = (numPages + pagesPerChunk - 1) / pagesPerChunk;
+        MappedByteBuffer[] old = dataMap;
+        if (old != null && old.length == numChunks && (numChunks == 0
+            || old[numChunks - 1].capacity() / pageSize
+               == numPages - (numChunks - 1) * pagesPerChunk))
+            return old;
+        MappedByteBuffer[] chunks = new MappedByteBuffer[numChunks];
+        for (int c = 0; c < numChunks; c++)
+        {
+            if (old != null && c < old.length
+                && old[c].capacity() == pagesPerChunk * pageSize)
+            {
+                chunks[c] = old[c];
+                continue;
+            }
+            int first = c * pagesPerChunk;
+            int count = Math.min(pagesPerChunk, numPages - first);
+            chunks[c] = dataChannel().map(FileChannel.MapMode.READ_WRITE,
+                                          (long)first * pageSize,
+                                          (long)count * pageSize);
+        }
+        dataMap = chunks;
+        return chunks;
+    }
+}
@@ -1,22 +1,134 @@
+import java.nio.ByteBuffer;
+
 /**
- * Class to hold a page's worth of data in memory.
+ * Class to hold a page's worth of data in memory. A page either owns
+ * a heap array (the default) or is a view over a slot of an off-heap
+ * FrameArena, in which case data is null and the contents are reached
+ * through buffer(). Pages are PAGESIZE bytes unless created with some
+ * other size, to match a database with a different page size.
  * @author Dave Musicant, with considerable material reused from the
  * UW-Madison Minibase project
  */
 public class Page
 {
     /**
-     * Size of a page in bytes.
+     * Default size of a page in bytes.
      */
     public static final int PAGESIZE = 1024;
 
     /**
-     * Array to actually contain page data.
+     * Smallest page size allowed.
+     */
+    public static final int MIN_PAGESIZE = 512;
+
+    /**
+     * Largest page size allowed.
+     */
+    public static final int MAX_PAGESIZE = 1 << 16;
+
+    private static final byte[] ZEROS = new byte[PAGESIZE];
+
+    /**
+     * Array to actually contain page data. Null for off-heap pages.
      */
     public byte[] data;
 
+    // View used by callers, and a second view over the same bytes
+    // whose position and limit belong to DBFile's I/O calls.
+    private final ByteBuffer buffer;
+    private final ByteBuffer ioBuffer;
+
     public Page()
     {
-        data = new byte[PAGESIZE];
+        this(PAGESIZE);
+    }
+
+    /**
+     * Creates a heap page of the given size.
+     * @param size the page size in bytes; see isValidSize.
+     */
+    public Page(int size)
+    {
+        if (!isValidSize(size))
+            throw new IllegalArgumentException("page size " + size);
+        data = new byte[size];
+        buffer = ByteBuffer.wrap(data);
+        ioBuffer = buffer.duplicate();
+    }
+
+    /**
+     * Creates a page that is a view over an off-heap slot.
+     * @param slot a direct buffer of exactly one page.
+     */
+    Page(ByteBuffer slot)
+    {
+        if (!isValidSize(slot.capacity()))
+            throw new IllegalArgumentException("slot is not one page");
+        data = null;
+        buffer = slot;
+        ioBuffer = slot.duplicate();
+    }
+
+    /**
+     * Checks whether a page size is allowed: a power of two from
+     * MIN_PAGESIZE to MAX_PAGESIZE.
+     * @param size the page size in bytes.
+     * @return true if pages may have that size.
+     */
+    public static boolean isValidSize(int size)
+    {
+        return size >= MIN_PAGESIZE && size <= MAX_PAGESIZE
+            && (size & (size - 1)) == 0;
+    }
+
+    /**
+     * Returns the size of the page.
+     * @return the page size in bytes.
+     */
+    public int size()
+    {
+        return buffer.capacity();
+    }
+
+    /**
+     * Returns a buffer over the page contents. Works for both heap and
+     * off-heap pages; use absolute get and put so that the position of
+     * the shared buffer does not matter.
+     * @return the page contents.
+     */
+    public ByteBuffer buffer()
+    {
+        return buffer;
+    }
+
+    /**
+     * Returns true if the page lives outside the Java heap.
+     * @return true for off-heap pages.
+     */
+    public boolean isDirect()
+    {
+        return data == null;
+    }
+
+    /**
+     * Fills the page with zeros.
+     */
+    public void clear()
+    {
+        for (int offset = 0; offset < size(); offset += ZEROS.length)
+            buffer.put(offset, ZEROS, 0,
+                       Math.min(ZEROS.length, size() - offset));
+    }
+
+    /**
+     * Returns the view used for reading and writing the page from
+     * disk, with its position at zero and its limit at the page
+     * size. Only one I/O on a page may be in progress at a time.
+     * @return the I/O view.
+     */
+    ByteBuffer ioBuffer()
+    {
+        ioBuffer.clear();
+        return ioBuffer;
     }
 }
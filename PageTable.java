@@ -0,0 +1,331 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Maps a (file, page) pair to the frame that holds it. Keys are packed
+ * into a single long (see key()) and the table is an open-addressing
+ * hash table with linear probing, so lookups and updates never
+ * allocate.
+ *
+ * The table is safe for concurrent use. It is split into segments,
+ * each guarded by its own StampedLock; updates take the segment's
+ * write lock, while lookups are optimistic reads that only fall back
+ * to the read lock if an update raced with them.
+ * @author Yawen Chen and Tao Liu
+ */
+public class PageTable
+{
+    /**
+     * Value returned by get and remove when the key is not present.
+     */
+    public static final int NOT_FOUND = -1;
+
+    // File ids are non-negative, so no packed key can ever be -1.
+    private static final long EMPTY = -1L;
+
+    private static final int MAX_SEGMENTS = 64;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+
+    /**
+     * Creates a table sized so that it never needs to grow while it
+     * holds at most expectedSize entries.
+     * @param expectedSize the expected number of entries.
+     */
+    public PageTable(int expectedSize)
+    {
+        int numSegments = 1;
+        while (numSegments < MAX_SEGMENTS && numSegments * 64 < expectedSize)
+            numSegments <<= 1;
+        segments = new Segment[numSegments];
+        for (int i = 0; i < numSegments; i++)
+            segments[i] = new Segment(expectedSize / numSegments);
+        segmentMask = numSegments - 1;
+    }
+
+    /**
+     * Packs a file id and page id into a table key.
+     * @param fileId a non-negative id identifying the database.
+     * @param pageId the page id within the database.
+     * @return the packed key.
+     */
+    public static long key(int fileId, int pageId)
+    {
+        return ((long)fileId << 32) | (pageId & 0xffffffffL);
+    }
+
+    /**
+     * Extracts the page id from a packed key.
+     * @param key a key built by key().
+     * @return the page id.
+     */
+    public static int pageId(long key)
+    {
+        return (int)key;
+    }
+
+    /**
+     * Extracts the file id from a packed key.
+     * @param key a key built by key().
+     * @return the file id.
+     */
+    public static int fileId(long key)
+    {
+        return (int)(key >>> 32);
+    }
+
+    /**
+     * Returns the number of entries in the table. Only a snapshot if
+     * the table is being updated concurrently.
+     * @return the number of entries.
+     */
+    public int size()
+    {
+        int size = 0;
+        for (Segment segment : segments)
+        {
+            long stamp = segment.lock.readLock();
+            size += segment.size;
+            segment.lock.unlockRead(stamp);
+        }
+        return size;
+    }
+
+    /**
+     * Looks up the frame for a key.
+     * @param key the packed key.
+     * @return the frame index, or NOT_FOUND.
+     */
+    public int get(long key)
+    {
+        long h = hash(key);
+        Segment segment = segment(h);
+        StampedLock lock = segment.lock;
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0)
+        {
+            int frame = segment.find(key, (int)h);
+            if (lock.validate(stamp))
+                return frame;
+        }
+        stamp = lock.readLock();
+        try {
+            return segment.find(key, (int)h);
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Maps a key to a frame, replacing any existing mapping.
+     * @param key the packed key.
+     * @param frame the frame index.
+     */
+    public void put(long key, int frame)
+    {
+        long h = hash(key);
+        Segment segment = segment(h);
+        long stamp = segment.lock.writeLock();
+        try {
+            segment.insert(key, (int)h, frame, true);
+        }
+        finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Maps a key to a frame unless the key is already mapped.
+     * @param key the packed key.
+     * @param frame the frame index.
+     * @return the frame the key was already mapped to, or NOT_FOUND if
+     * the new mapping was made.
+     */
+    public int putIfAbsent(long key, int frame)
+    {
+        long h = hash(key);
+        Segment segment = segment(h);
+        long stamp = segment.lock.writeLock();
+        try {
+            return segment.insert(key, (int)h, frame, false);
+        }
+        finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes the mapping for a key.
+     * @param key the packed key.
+     * @return the frame the key was mapped to, or NOT_FOUND.
+     */
+    public int remove(long key)
+    {
+        return remove(key, NOT_FOUND);
+    }
+
+    /**
+     * Removes the mapping for a key only if it maps to the given
+     * frame.
+     * @param key the packed key.
+     * @param frame the expected frame, or NOT_FOUND to match any.
+     * @return the frame the key was mapped to, or NOT_FOUND if nothing
+     * was removed.
+     */
+    public int remove(long key, int frame)
+    {
+        long h = hash(key);
+        Segment segment = segment(h);
+        long stamp = segment.lock.writeLock();
+        try {
+            return segment.delete(key, (int)h, frame);
+        }
+        finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    private Segment segment(long h)
+    {
+        return segments[(int)(h >>> 40) & segmentMask];
+    }
+
+    private static long hash(long key)
+    {
+        // Finalizer from MurmurHash3, to spread sequential page ids.
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * One independently locked part of the table. Keys and frames are
+     * interleaved in a single array so that a racing optimistic reader
+     * always sees a consistent pair of array length and contents.
+     */
+    private static final class Segment
+    {
+        private final StampedLock lock = new StampedLock();
+        private volatile long[] slots;
+        private int size;
+
+        private Segment(int expectedSize)
+        {
+            int capacity = 16;
+            while (capacity < 2 * expectedSize)
+                capacity <<= 1;
+            slots = emptySlots(capacity);
+        }
+
+        private static long[] emptySlots(int capacity)
+        {
+            long[] slots = new long[2 * capacity];
+            Arrays.fill(slots, EMPTY);
+            return slots;
+        }
+
+        /**
+         * Probes for a key. Also called without the lock by optimistic
+         * readers, so it must terminate even on a table that is being
+         * modified; the caller discards the result in that case.
+         */
+        private int find(long key, int h)
+        {
+            long[] slots = this.slots;
+            int mask = (slots.length >> 1) - 1;
+            for (int n = 0, i = h & mask; n <= mask; n++, i = (i + 1) & mask)
+            {
+                long k = slots[2 * i];
+                if (k == key)
+                    return (int)slots[2 * i + 1];
+                if (k == EMPTY)
+                    return NOT_FOUND;
+            }
+            return NOT_FOUND;
+        }
+
+        private int insert(long key, int h, int frame, boolean replace)
+        {
+            long[] slots = this.slots;
+            int mask = (slots.length >> 1) - 1;
+            int i = h & mask;
+            while (slots[2 * i] != EMPTY && slots[2 * i] != key)
+                i = (i + 1) & mask;
+            if (slots[2 * i] == key)
+            {
+                int old = (int)slots[2 * i + 1];
+                if (replace)
+                    slots[2 * i + 1] = frame;
+                return old;
+            }
+            if (2 * (size + 1) > mask + 1)
+            {
+                grow();
+                return insert(key, h, frame, replace);
+            }
+            // Write the frame before the key, so that an optimistic
+            // reader never pairs the key with a stale frame.
+            slots[2 * i + 1] = frame;
+            slots[2 * i] = key;
+            size++;
+            return NOT_FOUND;
+        }
+
+        private int delete(long key, int h, int expected)
+        {
+            long[] slots = this.slots;
+            int mask = (slots.length >> 1) - 1;
+            int i = h & mask;
+            while (slots[2 * i] != key)
+            {
+                if (slots[2 * i] == EMPTY)
+                    return NOT_FOUND;
+                i = (i + 1) & mask;
+            }
+            int frame = (int)slots[2 * i + 1];
+            if (expected != NOT_FOUND && frame != expected)
+                return NOT_FOUND;
+
+            // Backward-shift deletion: move later entries of the probe
+            // sequence into the hole so that no tombstones are needed.
+            int hole = i;
+            for (int j = (i + 1) & mask; slots[2 * j] != EMPTY;
+                 j = (j + 1) & mask)
+            {
+                int home = (int)hash(slots[2 * j]) & mask;
+                if (((j - home) & mask) >= ((j - hole) & mask))
+                {
+                    slots[2 * hole + 1] = slots[2 * j + 1];
+                    slots[2 * hole] = slots[2 * j];
+                    hole = j;
+                }
+            }
+            slots[2 * hole] = EMPTY;
+            size--;
+            return frame;
+        }
+
+        private void grow()
+        {
+            long[] old = slots;
+            long[] grown = emptySlots(old.length);
+            int mask = (grown.length >> 1) - 1;
+            for (int i = 0; i < old.length; i += 2)
+            {
+                if (old[i] == EMPTY)
+                    continue;
+                int j = (int)hash(old[i]) & mask;
+                while (grown[2 * j] != EMPTY)
+                    j = (j + 1) & mask;
+                grown[2 * j] = old[i];
+                grown[2 * j + 1] = old[i + 1];
+            }
+            slots = grown;
+        }
+    }
+}
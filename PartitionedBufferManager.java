@@ -0,0 +1,424 @@
+import java.io.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A buffer pool split into independent partitions, so that threads
+ * missing on different pages do not contend for one clock hand, free
+ * list or replacement policy. Each (file, page) pair is hashed onto
+ * one partition, a BufferManager of its own with its own page table,
+ * replacement state and free list; the partitions share only the
+ * registry of open databases. The methods are those of BufferManager
+ * and behave the same, except that a partition can be full while
+ * others have room.
+ *
+ * To even out the load, a partition with every frame pinned can steal
+ * a frame from the largest other partition: the donor gives up its
+ * last frame if it is not pinned, and the thief grows by one (see
+ * BufferManager.resize). Stealing is off by default; see setStealing.
+ *
+ * Hit ratios are kept per partition, so that a skewed hash or a hot
+ * partition shows up.
+ * @author Yawen Chen and Tao Liu
+ */
+public class PartitionedBufferManager implements Closeable
+{
+    private final BufferManager[] partitions;
+    // Shared by every partition, so that a database is opened once.
+    private final FileRegistry files;
+    // A partition is not shrunk below this by stealing.
+    private final int minPartitionSize;
+    private volatile boolean stealing;
+    // Serializes steals, so that two partitions do not rob each other.
+    private final Object stealLock = new Object();
+    private final LongAdder steals = new LongAdder();
+
+    /**
+     * Creates a pool with a partition per available processor, but no
+     * more partitions than frames.
+     * @param poolSize the number of pages that the pool can hold.
+     */
+    public PartitionedBufferManager(int poolSize)
+    {
+        this(poolSize, Math.min(poolSize,
+                                Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Creates a pool with the given number of partitions, each with a
+     * clock policy.
+     * @param poolSize the number of pages that the pool can hold.
+     * @param numPartitions the number of partitions.
+     */
+    public PartitionedBufferManager(int poolSize, int numPartitions)
+    {
+        this(poolSize, numPartitions, FileRegistry.DEFAULT_CAPACITY, false,
+             ClockPolicy::new);
+    }
+
+    /**
+     * Creates a pool with the given number of partitions. The frames
+     * are divided between the partitions as evenly as possible.
+     * @param poolSize the number of pages that the pool can hold.
+     * @param numPartitions the number of partitions, from 1 to
+     * poolSize.
+     * @param maxOpenFiles the number of databases kept open at once.
+     * @param offHeap if true, each partition is an off-heap FrameArena.
+     * @param policies makes a replacement policy for each partition.
+     */
+    public PartitionedBufferManager(int poolSize, int numPartitions,
+                                    int maxOpenFiles, boolean offHeap,
+                                    Supplier<ReplacementPolicy> policies)
+    {
+        if (numPartitions < 1 || numPartitions > poolSize)
+            throw new IllegalArgumentException("numPartitions " + numPartitions);
+        files = new FileRegistry(maxOpenFiles);
+        partitions = new BufferManager[numPartitions];
+        for (int p = 0; p < numPartitions; p++) {
+            int size = poolSize / numPartitions
+                + (p < poolSize % numPartitions ? 1 : 0);
+            partitions[p] = new BufferManager(size, files, offHeap,
+                                              policies.get(), Page.PAGESIZE);
+        }
+        minPartitionSize = Math.max(1, poolSize / numPartitions / 4);
+    }
+
+    /**
+     * Closes every database held open by the pool. Dirty pages are not
+     * flushed; call flushAllPages first if needed.
+     * @throws IOException passed through from underlying file system.
+     */
+    public void close() throws IOException
+    {
+        for (BufferManager partition : partitions)
+            partition.close();
+        files.close();
+    }
+
+    /**
+     * Turns stealing of frames between partitions on or off.
+     * @param stealing true to let a full partition take a frame from
+     * another.
+     */
+    public void setStealing(boolean stealing)
+    {
+        this.stealing = stealing;
+    }
+
+    /**
+     * Returns the number of frames moved between partitions.
+     * @return the number of steals.
+     */
+    public long getSteals()
+    {
+        return steals.sum();
+    }
+
+    /**
+     * Returns the number of partitions.
+     * @return the number of partitions.
+     */
+    public int getNumPartitions()
+    {
+        return partitions.length;
+    }
+
+    /**
+     * Returns the partition a page belongs to.
+     * @param pageId the page id.
+     * @param fileName the name of the database that contains the page.
+     * @return the partition number.
+     */
+    public int partitionOf(int pageId, String fileName)
+    {
+        // Golden-ratio multiply, then fold the high bits down, so that
+        // consecutive pages spread over the partitions.
+        int h = (fileName.hashCode() * 0x9e3779b9 + pageId) * 0x9e3779b9;
+        return Math.floorMod(h ^ (h >>> 16), partitions.length);
+    }
+
+    /**
+     * Returns the number of frames in a partition.
+     * @param partition the partition number.
+     * @return the partition's pool size.
+     */
+    public int getPartitionSize(int partition)
+    {
+        return partitions[partition].poolSize();
+    }
+
+    /**
+     * Returns the number of pins in a partition that found their page
+     * in the pool.
+     * @param partition the partition number.
+     * @return the number of hits.
+     */
+    public long getHits(int partition)
+    {
+        return partitions[partition].getHits();
+    }
+
+    /**
+     * Returns the number of pins in a partition that read their page.
+     * @param partition the partition number.
+     * @return the number of misses.
+     */
+    public long getMisses(int partition)
+    {
+        return partitions[partition].getMisses();
+    }
+
+    /**
+     * Returns the fraction of pins in a partition that were hits.
+     * @param partition the partition number.
+     * @return the hit ratio, or 0 if nothing has been pinned.
+     */
+    public double getHitRatio(int partition)
+    {
+        long hits = getHits(partition);
+        long pins = hits + getMisses(partition);
+        return pins == 0 ? 0.0 : (double)hits / pins;
+    }
+
+    /**
+     * Returns the pool size, the sum of the partitions' sizes.
+     * @return the pool size.
+     */
+    public int poolSize()
+    {
+        int size = 0;
+        for (BufferManager partition : partitions)
+            size += partition.poolSize();
+        return size;
+    }
+
+    /**
+     * Selects how a database is accessed. See
+     * BufferManager.setFileMode.
+     * @param fileName the name of the database.
+     * @param mode the access mode.
+     * @throws IOException passed through from underlying file system.
+     */
+    public void setFileMode(String fileName, DBFile.Mode mode)
+        throws IOException
+    {
+        files.setMode(fileName, mode);
+    }
+
+    /**
+     * Lets a database grow when it is full. See
+     * BufferManager.setFileAutoExtend.
+     * @param fileName the name of the database.
+     * @param chunkPages the number of pages to grow by.
+     * @param growth how the growth step is chosen.
+     * @param preallocate whether new pages are written out ahead of use.
+     */
+    public void setFileAutoExtend(String fileName, int chunkPages,
+                                  DBFile.Growth growth, boolean preallocate)
+    {
+        files.setAutoExtend(fileName, chunkPages, growth, preallocate);
+    }
+
+    /**
+     * Pins a page in its partition. See BufferManager.pinPage.
+     * @param pinPageId the page id for the page to be pinned
+     * @param fileName the name of the database that contains the page
+     * to be pinned
+     * @param emptyPage if true, the page is not read from disk.
+     * @return a reference to the page in the buffer pool. If its
+     * partition is full, and no frame can be stolen, null is returned.
+     * @throws IOException passed through from underlying file system.
+     */
+    public Page pinPage(int pinPageId, String fileName, boolean emptyPage)
+        throws IOException
+    {
+        return pinPage(pinPageId, fileName, emptyPage,
+                       BufferManager.AccessHint.NORMAL);
+    }
+
+    /**
+     * Pins a page in its partition, with a hint about how the page will
+     * be used. See BufferManager.pinPage.
+     * @param pinPageId the page id for the page to be pinned
+     * @param fileName the name of the database that contains the page
+     * to be pinned
+     * @param emptyPage if true, the page is not read from disk.
+     * @param hint how the page will be used.
+     * @return a reference to the page in the buffer pool, or null if
+     * its partition is full.
+     * @throws IOException passed through from underlying file system.
+     */
+    public Page pinPage(int pinPageId, String fileName, boolean emptyPage,
+                        BufferManager.AccessHint hint)
+        throws IOException
+    {
+        int p = partitionOf(pinPageId, fileName);
+        Page page = partitions[p].pinPage(pinPageId, fileName, emptyPage, hint);
+        while (page == null && stealing && steal(p))
+            page = partitions[p].pinPage(pinPageId, fileName, emptyPage, hint);
+        return page;
+    }
+
+    /**
+     * Unpins a page. See BufferManager.unpinPage.
+     * @param unpinPageId the page id for the page to be unpinned
+     * @param fileName the name of the database that contains the page
+     * to be unpinned
+     * @param dirty if false, then the page does not actually need to
+     * be written back to disk.
+     * @throws BufferManager.PageNotPinnedException if the page is not
+     * pinned.
+     * @throws IOException passed through from underlying file system.
+     */
+    public void unpinPage(int unpinPageId, String fileName, boolean dirty)
+        throws IOException
+    {
+        partitions[partitionOf(unpinPageId, fileName)]
+            .unpinPage(unpinPageId, fileName, dirty);
+    }
+
+    /**
+     * Allocates a run of new pages and pins the first one in its
+     * partition. The partition is only known once the pages are
+     * allocated, so if it is full the run is freed again.
+     * @param numPages the number of pages in the run to be allocated.
+     * @param fileName the name of the database from where pages are
+     * to be allocated.
+     * @return an Integer containing the first page id of the run, and
+     * a references to the Page which has been pinned in the buffer
+     * pool. Returns null if the partition of the first page is full.
+     * @throws DBFile.FileFullException if there are not enough free pages.
+     * @throws IOException passed through from underlying file system.
+     */
+    public Pair<Integer,Page> newPage(int numPages, String fileName)
+        throws IOException
+    {
+        int firstPageId;
+        DBFile dbFile = files.acquire(fileName);
+        try {
+            firstPageId = dbFile.allocatePages(numPages);
+        }
+        finally {
+            files.release(dbFile);
+        }
+        Page page;
+        try {
+            page = pinPage(firstPageId, fileName, false);
+        }
+        catch (IOException | RuntimeException e) {
+            deallocate(firstPageId, numPages, fileName);
+            throw e;
+        }
+        if (page == null) {
+            deallocate(firstPageId, numPages, fileName);
+            return null;
+        }
+        return new Pair<Integer,Page>(firstPageId, page);
+    }
+
+    /**
+     * Drops a page from its partition and frees it in the database.
+     * See BufferManager.freePage.
+     * @param pageId the page id to be deallocated.
+     * @param fileName the name of the database from where the page is
+     * to be deallocated.
+     * @throws BufferManager.PagePinnedException if the page is pinned
+     * @throws IOException passed through from underlying file system.
+     */
+    public void freePage(int pageId, String fileName) throws IOException
+    {
+        partitions[partitionOf(pageId, fileName)].freePage(pageId, fileName);
+    }
+
+    /**
+     * Writes a page back if it is dirty. See BufferManager.flushPage.
+     * @param pageId the page id to be flushed.
+     * @param fileName the name of the database where the page should
+     * be flushed.
+     * @throws IOException passed through from underlying file system.
+     */
+    public void flushPage(int pageId, String fileName) throws IOException
+    {
+        partitions[partitionOf(pageId, fileName)].flushPage(pageId, fileName);
+    }
+
+    /**
+     * Writes back every dirty page in every partition. See
+     * BufferManager.flushAllPages.
+     * @throws IOException passed through from underlying file system.
+     */
+    public void flushAllPages() throws IOException
+    {
+        for (BufferManager partition : partitions)
+            partition.flushAllPages();
+    }
+
+    /**
+     * Returns the frame holding a page, for testing. Frames are
+     * numbered across the partitions by interleaving: frame f of
+     * partition p is numbered f * getNumPartitions() + p.
+     * @param pageId the page id to be looked up.
+     * @param fileName the file name to be looked up.
+     * @return the frame number, or -1 if the page is not in the pool.
+     */
+    public int findFrame(int pageId, String fileName)
+    {
+        int p = partitionOf(pageId, fileName);
+        int frame = partitions[p].findFrame(pageId, fileName);
+        return frame < 0 ? -1 : frame * partitions.length + p;
+    }
+
+    /**
+     * Returns the pin count of a frame numbered as by findFrame.
+     * @param frame the frame number.
+     * @return the pin count.
+     */
+    public int checkPinCount(int frame)
+    {
+        return partitions[frame % partitions.length]
+            .checkPinCount(frame / partitions.length);
+    }
+
+    /**
+     * Moves a frame to a full partition from the largest other
+     * partition whose last frame is not pinned.
+     * @return true if a frame was moved.
+     */
+    private boolean steal(int thief) throws IOException
+    {
+        synchronized (stealLock) {
+            boolean[] tried = new boolean[partitions.length];
+            tried[thief] = true;
+            for (;;) {
+                int donor = -1;
+                for (int p = 0; p < partitions.length; p++)
+                    if (!tried[p] && partitions[p].poolSize() > minPartitionSize
+                        && (donor < 0 || partitions[p].poolSize()
+                            > partitions[donor].poolSize()))
+                        donor = p;
+                if (donor < 0)
+                    return false;
+                tried[donor] = true;
+                int size = partitions[donor].poolSize();
+                if (partitions[donor].tryShrink(size - 1) < size) {
+                    BufferManager target = partitions[thief];
+                    target.resize(target.poolSize() + 1);
+                    steals.increment();
+                    return true;
+                }
+            }
+        }
+    }
+
+    private void deallocate(int firstPageId, int numPages, String fileName)
+        throws IOException
+    {
+        DBFile dbFile = files.acquire(fileName);
+        try {
+            dbFile.deallocatePages(firstPageId, numPages);
+        }
+        finally {
+            files.release(dbFile);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Decides which page the buffer manager replaces when it needs a
+ * frame. The buffer manager tells the policy about every page that is
+ * loaded, pinned, unpinned and removed, and asks it for a victim on a
+ * miss.
+ *
+ * Hooks are called concurrently from many threads, and pinned() is on
+ * the hit path, so implementations must be thread-safe and should keep
+ * that hook cheap. A policy instance belongs to one buffer manager.
+ * @author Yawen Chen and Tao Liu
+ */
+public interface ReplacementPolicy
+{
+    /**
+     * Returned by victim() when no frame can be replaced.
+     */
+    public static final int NO_VICTIM = -1;
+
+    /**
+     * The buffer manager's frames, as a policy sees them.
+     */
+    public static interface Frames
+    {
+        /** sweep() claimed the frame. */
+        public static final int CLAIMED = 0;
+        /** sweep() found the frame unpinned but did not claim it. */
+        public static final int UNPINNED = 1;
+        /** sweep() found the frame pinned, empty or otherwise busy. */
+        public static final int BUSY = 2;
+
+        /**
+         * Returns the number of frames.
+         * @return the pool size.
+         */
+        int size();
+
+        /**
+         * Claims a frame for replacement if it holds a page and nobody
+         * has it pinned. A claimed frame is handed to the buffer
+         * manager, which either removes its page or gives it back.
+         * @param frame the frame index.
+         * @return true if the frame was claimed.
+         */
+        boolean tryClaim(int frame);
+
+        /**
+         * One step of a clock sweep over the frame's reference bit,
+         * which the buffer manager sets on every pin: an unpinned frame
+         * with the bit clear is claimed, one with the bit set has it
+         * cleared instead.
+         * @param frame the frame index.
+         * @return CLAIMED, UNPINNED or BUSY.
+         */
+        int sweep(int frame);
+    }
+
+    /**
+     * Connects the policy to the buffer manager's frames. Called once,
+     * before any other hook.
+     * @param frames the frames to manage.
+     */
+    void attach(Frames frames);
+
+    /**
+     * A page has been read into a frame, and is pinned.
+     * @param frame the frame index.
+     * @param key the page's PageTable key.
+     */
+    default void loaded(int frame, long key)
+    {
+    }
+
+    /**
+     * A page already in the pool has been pinned again.
+     * @param frame the frame index.
+     */
+    default void pinned(int frame)
+    {
+    }
+
+    /**
+     * A frame's pin count has dropped to zero, or a frame claimed from
+     * the policy has been given back still holding its page.
+     * @param frame the frame index.
+     */
+    default void unpinned(int frame)
+    {
+    }
+
+    /**
+     * The page in a frame has been evicted or freed.
+     * @param frame the frame index.
+     */
+    default void removed(int frame)
+    {
+    }
+
+    /**
+     * The buffer manager's pool has been resized. After growing, the
+     * hooks may be called for frames up to the new size; before
+     * shrinking, every frame beyond the new size has been removed.
+     * Policies that size their bookkeeping by the pool must override
+     * this.
+     * @param poolSize the new number of frames.
+     */
+    default void resized(int poolSize)
+    {
+    }
+
+    /**
+     * Chooses a frame whose page should be replaced and claims it with
+     * Frames.tryClaim or Frames.sweep.
+     * @return the claimed frame, or NO_VICTIM if no frame could be
+     * claimed.
+     */
+    int victim();
+
+    /**
+     * Lists frames the policy expects to replace soon, most imminent
+     * first, without claiming them. Used by the background writer to
+     * clean pages before they are evicted; the answer is only a hint.
+     * @param frames an array to fill.
+     * @return the number of frames filled in; 0 if the policy cannot
+     * tell.
+     */
+    default int upcomingVictims(int[] frames)
+    {
+        return 0;
+    }
+}
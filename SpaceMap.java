@@ -0,0 +1,282 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory copy of a database's space map. Allocation is tracked in a
+ * bitmap with one bit per page, so checking a page costs one bit test.
+ * Free pages are also indexed as extents (maximal runs of free pages),
+ * both by start and by size, so that an allocation finds a run in
+ * O(log n) rather than scanning the map.
+ *
+ * Allocation is best-fit: the smallest free extent that can hold the
+ * run, the lowest-addressed one among extents of that size. On an
+ * unfragmented file this is the same as first-fit. A true first-fit
+ * search in O(log n) would need an augmented tree; best-fit gets by
+ * with two sorted indexes and fragments the file less.
+ *
+ * The map remembers which part of it has changed since the last
+ * writeback, so that the owner can write changes back to the map file
+ * in batches. It can be extended to cover more pages as the database
+ * grows. Updates must be serialized by the caller; isAllocated may be
+ * called concurrently with them.
+ * @author Yawen Chen and Tao Liu
+ */
+public class SpaceMap
+{
+    private volatile int numPages;
+    // Replaced by a larger copy when the map is extended.
+    private volatile AtomicLongArray bits;
+    private int numFree;
+    // Free extents: start to length, and (length, start) packed into a
+    // long so that ordering is by size, then address.
+    private final TreeMap<Integer, Integer> freeByStart =
+        new TreeMap<Integer, Integer>();
+    private final TreeSet<Long> freeBySize = new TreeSet<Long>();
+    // Pages changed since the last call to clean(), as a range.
+    private int dirtyFrom = Integer.MAX_VALUE;
+    private int dirtyTo = 0;
+    private int numChanged;
+
+    /**
+     * Builds the map from the contents of a map file.
+     * @param map one byte per page, non-zero if the page is allocated.
+     */
+    public SpaceMap(byte[] map)
+    {
+        numPages = map.length;
+        bits = new AtomicLongArray((numPages + 63) >>> 6);
+        int freeStart = -1;
+        for (int i = 0; i < numPages; i++)
+        {
+            if (map[i] != 0)
+            {
+                set(i, true);
+                if (freeStart >= 0)
+                    addExtent(freeStart, i - freeStart);
+                freeStart = -1;
+            }
+            else if (freeStart < 0)
+                freeStart = i;
+        }
+        if (freeStart >= 0)
+            addExtent(freeStart, numPages - freeStart);
+    }
+
+    /**
+     * Extends the map to cover more pages. The new pages are neither
+     * allocated nor free until addFree is called for them, so that the
+     * owner can prepare them first.
+     * @param newNumPages the new number of pages; no fewer than now.
+     */
+    public void extend(int newNumPages)
+    {
+        if (newNumPages <= numPages)
+            return;
+        AtomicLongArray old = bits;
+        AtomicLongArray grown = new AtomicLongArray((newNumPages + 63) >>> 6);
+        for (int i = 0; i < old.length(); i++)
+            grown.set(i, old.get(i));
+        bits = grown;
+        numPages = newNumPages;
+    }
+
+    /**
+     * Makes pages added by extend available for allocation.
+     * @param start the first page.
+     * @param length the number of pages.
+     */
+    public void addFree(int start, int length)
+    {
+        release(start, length);
+    }
+
+    /**
+     * Returns the number of free pages available for allocation.
+     * @return the number of free pages.
+     */
+    public int getNumFree()
+    {
+        return numFree;
+    }
+
+    /**
+     * Returns the number of pages covered by the map.
+     * @return the number of pages.
+     */
+    public int getNumPages()
+    {
+        return numPages;
+    }
+
+    /**
+     * Checks whether a page is allocated.
+     * @param pageNum a page number in the map.
+     * @return true if the page is allocated.
+     */
+    public boolean isAllocated(int pageNum)
+    {
+        AtomicLongArray bits = this.bits;
+        int word = pageNum >>> 6;
+        return word < bits.length()
+            && (bits.get(word) & (1L << pageNum)) != 0;
+    }
+
+    /**
+     * Checks whether every page of a run is allocated.
+     * @param firstPageNum the first page of the run.
+     * @param count the number of pages in the run.
+     * @return true if all of them are allocated.
+     */
+    public boolean isAllocated(int firstPageNum, int count)
+    {
+        for (int i = firstPageNum; i < firstPageNum + count; i++)
+            if (!isAllocated(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Allocates a run of pages.
+     * @param runSize the number of pages in the run.
+     * @return the first page of the run, or -1 if no free extent is
+     * large enough.
+     */
+    public int allocate(int runSize)
+    {
+        Long extent = freeBySize.ceiling((long)runSize << 32);
+        if (extent == null)
+            return -1;
+        int start = (int)(long)extent;
+        int length = (int)(extent >>> 32);
+        removeExtent(start, length);
+        if (length > runSize)
+            addExtent(start + runSize, length - runSize);
+        for (int i = start; i < start + runSize; i++)
+            set(i, true);
+        changed(start, runSize);
+        return start;
+    }
+
+    /**
+     * Frees a run of pages. Pages in the run that are already free
+     * stay free.
+     * @param startPageNum the first page of the run.
+     * @param runSize the number of pages in the run.
+     */
+    public void free(int startPageNum, int runSize)
+    {
+        int end = startPageNum + runSize;
+        for (int i = startPageNum; i < end; )
+        {
+            if (!isAllocated(i))
+            {
+                i++;
+                continue;
+            }
+            int runStart = i;
+            while (i < end && isAllocated(i))
+                set(i++, false);
+            release(runStart, i - runStart);
+        }
+        changed(startPageNum, runSize);
+    }
+
+    /**
+     * Returns the number of page updates since the last clean().
+     * @return the number of changes pending writeback.
+     */
+    public int pendingChanges()
+    {
+        return numChanged;
+    }
+
+    /**
+     * Returns the map bytes for the part of the map that has changed
+     * since the last clean().
+     * @return the changed bytes, starting at dirtyFrom(); empty if
+     * nothing has changed.
+     */
+    public byte[] changedBytes()
+    {
+        if (dirtyFrom >= dirtyTo)
+            return new byte[0];
+        byte[] map = new byte[dirtyTo - dirtyFrom];
+        for (int i = 0; i < map.length; i++)
+            map[i] = (byte)(isAllocated(dirtyFrom + i) ? 1 : 0);
+        return map;
+    }
+
+    /**
+     * Returns the first page covered by changedBytes().
+     * @return the first changed page.
+     */
+    public int dirtyFrom()
+    {
+        return dirtyFrom;
+    }
+
+    /**
+     * Forgets the changes made so far, once they have been written.
+     */
+    public void clean()
+    {
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = 0;
+        numChanged = 0;
+    }
+
+    private void set(int pageNum, boolean allocated)
+    {
+        // Updates are serialized, so a plain read-modify-write will do;
+        // the volatile write publishes it to readers.
+        int word = pageNum >>> 6;
+        long mask = 1L << pageNum;
+        long w = bits.get(word);
+        bits.set(word, allocated ? w | mask : w & ~mask);
+    }
+
+    private void changed(int start, int count)
+    {
+        dirtyFrom = Math.min(dirtyFrom, start);
+        dirtyTo = Math.max(dirtyTo, start + count);
+        numChanged += count;
+    }
+
+    /**
+     * Adds newly freed pages to the extent index, merging them with
+     * the free extents on either side.
+     */
+    private void release(int start, int length)
+    {
+        Map.Entry<Integer, Integer> before = freeByStart.floorEntry(start);
+        if (before != null && before.getKey() + before.getValue() == start)
+        {
+            removeExtent(before.getKey(), before.getValue());
+            start = before.getKey();
+            length += before.getValue();
+        }
+        Integer afterLength = freeByStart.get(start + length);
+        if (afterLength != null)
+        {
+            removeExtent(start + length, afterLength);
+            length += afterLength;
+        }
+        addExtent(start, length);
+    }
+
+    private void addExtent(int start, int length)
+    {
+        freeByStart.put(start, length);
+        freeBySize.add(((long)length << 32) | start);
+        numFree += length;
+    }
+
+    private void removeExtent(int start, int length)
+    {
+        freeByStart.remove(start);
+        freeBySize.remove(((long)length << 32) | start);
+        numFree -= length;
+    }
+}
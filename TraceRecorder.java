@@ -0,0 +1,360 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records a buffer manager's pins, unpins, new pages and freed pages
+ * to a compact binary trace, for TraceSimulator to replay against
+ * other pool sizes and replacement policies.
+ *
+ * A trace is a 16-byte header (magic, version, and the wall-clock
+ * start time in milliseconds) followed by 16-byte big-endian records:
+ *
+ *     type     1 byte   PIN, UNPIN, NEW_PAGE, FREE_PAGE or FILE
+ *     flags    1 byte   for PIN and NEW_PAGE, the AccessHint ordinal;
+ *                       for UNPIN, DIRTY if the page was unpinned dirty
+ *     file id  4 bytes  the buffer manager's id for the database
+ *     page id  4 bytes  for FILE, the length of the name instead
+ *     time     6 bytes  nanoseconds since the trace started
+ *
+ * A FILE record names a file id, and is followed by the name in
+ * UTF-8. Pins are recorded as requested, whether they hit, miss or
+ * find the pool full, except that the pins of a pinRange are recorded
+ * only once the whole run is pinned; newPage is recorded once the run
+ * is allocated, and freePage once the page is deallocated.
+ *
+ * Records from all threads go through one buffer under a lock, so the
+ * trace is in the order the calls were made. If a write fails,
+ * recording stops and close() throws the error; the buffer manager
+ * carries on regardless.
+ *
+ * Started and stopped through BufferManager.startTrace and
+ * BufferManager.stopTrace.
+ * @author Yawen Chen and Tao Liu
+ */
+public class TraceRecorder implements Closeable
+{
+    public static class BadTraceException extends RuntimeException {};
+
+    /** A pinPage, or one page of a pinRange. */
+    public static final int PIN = 0;
+    /** An unpinPage. */
+    public static final int UNPIN = 1;
+    /** The first page of a run allocated and pinned by newPage. */
+    public static final int NEW_PAGE = 2;
+    /** A freePage. */
+    public static final int FREE_PAGE = 3;
+    /** Names a file id. */
+    public static final int FILE = 4;
+
+    /** UNPIN flag: the page was unpinned dirty. */
+    public static final int DIRTY = 1;
+
+    private static final int MAGIC = 0x424d5452;         // "BMTR"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 16;
+    private static final int RECORD_LENGTH = 16;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final String fileName;
+    private final FileChannel channel;
+    private final long startNanos;
+    // Guarded by this, as are channel writes.
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private IOException failure;
+    private boolean closed;
+    private final AtomicLong events = new AtomicLong();
+
+    /**
+     * Creates a trace file, replacing any file of that name.
+     * @param fileName the name of the trace file.
+     * @throws IOException passed through from underlying file system.
+     */
+    TraceRecorder(String fileName) throws IOException
+    {
+        this.fileName = fileName;
+        channel = FileChannel.open(Paths.get(fileName),
+                                   StandardOpenOption.CREATE,
+                                   StandardOpenOption.TRUNCATE_EXISTING,
+                                   StandardOpenOption.WRITE);
+        startNanos = System.nanoTime();
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Appends an event.
+     * @param type PIN, UNPIN, NEW_PAGE or FREE_PAGE.
+     * @param flags the record's flags.
+     * @param fileId the buffer manager's id for the database.
+     * @param pageId the page id.
+     */
+    void record(int type, int flags, int fileId, int pageId)
+    {
+        long time = System.nanoTime() - startNanos;
+        synchronized (this) {
+            if (closed || failure != null)
+                return;
+            if (buffer.remaining() < RECORD_LENGTH)
+                drain();
+            put(type, flags, fileId, pageId, time);
+        }
+        events.incrementAndGet();
+    }
+
+    /**
+     * Appends a FILE record naming a file id.
+     * @param fileId the buffer manager's id for the database.
+     * @param name the name of the database.
+     */
+    synchronized void file(int fileId, String name)
+    {
+        if (closed || failure != null)
+            return;
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (buffer.remaining() < RECORD_LENGTH + bytes.length)
+            drain();
+        if (buffer.remaining() < RECORD_LENGTH + bytes.length)
+            return;     // a name longer than the buffer; leave it unnamed
+        put(FILE, 0, fileId, bytes.length, System.nanoTime() - startNanos);
+        buffer.put(bytes);
+    }
+
+    private void put(int type, int flags, int fileId, int pageId, long time)
+    {
+        buffer.put((byte)type);
+        buffer.put((byte)flags);
+        buffer.putInt(fileId);
+        buffer.putInt(pageId);
+        buffer.putShort((short)(time >>> 32));
+        buffer.putInt((int)time);
+    }
+
+    // Writes out the buffer; called holding the lock.
+    private void drain()
+    {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        catch (IOException e) {
+            failure = e;
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns the name of the trace file.
+     * @return the file name.
+     */
+    public String getFileName()
+    {
+        return fileName;
+    }
+
+    /**
+     * Returns the number of events recorded so far, not counting FILE
+     * records.
+     * @return the number of events.
+     */
+    public long getEvents()
+    {
+        return events.get();
+    }
+
+    /**
+     * Writes out what is buffered and closes the trace file. Events
+     * recorded after this are dropped.
+     * @throws IOException if a write failed, now or earlier.
+     */
+    public synchronized void close() throws IOException
+    {
+        if (closed)
+            return;
+        closed = true;
+        if (failure == null)
+            drain();
+        channel.close();
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Reads a trace back, one record at a time. FILE records are
+     * consumed by next() rather than returned; getFileName gives the
+     * names they define.
+     */
+    public static class Reader implements Closeable
+    {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        private final long startMillis;
+        private final HashMap<Integer, String> names =
+            new HashMap<Integer, String>();
+        private int type;
+        private int flags;
+        private int fileId;
+        private int pageId;
+        private long time;
+
+        /**
+         * Opens a trace.
+         * @param fileName the name of the trace file.
+         * @throws BadTraceException if the file is not a trace.
+         * @throws IOException passed through from underlying file system.
+         */
+        public Reader(String fileName) throws IOException
+        {
+            channel = FileChannel.open(Paths.get(fileName),
+                                       StandardOpenOption.READ);
+            buffer.limit(0);
+            try {
+                if (!fill(HEADER_LENGTH) || buffer.getInt() != MAGIC
+                    || buffer.getInt() != VERSION)
+                    throw new BadTraceException();
+            }
+            catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            startMillis = buffer.getLong();
+        }
+
+        // Makes sure n bytes are buffered; false at the end of the file.
+        private boolean fill(int n) throws IOException
+        {
+            if (buffer.remaining() >= n)
+                return true;
+            buffer.compact();
+            while (buffer.position() < n) {
+                if (channel.read(buffer) < 0) {
+                    buffer.flip();
+                    return false;
+                }
+            }
+            buffer.flip();
+            return true;
+        }
+
+        /**
+         * Advances to the next event.
+         * @return false at the end of the trace.
+         * @throws BadTraceException if the trace ends in mid-record.
+         * @throws IOException passed through from underlying file system.
+         */
+        public boolean next() throws IOException
+        {
+            for (;;) {
+                if (!fill(RECORD_LENGTH)) {
+                    if (buffer.hasRemaining())
+                        throw new BadTraceException();
+                    return false;
+                }
+                type = buffer.get();
+                flags = buffer.get() & 0xff;
+                fileId = buffer.getInt();
+                pageId = buffer.getInt();
+                time = ((buffer.getShort() & 0xffffL) << 32)
+                    | (buffer.getInt() & 0xffffffffL);
+                if (type != FILE)
+                    return true;
+                if (pageId > buffer.capacity() || !fill(pageId))
+                    throw new BadTraceException();
+                byte[] bytes = new byte[pageId];
+                buffer.get(bytes);
+                names.put(fileId, new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+
+        /**
+         * Returns the current event's type.
+         * @return PIN, UNPIN, NEW_PAGE or FREE_PAGE.
+         */
+        public int getType()
+        {
+            return type;
+        }
+
+        /**
+         * Returns the current event's flags.
+         * @return for PIN and NEW_PAGE, the AccessHint ordinal; for
+         * UNPIN, DIRTY or 0.
+         */
+        public int getFlags()
+        {
+            return flags;
+        }
+
+        /**
+         * Returns the current event's file id.
+         * @return the file id.
+         */
+        public int getFileId()
+        {
+            return fileId;
+        }
+
+        /**
+         * Returns the current event's page id.
+         * @return the page id.
+         */
+        public int getPageId()
+        {
+            return pageId;
+        }
+
+        /**
+         * Returns the current event's PageTable key.
+         * @return the key.
+         */
+        public long getKey()
+        {
+            return PageTable.key(fileId, pageId);
+        }
+
+        /**
+         * Returns when the current event happened.
+         * @return nanoseconds since the trace started.
+         */
+        public long getTime()
+        {
+            return time;
+        }
+
+        /**
+         * Returns when the trace started.
+         * @return the wall-clock time, in milliseconds since the epoch.
+         */
+        public long getStartMillis()
+        {
+            return startMillis;
+        }
+
+        /**
+         * Returns the name of a database, if a FILE record read so far
+         * names it.
+         * @param fileId the file id.
+         * @return the name, or null.
+         */
+        public String getFileName(int fileId)
+        {
+            return names.get(fileId);
+        }
+
+        /**
+         * Closes the trace file.
+         * @throws IOException passed through from underlying file system.
+         */
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+}
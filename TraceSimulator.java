@@ -0,0 +1,616 @@
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Replays a trace made by TraceRecorder against a range of pool sizes
+ * and replacement policies at once, and prints the miss ratio of each:
+ *
+ *     java TraceSimulator trace [poolSizes] [policies] [samplingRate]
+ *
+ * Pool sizes and policies are comma-separated lists; an empty
+ * argument takes the default. The pool sizes
+ * default to the powers of two from 64 to 65536; the policies are
+ * CLOCK, LRUK, TWOQUEUE and ARC, which are the buffer manager's own
+ * classes driven through simulated frames, and LRU, whose whole miss
+ * ratio curve comes from one stack-distance pass (Mattson et al.).
+ * All of them by default.
+ *
+ * The miss ratio is the share of pins that would have read their
+ * page. Pins keep their page until the matching unpin, as in the
+ * buffer manager, and a pin that finds every frame pinned counts as a
+ * miss. Hints are honoured as far as the policy is concerned, but the
+ * scan rings of SEQUENTIAL accesses are not simulated.
+ *
+ * With a sampling rate below 1, only the pages whose hash falls under
+ * the rate are simulated, in pools scaled down by the same rate
+ * (SHARDS; Waldspurger et al., FAST 2015). The curves stay close to
+ * the full ones as long as the scaled pools hold a few hundred pages,
+ * while memory and time shrink with the rate. Every sampled event
+ * goes to every simulation, and the policies cost what they cost in
+ * the buffer manager, so replaying a long trace against many pool
+ * sizes at a rate of 1 runs at a few hundred thousand events a
+ * second; at 0.01, several million.
+ * @author Yawen Chen and Tao Liu
+ */
+public class TraceSimulator
+{
+    /** The pseudo-policy whose curve comes from stack distances. */
+    public static final String LRU = "LRU";
+
+    private static final String[] DEFAULT_POLICIES = {
+        LRU, "CLOCK", "LRUK", "TWOQUEUE", "ARC"
+    };
+
+    private static final long EMPTY = -1L;
+
+    private final int[] poolSizes;
+    private final String[] policies;
+    private final double samplingRate;
+    private final long threshold;
+    // Simulations by policy, then pool size; null for LRU.
+    private final Simulation[][] simulations;
+    private final StackDistances stack;
+    private long events;
+    private long sampledPins;
+
+    /**
+     * Creates a simulator.
+     * @param poolSizes the pool sizes to simulate.
+     * @param policies the policies: LRU, CLOCK, LRUK, TWOQUEUE or ARC.
+     * @param samplingRate the share of pages to simulate, from 0
+     * exclusive to 1.
+     */
+    public TraceSimulator(int[] poolSizes, String[] policies,
+                          double samplingRate)
+    {
+        if (samplingRate <= 0 || samplingRate > 1)
+            throw new IllegalArgumentException("sampling rate");
+        this.poolSizes = poolSizes.clone();
+        this.policies = policies.clone();
+        this.samplingRate = samplingRate;
+        threshold = (long)(samplingRate * (1L << 24));
+        simulations = new Simulation[policies.length][];
+        StackDistances distances = null;
+        for (int p = 0; p < policies.length; p++) {
+            if (policies[p].equals(LRU)) {
+                distances = new StackDistances();
+                continue;
+            }
+            simulations[p] = new Simulation[poolSizes.length];
+            for (int s = 0; s < poolSizes.length; s++) {
+                int size = (int)Math.max(1, Math.round(poolSizes[s]
+                                                       * samplingRate));
+                simulations[p][s] = new Simulation(policy(policies[p]), size);
+            }
+        }
+        stack = distances;
+    }
+
+    /**
+     * Creates one of the buffer manager's policies by name.
+     * @param name CLOCK, LRUK, TWOQUEUE or ARC.
+     * @return a new policy.
+     */
+    public static ReplacementPolicy policy(String name)
+    {
+        switch (name) {
+        case "CLOCK":
+            return new ClockPolicy();
+        case "LRUK":
+            return new LruKPolicy();
+        case "TWOQUEUE":
+            return new TwoQueuePolicy();
+        case "ARC":
+            return new ArcPolicy();
+        default:
+            throw new IllegalArgumentException("policy " + name);
+        }
+    }
+
+    /**
+     * Replays a trace file.
+     * @param fileName the name of the trace file.
+     * @throws TraceRecorder.BadTraceException if the file is not a
+     * trace.
+     * @throws IOException passed through from underlying file system.
+     */
+    public void replay(String fileName) throws IOException
+    {
+        try (TraceRecorder.Reader reader = new TraceRecorder.Reader(fileName)) {
+            replay(reader);
+        }
+    }
+
+    /**
+     * Replays the rest of a trace.
+     * @param reader the trace.
+     * @throws IOException passed through from underlying file system.
+     */
+    public void replay(TraceRecorder.Reader reader) throws IOException
+    {
+        while (reader.next()) {
+            events++;
+            long key = reader.getKey();
+            if (!sampled(key))
+                continue;
+            int type = reader.getType();
+            int flags = reader.getFlags();
+            if (type == TraceRecorder.PIN)
+                sampledPins++;
+            if (stack != null)
+                stack.apply(type, key);
+            for (Simulation[] row : simulations) {
+                if (row == null)
+                    continue;
+                for (Simulation simulation : row)
+                    simulation.apply(type, flags, key);
+            }
+        }
+    }
+
+    private boolean sampled(long key)
+    {
+        if (threshold >= 1L << 24)
+            return true;
+        // A 64-bit finalizer (from SplitMix64) spreads the page ids.
+        long h = key;
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        h ^= h >>> 31;
+        return (h >>> 40) < threshold;
+    }
+
+    /**
+     * Returns the number of events replayed so far.
+     * @return the number of events.
+     */
+    public long getEvents()
+    {
+        return events;
+    }
+
+    /**
+     * Returns the number of pins simulated so far: all of them at a
+     * sampling rate of 1, otherwise those on sampled pages.
+     * @return the number of pins.
+     */
+    public long getSampledPins()
+    {
+        return sampledPins;
+    }
+
+    /**
+     * Returns the miss ratio of a policy at a pool size.
+     * @param policy one of the policies simulated.
+     * @param poolSize one of the pool sizes simulated; for LRU, any
+     * pool size.
+     * @return misses divided by pins, or 0 if there were no pins.
+     */
+    public double getMissRatio(String policy, int poolSize)
+    {
+        for (int p = 0; p < policies.length; p++) {
+            if (!policies[p].equals(policy))
+                continue;
+            if (simulations[p] == null)
+                return stack.missRatio(poolSize * samplingRate);
+            for (int s = 0; s < poolSizes.length; s++) {
+                if (poolSizes[s] == poolSize)
+                    return simulations[p][s].missRatio();
+            }
+        }
+        throw new IllegalArgumentException(policy + " at " + poolSize);
+    }
+
+    /**
+     * Prints a table of miss ratios, a row per pool size and a column
+     * per policy.
+     * @param out where to print.
+     */
+    public void print(PrintStream out)
+    {
+        out.printf("%10s", "pool size");
+        for (String policy : policies)
+            out.printf("%10s", policy);
+        out.println();
+        for (int poolSize : poolSizes) {
+            out.printf("%10d", poolSize);
+            for (String policy : policies)
+                out.printf("%10.4f", getMissRatio(policy, poolSize));
+            out.println();
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1) {
+            System.err.println("usage: java TraceSimulator trace"
+                               + " [poolSizes] [policies] [samplingRate]");
+            System.exit(2);
+        }
+        int[] poolSizes;
+        if (args.length > 1 && !args[1].isEmpty()) {
+            poolSizes = Arrays.stream(args[1].split(","))
+                .mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+        }
+        else {
+            poolSizes = new int[11];
+            for (int i = 0; i < poolSizes.length; i++)
+                poolSizes[i] = 64 << i;
+        }
+        String[] policies = args.length > 2 && !args[2].isEmpty() ?
+            args[2].split(",") : DEFAULT_POLICIES;
+        double rate = args.length > 3 ? Double.parseDouble(args[3]) : 1;
+
+        TraceSimulator simulator = new TraceSimulator(poolSizes, policies,
+                                                      rate);
+        long start = System.nanoTime();
+        simulator.replay(args[0]);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d events, %d pins simulated, in %.2f s"
+                          + " (%.1fM events/s)%n",
+                          simulator.getEvents(), simulator.getSampledPins(),
+                          seconds, simulator.getEvents() / seconds / 1e6);
+        simulator.print(System.out);
+    }
+
+    /**
+     * One policy at one pool size: a page table and frames with pin
+     * counts and reference bits, as the policy sees them in the buffer
+     * manager. Victims are evicted as soon as they are claimed, so a
+     * claim changes nothing here.
+     */
+    private static final class Simulation implements ReplacementPolicy.Frames
+    {
+        private final ReplacementPolicy policy;
+        private final KeyMap pageTable;
+        private final long[] keys;
+        private final int[] pinCounts;
+        private final boolean[] referenced;
+        private final int[] freeFrames;
+        private int numFreeFrames;
+        private long pins;
+        private long misses;
+
+        private Simulation(ReplacementPolicy policy, int size)
+        {
+            this.policy = policy;
+            pageTable = new KeyMap(size);
+            keys = new long[size];
+            Arrays.fill(keys, EMPTY);
+            pinCounts = new int[size];
+            referenced = new boolean[size];
+            freeFrames = new int[size];
+            for (int i = 0; i < size; i++)
+                freeFrames[i] = size - 1 - i;
+            numFreeFrames = size;
+            policy.attach(this);
+        }
+
+        public int size()
+        {
+            return keys.length;
+        }
+
+        public boolean tryClaim(int frame)
+        {
+            return keys[frame] != EMPTY && pinCounts[frame] == 0;
+        }
+
+        public int sweep(int frame)
+        {
+            if (keys[frame] == EMPTY || pinCounts[frame] > 0)
+                return BUSY;
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                return UNPINNED;
+            }
+            return CLAIMED;
+        }
+
+        private void apply(int type, int flags, long key)
+        {
+            switch (type) {
+            case TraceRecorder.PIN:
+                pins++;
+                pin(key, flags, true);
+                break;
+            case TraceRecorder.NEW_PAGE:
+                pin(key, flags, false);
+                break;
+            case TraceRecorder.UNPIN:
+                unpin(key);
+                break;
+            case TraceRecorder.FREE_PAGE:
+                free(key);
+                break;
+            default:
+                break;
+            }
+        }
+
+        private void pin(long key, int hint, boolean read)
+        {
+            boolean normal = hint == BufferManager.AccessHint.NORMAL.ordinal();
+            int frame = pageTable.get(key);
+            if (frame != KeyMap.NOT_FOUND) {
+                pinCounts[frame]++;
+                if (normal) {
+                    referenced[frame] = true;
+                    policy.pinned(frame);
+                }
+                return;
+            }
+            if (read)
+                misses++;
+            if (numFreeFrames > 0) {
+                frame = freeFrames[--numFreeFrames];
+            }
+            else {
+                frame = policy.victim();
+                if (frame == ReplacementPolicy.NO_VICTIM)
+                    return;
+                pageTable.remove(keys[frame]);
+                policy.removed(frame);
+            }
+            keys[frame] = key;
+            pageTable.put(key, frame);
+            policy.loaded(frame, key);
+            pinCounts[frame] = 1;
+            referenced[frame] = normal;
+        }
+
+        private void unpin(long key)
+        {
+            int frame = pageTable.get(key);
+            if (frame == KeyMap.NOT_FOUND || pinCounts[frame] == 0)
+                return;
+            if (--pinCounts[frame] == 0)
+                policy.unpinned(frame);
+        }
+
+        private void free(long key)
+        {
+            int frame = pageTable.get(key);
+            if (frame == KeyMap.NOT_FOUND || pinCounts[frame] > 0)
+                return;
+            pageTable.remove(key);
+            policy.removed(frame);
+            keys[frame] = EMPTY;
+            freeFrames[numFreeFrames++] = frame;
+        }
+
+        private double missRatio()
+        {
+            return pins == 0 ? 0 : (double)misses / pins;
+        }
+    }
+
+    /**
+     * LRU stack distances: for each pin, the number of other pages
+     * used since the page's last use. An LRU pool of n pages hits
+     * exactly when that number is below n, so one histogram gives the
+     * miss ratio of every pool size.
+     *
+     * Each page's last use is a position on a timeline, marked in a
+     * Fenwick tree, so a distance is the count of marks after the
+     * page's own. The timeline is compacted when it fills up.
+     */
+    private static final class StackDistances
+    {
+        // Page to position of its last use, and position to page.
+        private final KeyMap lastUse = new KeyMap(1024);
+        private long[] pageAt = new long[1024];
+        private int[] tree = new int[1025];
+        private int now;
+        private int numPages;
+        private long[] histogram = new long[1024];
+        private long coldMisses;
+        private long pins;
+
+        private void apply(int type, long key)
+        {
+            switch (type) {
+            case TraceRecorder.PIN:
+                pins++;
+                use(key, true);
+                break;
+            case TraceRecorder.NEW_PAGE:
+                use(key, false);
+                break;
+            case TraceRecorder.FREE_PAGE:
+                int last = lastUse.remove(key);
+                if (last != KeyMap.NOT_FOUND) {
+                    forget(last);
+                    numPages--;
+                }
+                break;
+            default:
+                break;
+            }
+        }
+
+        private void use(long key, boolean count)
+        {
+            int last = lastUse.get(key);
+            if (last != KeyMap.NOT_FOUND) {
+                if (count) {
+                    int distance = sum(now) - sum(last + 1);
+                    if (distance >= histogram.length)
+                        histogram = Arrays.copyOf(histogram, Math.max(
+                                                      distance + 1,
+                                                      2 * histogram.length));
+                    histogram[distance]++;
+                }
+                forget(last);
+            }
+            else {
+                if (count)
+                    coldMisses++;
+                numPages++;
+            }
+            if (now == pageAt.length)
+                compact();
+            pageAt[now] = key;
+            add(now, 1);
+            lastUse.put(key, now++);
+        }
+
+        private void forget(int position)
+        {
+            pageAt[position] = EMPTY;
+            add(position, -1);
+        }
+
+        // Moves the live positions to the front, in order, growing the
+        // timeline if it is more than half full.
+        private void compact()
+        {
+            if (2 * numPages > pageAt.length) {
+                pageAt = Arrays.copyOf(pageAt, 2 * pageAt.length);
+                tree = new int[pageAt.length + 1];
+            }
+            int live = 0;
+            for (int i = 0; i < now; i++) {
+                if (pageAt[i] != EMPTY) {
+                    pageAt[live] = pageAt[i];
+                    lastUse.put(pageAt[live], live);
+                    live++;
+                }
+            }
+            Arrays.fill(pageAt, live, pageAt.length, EMPTY);
+            now = live;
+            // Every position below live is marked.
+            Arrays.fill(tree, 0);
+            for (int i = 1; i < tree.length; i++) {
+                if (i <= live)
+                    tree[i]++;
+                int parent = i + (i & -i);
+                if (parent < tree.length)
+                    tree[parent] += tree[i];
+            }
+        }
+
+        private void add(int position, int delta)
+        {
+            for (int i = position + 1; i < tree.length; i += i & -i)
+                tree[i] += delta;
+        }
+
+        // The number of marks below position.
+        private int sum(int position)
+        {
+            int total = 0;
+            for (int i = position; i > 0; i -= i & -i)
+                total += tree[i];
+            return total;
+        }
+
+        private double missRatio(double poolSize)
+        {
+            if (pins == 0)
+                return 0;
+            long misses = coldMisses;
+            for (int d = (int)Math.min(histogram.length,
+                                       Math.ceil(poolSize));
+                 d < histogram.length; d++)
+                misses += histogram[d];
+            return (double)misses / pins;
+        }
+    }
+    /**
+     * A map from page keys to ints, for one thread. The same open
+     * addressing as PageTable, without the locks, which the simulator
+     * would otherwise pay for on every event of every simulation.
+     */
+    private static final class KeyMap
+    {
+        private static final int NOT_FOUND = -1;
+
+        private long[] keys;
+        private int[] values;
+        private int mask;
+        private int size;
+
+        private KeyMap(int expectedSize)
+        {
+            int capacity = Integer.highestOneBit(Math.max(4, 2 * expectedSize
+                                                          - 1)) << 1;
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            values = new int[capacity];
+            mask = capacity - 1;
+        }
+
+        private int slot(long key)
+        {
+            long h = key * 0x9e3779b97f4a7c15L;
+            return (int)(h ^ (h >>> 32)) & mask;
+        }
+
+        private int get(long key)
+        {
+            for (int i = slot(key); ; i = (i + 1) & mask) {
+                if (keys[i] == key)
+                    return values[i];
+                if (keys[i] == EMPTY)
+                    return NOT_FOUND;
+            }
+        }
+
+        private void put(long key, int value)
+        {
+            int i = slot(key);
+            for (; keys[i] != EMPTY; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+            }
+            keys[i] = key;
+            values[i] = value;
+            if (++size > keys.length / 2)
+                grow();
+        }
+
+        private int remove(long key)
+        {
+            int i = slot(key);
+            for (; keys[i] != key; i = (i + 1) & mask) {
+                if (keys[i] == EMPTY)
+                    return NOT_FOUND;
+            }
+            int value = values[i];
+            size--;
+            // Shift back the entries that probed past the hole.
+            for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+                int home = slot(keys[j]);
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    i = j;
+                }
+            }
+            keys[i] = EMPTY;
+            return value;
+        }
+
+        private void grow()
+        {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[2 * oldKeys.length];
+            Arrays.fill(keys, EMPTY);
+            values = new int[keys.length];
+            mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int j = slot(oldKeys[i]);
+                    while (keys[j] != EMPTY)
+                        j = (j + 1) & mask;
+                    keys[j] = oldKeys[i];
+                    values[j] = oldValues[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import java.util.Arrays;
+
+/**
+ * The 2Q replacement policy (Johnson and Shasha). A page seen for the
+ * first time goes into a FIFO queue, A1in. Pages replaced from A1in
+ * are remembered in a ghost queue, A1out, and a page that is missed
+ * again while in A1out goes into the main LRU queue, Am. Pages that
+ * are only touched once, such as those of a scan, therefore pass
+ * through A1in without disturbing Am.
+ *
+ * All queues are linked lists, so every hook is O(1). A pinned frame
+ * is parked off its queue rather than skipped over by every victim
+ * search: a hit in Am parks it to go back at the front, and a frame
+ * found pinned at the back of A1in goes back at the back, keeping the
+ * FIFO order of the rest.
+ * @author Yawen Chen and Tao Liu
+ */
+public class TwoQueuePolicy extends LockingPolicy
+{
+    private final double inRatio;
+    private final double outRatio;
+    private int maxIn;
+    private FrameList a1in;
+    private FrameList am;
+    private GhostList a1out;
+    private long[] keys;
+
+    /**
+     * Creates a 2Q policy with the tuning recommended in the paper:
+     * A1in holds a quarter of the pool and A1out remembers half as many
+     * pages as the pool holds.
+     */
+    public TwoQueuePolicy()
+    {
+        this(0.25, 0.5);
+    }
+
+    /**
+     * Creates a 2Q policy.
+     * @param inRatio the size of A1in as a fraction of the pool.
+     * @param outRatio the size of A1out as a fraction of the pool.
+     */
+    public TwoQueuePolicy(double inRatio, double outRatio)
+    {
+        this.inRatio = inRatio;
+        this.outRatio = outRatio;
+    }
+
+    protected void allocate(int poolSize)
+    {
+        maxIn = Math.max(1, (int)(inRatio * poolSize));
+        a1in = new FrameList(poolSize);
+        am = new FrameList(poolSize);
+        a1out = new GhostList((int)(outRatio * poolSize));
+        keys = new long[poolSize];
+    }
+
+    protected void resize(int poolSize)
+    {
+        maxIn = Math.max(1, (int)(inRatio * poolSize));
+        a1in.ensureCapacity(poolSize);
+        am.ensureCapacity(poolSize);
+        a1out = a1out.resized((int)(outRatio * poolSize));
+        if (poolSize > keys.length)
+            keys = Arrays.copyOf(keys, poolSize);
+    }
+
+    protected void onLoaded(int frame, long key)
+    {
+        keys[frame] = key;
+        if (a1out.remove(key))
+            am.addFirst(frame);
+        else
+            a1in.addFirst(frame);
+    }
+
+    protected void onPinned(int frame)
+    {
+        // A1in is a FIFO: hits there do not move the page, and it stays
+        // in place until it reaches the back.
+        if (am.remove(frame) || parkedList(frame) == am)
+            park(frame, am, true);
+    }
+
+    protected void onRemoved(int frame)
+    {
+        if (a1in.remove(frame))
+            a1out.add(keys[frame]);
+        else
+            am.remove(frame);
+    }
+
+    protected int chooseVictim()
+    {
+        int frame = NO_VICTIM;
+        if (a1in.residentSize() > maxIn)
+            frame = claimFromBack(a1in);
+        if (frame == NO_VICTIM)
+            frame = claimFromBack(am);
+        if (frame == NO_VICTIM)
+            frame = claimFromBack(a1in);
+        return frame;
+    }
+
+    protected int listVictims(int[] out)
+    {
+        if (a1in.residentSize() > maxIn)
+            return listFromBack(am, out, listFromBack(a1in, out, 0));
+        return listFromBack(a1in, out, listFromBack(am, out, 0));
+    }
+}
@@ -0,0 +1,69 @@
+package bufmgr;
+
+import java.io.*;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * DBFile.allocatePages on a fragmented space map. Before measuring,
+ * the whole database is allocated and then freed again in random
+ * runs of 1 to 32 pages until the given share of it is free. Each
+ * operation allocates a run and frees it again, so the map stays as
+ * fragmented as it started.
+ * @author Yawen Chen and Tao Liu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllocateBenchmark
+{
+    @Param({"65536"})
+    public int numPages;
+
+    @Param({"10", "50", "90"})
+    public int freePercent;
+
+    @Param({"1", "16"})
+    public int runSize;
+
+    private String fileName;
+    private DBFile file;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        fileName = Fixtures.createDatabase(numPages, Page.PAGESIZE);
+        file = new DBFile(fileName);
+        SplittableRandom random = new SplittableRandom(42);
+        long toFree = (long)numPages * freePercent / 100;
+        for (long freed = 0; freed < toFree; ) {
+            int start = random.nextInt(numPages);
+            int length = Math.min(1 + random.nextInt(32), numPages - start);
+            for (int i = start; i < start + length && freed < toFree; i++) {
+                if (file.isAllocated(i)) {
+                    file.deallocatePages(i, 1);
+                    freed++;
+                }
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        file.close();
+        Fixtures.eraseDatabase(fileName);
+    }
+
+    @Benchmark
+    public int allocateAndFree() throws IOException
+    {
+        int first = file.allocatePages(runSize);
+        file.deallocatePages(first, runSize);
+        return first;
+    }
+}
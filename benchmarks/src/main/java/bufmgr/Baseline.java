@@ -0,0 +1,59 @@
+package bufmgr;
+
+import java.io.File;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the whole suite and writes the results as JMH JSON, one file
+ * per run, into a directory (baseline/ by default). The concurrent
+ * benchmarks run at 1, 2, 4, ... 64 threads; the rest run once, on one
+ * thread. Keep the files from a run to compare later changes against.
+ *
+ *     java -cp benchmarks/target/benchmarks.jar bufmgr.Baseline [dir]
+ *
+ * @author Yawen Chen and Tao Liu
+ */
+public class Baseline
+{
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+    private static final Class<?>[] CONCURRENT = {
+        PinBenchmark.class, MissBenchmark.class, PageIOBenchmark.class
+    };
+
+    private static final Class<?>[] SINGLE = {
+        PolicyBenchmark.class, AllocateBenchmark.class, FlushBenchmark.class
+    };
+
+    public static void main(String[] args) throws RunnerException
+    {
+        File dir = new File(args.length > 0 ? args[0] : "baseline");
+        dir.mkdirs();
+        for (Class<?> benchmark : CONCURRENT) {
+            for (int threads : THREADS) {
+                run(benchmark, threads, new File(dir, benchmark.getSimpleName()
+                                                 + "-t" + threads + ".json"));
+            }
+        }
+        for (Class<?> benchmark : SINGLE) {
+            run(benchmark, 1, new File(dir, benchmark.getSimpleName()
+                                       + ".json"));
+        }
+    }
+
+    private static void run(Class<?> benchmark, int threads, File result)
+        throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+            .include("\\." + benchmark.getSimpleName() + "\\.")
+            .threads(threads)
+            .result(result.getPath())
+            .resultFormat(ResultFormatType.JSON)
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,77 @@
+package bufmgr;
+
+import java.io.*;
+import java.nio.file.Files;
+
+/**
+ * Set-up shared by the benchmarks: scratch databases and replacement
+ * policies by name.
+ * @author Yawen Chen and Tao Liu
+ */
+final class Fixtures
+{
+    private Fixtures()
+    {
+    }
+
+    /**
+     * Creates a database in a new scratch directory with every page
+     * allocated and written, each holding its page number in its first
+     * four bytes.
+     * @param numPages the number of pages.
+     * @param pageSize the page size.
+     * @return the name of the database.
+     * @throws IOException passed through from underlying file system.
+     */
+    static String createDatabase(int numPages, int pageSize)
+        throws IOException
+    {
+        File dir = Files.createTempDirectory("bufmgr-bench").toFile();
+        String name = new File(dir, "db").getPath();
+        DBFile file = new DBFile(name, numPages, pageSize, false);
+        try {
+            file.allocatePages(numPages);
+            Page page = new Page(pageSize);
+            for (int i = 0; i < numPages; i++) {
+                page.buffer().putInt(0, i);
+                file.writePage(i, page);
+            }
+            file.force();
+        }
+        finally {
+            file.close();
+        }
+        return name;
+    }
+
+    /**
+     * Erases a database made by createDatabase, and its directory.
+     * @param name the name of the database.
+     */
+    static void eraseDatabase(String name)
+    {
+        DBFile.erase(name);
+        new File(name).getParentFile().delete();
+    }
+
+    /**
+     * Creates a replacement policy.
+     * @param name CLOCK, LRUK, TWOQUEUE or ARC.
+     * @return a new policy.
+     */
+    static ReplacementPolicy policy(String name)
+    {
+        switch (name) {
+        case "CLOCK":
+            return new ClockPolicy();
+        case "LRUK":
+            return new LruKPolicy();
+        case "TWOQUEUE":
+            return new TwoQueuePolicy();
+        case "ARC":
+            return new ArcPolicy();
+        default:
+            throw new IllegalArgumentException("policy " + name);
+        }
+    }
+}
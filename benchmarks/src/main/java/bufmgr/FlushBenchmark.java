@@ -0,0 +1,69 @@
+package bufmgr;
+
+import java.io.*;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * flushAllPages on a full pool with a share of its pages dirty, which
+ * includes sorting the dirty pages, the gathering writes and the
+ * final force. The pages are dirtied again before every call, outside
+ * the timing.
+ * @author Yawen Chen and Tao Liu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class FlushBenchmark
+{
+    @Param({"1024", "16384"})
+    public int poolSize;
+
+    @Param({"10", "100"})
+    public int dirtyPercent;
+
+    private String fileName;
+    private BufferManager bufMgr;
+    private int[] dirtyPages;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        fileName = Fixtures.createDatabase(poolSize, Page.PAGESIZE);
+        bufMgr = new BufferManager(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            bufMgr.pinPage(i, fileName, false);
+            bufMgr.unpinPage(i, fileName, false);
+        }
+        SplittableRandom random = new SplittableRandom(42);
+        dirtyPages = random.ints(0, poolSize).distinct()
+            .limit((long)poolSize * dirtyPercent / 100).sorted().toArray();
+    }
+
+    @Setup(Level.Invocation)
+    public void dirty() throws IOException
+    {
+        for (int pageId : dirtyPages) {
+            bufMgr.pinPage(pageId, fileName, false);
+            bufMgr.unpinPage(pageId, fileName, true);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        bufMgr.close();
+        Fixtures.eraseDatabase(fileName);
+    }
+
+    @Benchmark
+    public void flushAllPages() throws IOException
+    {
+        bufMgr.flushAllPages();
+    }
+}
@@ -0,0 +1,77 @@
+package bufmgr;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The miss path: the database is eight times the size of the pool, so
+ * most pins read a page and replace another. With dirty set, every
+ * page is unpinned dirty, so victims must be written back first.
+ * Reads are mostly served from the OS page cache; the time measured
+ * is the buffer manager's path plus the system calls.
+ * @author Yawen Chen and Tao Liu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MissBenchmark
+{
+    // Database size as a multiple of the pool size.
+    private static final int OVERSIZE = 8;
+
+    @Param({"1024"})
+    public int poolSize;
+
+    @Param({"UNIFORM", "ZIPFIAN", "SEQUENTIAL"})
+    public Workload workload;
+
+    @Param({"false", "true"})
+    public boolean dirty;
+
+    @Param({"CLOCK", "ARC"})
+    public String policy;
+
+    private String fileName;
+    private BufferManager bufMgr;
+
+    @State(Scope.Thread)
+    public static class Accesses
+    {
+        Workload.Chooser chooser;
+
+        @Setup
+        public void setUp(MissBenchmark benchmark)
+        {
+            chooser = benchmark.workload.chooser(
+                OVERSIZE * benchmark.poolSize, Thread.currentThread().getId());
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        fileName = Fixtures.createDatabase(OVERSIZE * poolSize, Page.PAGESIZE);
+        bufMgr = new BufferManager(poolSize, Fixtures.policy(policy));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        bufMgr.close();
+        Fixtures.eraseDatabase(fileName);
+    }
+
+    @Benchmark
+    public Page pinUnpin(Accesses accesses) throws IOException
+    {
+        int pageId = accesses.chooser.next();
+        Page page = bufMgr.pinPage(pageId, fileName, false);
+        if (page != null)
+            bufMgr.unpinPage(pageId, fileName, dirty);
+        return page;
+    }
+}
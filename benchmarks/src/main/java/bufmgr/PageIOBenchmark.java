@@ -0,0 +1,79 @@
+package bufmgr;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * readPage and writePage throughput straight against a DBFile, for
+ * each access mode and a range of page sizes. The database is 64 MB
+ * whatever the page size, and freshly written, so reads other than
+ * DIRECT ones come from the OS page cache. Writes are not forced.
+ * @author Yawen Chen and Tao Liu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageIOBenchmark
+{
+    private static final int FILE_BYTES = 64 << 20;
+
+    @Param({"CHANNEL", "MAPPED", "DIRECT"})
+    public DBFile.Mode mode;
+
+    @Param({"1024", "4096", "16384"})
+    public int pageSize;
+
+    @Param({"UNIFORM", "SEQUENTIAL"})
+    public Workload workload;
+
+    private String fileName;
+    private DBFile file;
+
+    @State(Scope.Thread)
+    public static class Accesses
+    {
+        Workload.Chooser chooser;
+        Page page;
+
+        @Setup
+        public void setUp(PageIOBenchmark benchmark)
+        {
+            chooser = benchmark.workload.chooser(
+                FILE_BYTES / benchmark.pageSize,
+                Thread.currentThread().getId());
+            page = new Page(benchmark.pageSize);
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        fileName = Fixtures.createDatabase(FILE_BYTES / pageSize, pageSize);
+        file = DBFile.open(fileName, mode);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        file.close();
+        Fixtures.eraseDatabase(fileName);
+    }
+
+    @Benchmark
+    public Page readPage(Accesses accesses) throws IOException
+    {
+        file.readPage(accesses.chooser.next(), accesses.page);
+        return accesses.page;
+    }
+
+    @Benchmark
+    public Page writePage(Accesses accesses) throws IOException
+    {
+        file.writePage(accesses.chooser.next(), accesses.page);
+        return accesses.page;
+    }
+}
@@ -0,0 +1,73 @@
+package bufmgr;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The pin/unpin hit path: every page of the database fits in the pool
+ * and is loaded before measuring, so each operation is a page table
+ * lookup, a pin, a policy hook and an unpin. Run with -t to vary the
+ * number of threads.
+ * @author Yawen Chen and Tao Liu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PinBenchmark
+{
+    @Param({"1024", "16384"})
+    public int poolSize;
+
+    @Param({"UNIFORM", "ZIPFIAN", "SEQUENTIAL"})
+    public Workload workload;
+
+    @Param({"CLOCK", "ARC"})
+    public String policy;
+
+    private String fileName;
+    private BufferManager bufMgr;
+
+    @State(Scope.Thread)
+    public static class Accesses
+    {
+        Workload.Chooser chooser;
+
+        @Setup
+        public void setUp(PinBenchmark benchmark)
+        {
+            chooser = benchmark.workload.chooser(
+                benchmark.poolSize, Thread.currentThread().getId());
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        fileName = Fixtures.createDatabase(poolSize, Page.PAGESIZE);
+        bufMgr = new BufferManager(poolSize, Fixtures.policy(policy));
+        for (int i = 0; i < poolSize; i++) {
+            bufMgr.pinPage(i, fileName, false);
+            bufMgr.unpinPage(i, fileName, false);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        bufMgr.close();
+        Fixtures.eraseDatabase(fileName);
+    }
+
+    @Benchmark
+    public Page pinUnpin(Accesses accesses) throws IOException
+    {
+        int pageId = accesses.chooser.next();
+        Page page = bufMgr.pinPage(pageId, fileName, false);
+        bufMgr.unpinPage(pageId, fileName, false);
+        return page;
+    }
+}
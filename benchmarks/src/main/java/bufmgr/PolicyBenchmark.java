@@ -0,0 +1,108 @@
+package bufmgr;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The cost of choosing a victim, apart from any I/O: the clock sweep
+ * (what getClockIndex used to do) and the list and heap policies, at
+ * various pool sizes and with a share of the frames pinned. Each
+ * operation asks the policy for a victim and replaces its page, as a
+ * miss does. The frames are simulated, so only the policy is timed.
+ * @author Yawen Chen and Tao Liu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolicyBenchmark
+{
+    @Param({"1024", "16384", "262144"})
+    public int poolSize;
+
+    @Param({"0", "50", "90"})
+    public int pinnedPercent;
+
+    @Param({"CLOCK", "LRUK", "TWOQUEUE", "ARC"})
+    public String policy;
+
+    private ReplacementPolicy replacementPolicy;
+    private Frames frames;
+    private long nextKey;
+
+    /**
+     * Frames that are either pinned for good or unpinned, with a
+     * reference bit for the clock.
+     */
+    private static final class Frames implements ReplacementPolicy.Frames
+    {
+        private static final byte UNPINNED = 0;
+        private static final byte REFERENCED = 1;
+        private static final byte PINNED = 2;
+
+        private final byte[] state;
+
+        private Frames(int size)
+        {
+            state = new byte[size];
+        }
+
+        public int size()
+        {
+            return state.length;
+        }
+
+        public boolean tryClaim(int frame)
+        {
+            return state[frame] != PINNED;
+        }
+
+        public int sweep(int frame)
+        {
+            switch (state[frame]) {
+            case UNPINNED:
+                return CLAIMED;
+            case REFERENCED:
+                state[frame] = UNPINNED;
+                return ReplacementPolicy.Frames.UNPINNED;
+            default:
+                return BUSY;
+            }
+        }
+    }
+
+    @Setup
+    public void setUp()
+    {
+        replacementPolicy = Fixtures.policy(policy);
+        frames = new Frames(poolSize);
+        replacementPolicy.attach(frames);
+        SplittableRandom random = new SplittableRandom(42);
+        for (int frame = 0; frame < poolSize; frame++) {
+            replacementPolicy.loaded(frame, nextKey++);
+            if (random.nextInt(100) < pinnedPercent) {
+                frames.state[frame] = Frames.PINNED;
+            }
+            else {
+                frames.state[frame] = Frames.REFERENCED;
+                replacementPolicy.unpinned(frame);
+            }
+        }
+    }
+
+    @Benchmark
+    public int replace()
+    {
+        int frame = replacementPolicy.victim();
+        if (frame == ReplacementPolicy.NO_VICTIM)
+            throw new IllegalStateException("no victim");
+        replacementPolicy.removed(frame);
+        replacementPolicy.loaded(frame, nextKey++);
+        frames.state[frame] = Frames.REFERENCED;
+        replacementPolicy.unpinned(frame);
+        return frame;
+    }
+}
@@ -0,0 +1,108 @@
+package bufmgr;
+
+import java.util.SplittableRandom;
+
+/**
+ * Access patterns the benchmarks draw page numbers from.
+ * @author Yawen Chen and Tao Liu
+ */
+public enum Workload
+{
+    /** Every page equally likely. */
+    UNIFORM,
+    /**
+     * Zipfian with skew THETA: page 0 is the most popular, page 1 the
+     * next, and so on.
+     */
+    ZIPFIAN,
+    /** Ascending page numbers, wrapping at the end. */
+    SEQUENTIAL;
+
+    /**
+     * Zipfian skew, as in YCSB: about 80% of accesses go to 20% of the
+     * pages.
+     */
+    public static final double THETA = 0.99;
+
+    /**
+     * Creates a generator of page numbers. Generators are not
+     * thread-safe; give each thread its own, with its own seed.
+     * @param numPages the pages are 0 to numPages-1.
+     * @param seed the random seed.
+     * @return the generator.
+     */
+    public Chooser chooser(int numPages, long seed)
+    {
+        return new Chooser(this, numPages, seed);
+    }
+
+    /**
+     * Draws page numbers from a workload.
+     */
+    public static final class Chooser
+    {
+        private final Workload workload;
+        private final int numPages;
+        private final SplittableRandom random;
+        private int next;
+        // Zipfian constants; see Gray et al., "Quickly generating
+        // billion-record synthetic databases", SIGMOD 1994.
+        private final double zetan;
+        private final double alpha;
+        private final double eta;
+        private final double half;
+
+        private Chooser(Workload workload, int numPages, long seed)
+        {
+            this.workload = workload;
+            this.numPages = numPages;
+            this.random = new SplittableRandom(seed);
+            // Sequential threads start apart, like concurrent scans.
+            this.next = random.nextInt(numPages);
+            if (workload == ZIPFIAN) {
+                zetan = zeta(numPages);
+                alpha = 1.0 / (1.0 - THETA);
+                eta = (1.0 - Math.pow(2.0 / numPages, 1.0 - THETA))
+                    / (1.0 - zeta(2) / zetan);
+                half = 1.0 + Math.pow(0.5, THETA);
+            }
+            else {
+                zetan = alpha = eta = half = 0;
+            }
+        }
+
+        /**
+         * Returns the next page number.
+         * @return a page number from 0 to numPages-1.
+         */
+        public int next()
+        {
+            switch (workload) {
+            case UNIFORM:
+                return random.nextInt(numPages);
+            case ZIPFIAN:
+                double u = random.nextDouble();
+                double uz = u * zetan;
+                if (uz < 1.0)
+                    return 0;
+                if (uz < half)
+                    return Math.min(1, numPages - 1);
+                return Math.min(numPages - 1,
+                                (int)(numPages * Math.pow(eta * u - eta + 1,
+                                                          alpha)));
+            default:
+                int page = next;
+                next = page + 1 == numPages ? 0 : page + 1;
+                return page;
+            }
+        }
+
+        private static double zeta(int n)
+        {
+            double sum = 0;
+            for (int i = 1; i <= n; i++)
+                sum += 1.0 / Math.pow(i, THETA);
+            return sum;
+        }
+    }
+}